@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.LruCache;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Process-wide cache of activity labels and icons pre-scaled to the requested pixel size.
+ * Icons are kept in a memory bounded LRU cache backed by an optional disk tier of PNG files
+ * stored in GravityBox files dir. The disk tier is written only by processes that are allowed
+ * to write there (GravityBox itself) and read by all others. Disk entries are keyed on component,
+ * size and icon resource so that a component switching icons doesn't pick up the old one.
+ * Entries of a package are dropped whenever the package is changed, replaced or removed and
+ * processes not allowed to delete them ignore disk entries older than the change.
+ */
+public class AppIconCache {
+    private static final String TAG = "GB:AppIconCache";
+    private static final boolean DEBUG = false;
+
+    private static final String DISK_CACHE_DIR = "app_icon_cache";
+
+    private static AppIconCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final LruCache<String, Bitmap> mIconCache;
+    private final Map<ComponentName, String> mLabelCache = new HashMap<ComponentName, String>();
+    // incremented whenever label cache gets cleared so that labels loaded meanwhile are not cached
+    private int mLabelCacheGeneration;
+    // time of the last change of package: its last update time or the last change seen by this process
+    private final Map<String, Long> mPackageChangeTimes = new HashMap<String, Long>();
+    private File mDiskCacheDir;
+    private boolean mDiskCacheWritable;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public static synchronized AppIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new AppIconCache(appContext == null ? context : appContext);
+        }
+        return sInstance;
+    }
+
+    private AppIconCache(Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+
+        final int cacheSize = Math.min((int)Runtime.getRuntime().maxMemory() / 8, 4194304);
+        mIconCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap b) {
+                return b.getByteCount();
+            }
+        };
+
+        try {
+            File dir = new File(Utils.getGbContext(context).getFilesDir(), DISK_CACHE_DIR);
+            if (GravityBox.PACKAGE_NAME.equals(context.getPackageName())) {
+                if (dir.isDirectory() || dir.mkdirs()) {
+                    dir.setExecutable(true, false);
+                    dir.setReadable(true, false);
+                    mDiskCacheWritable = dir.canWrite();
+                }
+            }
+            if (dir.isDirectory() && dir.canRead()) {
+                mDiskCacheDir = dir;
+            } else {
+                mDiskCacheWritable = false;
+            }
+        } catch (Throwable t) {
+            if (DEBUG) XposedBridge.log(t);
+        }
+        if (DEBUG) log("Disk cache: " + mDiskCacheDir + "; writable=" + mDiskCacheWritable);
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addDataScheme("package");
+        mContext.registerReceiver(mBroadcastReceiver, intentFilter);
+        mContext.registerReceiver(mBroadcastReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    private BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                synchronized (mLabelCache) {
+                    mLabelCache.clear();
+                    mLabelCacheGeneration++;
+                }
+            } else {
+                final Uri data = intent.getData();
+                if (data != null) {
+                    invalidatePackage(data.getSchemeSpecificPart());
+                }
+            }
+        }
+    };
+
+    public String getLabel(ComponentName cn) throws NameNotFoundException {
+        synchronized (mLabelCache) {
+            String label = mLabelCache.get(cn);
+            if (label != null) return label;
+        }
+        return getLabel(mPm.getActivityInfo(cn, 0));
+    }
+
+    public String getLabel(ActivityInfo ai) {
+        final ComponentName cn = new ComponentName(ai.packageName, ai.name);
+        final int generation;
+        synchronized (mLabelCache) {
+            String label = mLabelCache.get(cn);
+            if (label != null) return label;
+            generation = mLabelCacheGeneration;
+        }
+        // loading label might take a while so don't hold the lock
+        final String label = ai.loadLabel(mPm).toString();
+        synchronized (mLabelCache) {
+            if (generation == mLabelCacheGeneration) {
+                mLabelCache.put(cn, label);
+            }
+        }
+        return label;
+    }
+
+    public Bitmap getIcon(ComponentName cn, int sizePx) throws NameNotFoundException {
+        Bitmap icon = mIconCache.get(getKey(cn, sizePx));
+        if (icon == null) {
+            icon = getIcon(mPm.getActivityInfo(cn, 0), sizePx);
+        }
+        return icon;
+    }
+
+    public Bitmap getIcon(ActivityInfo ai, int sizePx) {
+        final String key = getKey(new ComponentName(ai.packageName, ai.name), sizePx);
+        Bitmap icon = mIconCache.get(key);
+        if (icon == null) {
+            final String diskKey = key + "_" + Integer.toHexString(ai.getIconResource());
+            icon = getIconFromDisk(ai, diskKey);
+            if (icon == null) {
+                icon = loadIcon(ai, diskKey, sizePx);
+            }
+            mIconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    public void invalidatePackage(String pkgName) {
+        if (pkgName == null) return;
+        if (DEBUG) log("Invalidating package " + pkgName);
+
+        final String prefix = pkgName + "#";
+        for (String key : mIconCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mIconCache.remove(key);
+            }
+        }
+        synchronized (mLabelCache) {
+            Iterator<ComponentName> it = mLabelCache.keySet().iterator();
+            while (it.hasNext()) {
+                if (pkgName.equals(it.next().getPackageName())) {
+                    it.remove();
+                }
+            }
+            mLabelCacheGeneration++;
+        }
+        synchronized (mPackageChangeTimes) {
+            mPackageChangeTimes.put(pkgName, System.currentTimeMillis());
+        }
+        if (mDiskCacheWritable) {
+            File[] files = mDiskCacheDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().startsWith(prefix)) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static String getKey(ComponentName cn, int sizePx) {
+        return cn.getPackageName() + "#" + cn.getClassName() + "@" + sizePx;
+    }
+
+    private Bitmap loadIcon(ActivityInfo ai, String diskKey, int sizePx) {
+        Bitmap icon = Utils.drawableToBitmap(ai.loadIcon(mPm));
+        icon = Bitmap.createScaledBitmap(icon, sizePx, sizePx, true);
+        if (mDiskCacheWritable) {
+            writeIconToDisk(diskKey, icon);
+        }
+        return icon;
+    }
+
+    private long getPackageChangeTime(String pkgName) throws NameNotFoundException {
+        synchronized (mPackageChangeTimes) {
+            Long t = mPackageChangeTimes.get(pkgName);
+            if (t != null) return t;
+        }
+        final long updateTime = mPm.getPackageInfo(pkgName, 0).lastUpdateTime;
+        synchronized (mPackageChangeTimes) {
+            // package might have been changed meanwhile
+            Long t = mPackageChangeTimes.get(pkgName);
+            if (t != null) return t;
+            mPackageChangeTimes.put(pkgName, updateTime);
+            return updateTime;
+        }
+    }
+
+    private Bitmap getIconFromDisk(ActivityInfo ai, String diskKey) {
+        if (mDiskCacheDir == null) return null;
+
+        File f = new File(mDiskCacheDir, diskKey + ".png");
+        if (!f.exists()) return null;
+        try {
+            // entries older than the last change of the package are stale
+            if (f.lastModified() < getPackageChangeTime(ai.packageName)) {
+                if (DEBUG) log("Stale disk cache entry: " + diskKey);
+                if (mDiskCacheWritable) f.delete();
+                return null;
+            }
+            return BitmapFactory.decodeFile(f.getAbsolutePath());
+        } catch (Throwable t) {
+            if (DEBUG) XposedBridge.log(t);
+            return null;
+        }
+    }
+
+    private void writeIconToDisk(String diskKey, Bitmap icon) {
+        // write to temporary file renamed once complete so that other processes
+        // never decode partially written icon
+        File f = new File(mDiskCacheDir, diskKey + ".png");
+        File tmp = new File(mDiskCacheDir, diskKey + ".png." + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            icon.compress(CompressFormat.PNG, 100, fos);
+            fos.close();
+            fos = null;
+            tmp.setReadable(true, false);
+            if (!tmp.renameTo(f)) {
+                throw new IllegalStateException("rename failed");
+            }
+        } catch (Throwable t) {
+            log("Error writing icon to disk cache: " + t.getMessage());
+            if (fos != null) {
+                try { fos.close(); } catch (IOException e) { }
+            }
+            tmp.delete();
+        }
+    }
+}
@@ -32,8 +32,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.ActivityInfo;
-import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -61,7 +59,6 @@ public class AppLauncher {
     private Resources mGbResources;
     private Dialog mDialog;
     private Handler mHandler;
-    private PackageManager mPm;
     private List<AppInfo> mAppSlots;
     private View mAppView;
     private XSharedPreferences mPrefs;
@@ -119,7 +116,6 @@ public class AppLauncher {
         mGbContext = Utils.getGbContext(mContext);
         mGbResources = mGbContext.getResources();
         mHandler = new Handler();
-        mPm = mContext.getPackageManager();
 
         mAppSlots = new ArrayList<AppInfo>();
         mAppSlots.add(new AppInfo(R.id.quickapp1));
@@ -369,18 +365,20 @@ public class AppLauncher {
                     }
                 }
 
+                int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 50, 
+                        mResources.getDisplayMetrics());
                 if (mode == AppPickerPreference.MODE_APP) {
-                    ActivityInfo ai = mPm.getActivityInfo(mIntent.getComponent(), 0);
-                    mAppName = ai.loadLabel(mPm).toString();
+                    AppIconCache iconCache = AppIconCache.getInstance(mContext);
+                    mAppName = iconCache.getLabel(mIntent.getComponent());
                     if (appIcon == null) {
-                        appIcon = Utils.drawableToBitmap(ai.loadIcon(mPm));
+                        // already scaled
+                        mAppIcon = new BitmapDrawable(mResources,
+                                iconCache.getIcon(mIntent.getComponent(), sizePx));
                     }
                 } else if (mode == AppPickerPreference.MODE_SHORTCUT) {
                     mAppName = mIntent.getStringExtra("label");
                 }
                 if (appIcon != null) {
-                    int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 50, 
-                            mResources.getDisplayMetrics());
                     Bitmap scaledIcon = Bitmap.createScaledBitmap(appIcon, sizePx, sizePx, true);
                     mAppIcon = new BitmapDrawable(mResources, scaledIcon);
                 }
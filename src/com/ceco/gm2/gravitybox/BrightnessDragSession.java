@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.lang.reflect.Method;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.IBinder;
+import android.provider.Settings;
+import android.view.Choreographer;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Single brightness drag gesture of status bar brightness control.
+ * Power manager binder and its brightness method are resolved once when session starts.
+ * Brightness values are applied as temporary override at most once per frame skipping
+ * values equal to the last applied one and the final value is written to settings
+ * only once when session finishes.
+ * Must be used from the main thread.
+ */
+public class BrightnessDragSession {
+    private static final String TAG = "GB:BrightnessDragSession";
+    private static final boolean DEBUG = false;
+
+    private final Context mContext;
+    private final Object mPowerManager;
+    private final Method mSetBrightnessMethod;
+    private final Choreographer mChoreographer;
+    private int mPendingBrightness = -1;
+    private int mAppliedBrightness = -1;
+    private boolean mFrameScheduled;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    /**
+     * Creates new session or returns null if power manager service is not available.
+     */
+    public static BrightnessDragSession start(Context context) {
+        try {
+            Class<?> classSm = XposedHelpers.findClass("android.os.ServiceManager", null);
+            Class<?> classIpm = XposedHelpers.findClass("android.os.IPowerManager.Stub", null);
+            IBinder b = (IBinder) XposedHelpers.callStaticMethod(
+                    classSm, "getService", Context.POWER_SERVICE);
+            Object power = XposedHelpers.callStaticMethod(classIpm, "asInterface", b);
+            if (power == null) return null;
+
+            final String bcMethod = Build.VERSION.SDK_INT > 16 ?
+                    "setTemporaryScreenBrightnessSettingOverride" : "setBacklightBrightness";
+            Method m = XposedHelpers.findMethodExact(power.getClass(), bcMethod, int.class);
+            return new BrightnessDragSession(context, power, m);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+            return null;
+        }
+    }
+
+    private BrightnessDragSession(Context context, Object powerManager, Method setBrightnessMethod) {
+        mContext = context;
+        mPowerManager = powerManager;
+        mSetBrightnessMethod = setBrightnessMethod;
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    private Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            applyPending();
+        }
+    };
+
+    public void setBrightness(int brightness) {
+        mPendingBrightness = brightness;
+        if (!mFrameScheduled && brightness != mAppliedBrightness) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private void applyPending() {
+        if (mPendingBrightness < 0 || mPendingBrightness == mAppliedBrightness) return;
+
+        try {
+            mSetBrightnessMethod.invoke(mPowerManager, mPendingBrightness);
+            mAppliedBrightness = mPendingBrightness;
+            if (DEBUG) log("Brightness override: " + mAppliedBrightness);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+
+    /**
+     * Applies pending brightness immediately and persists the last applied value.
+     */
+    public void finish() {
+        if (mFrameScheduled) {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mFrameScheduled = false;
+        }
+        applyPending();
+        if (mAppliedBrightness >= 0) {
+            Settings.System.putInt(mContext.getContentResolver(),
+                    Settings.System.SCREEN_BRIGHTNESS, mAppliedBrightness);
+            if (DEBUG) log("Brightness persisted: " + mAppliedBrightness);
+        }
+    }
+}
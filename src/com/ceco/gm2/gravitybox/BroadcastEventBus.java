@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Broadcast receiver dispatching intents only to sub-receivers subscribed for their action.
+ * Subscriptions are indexed by action so dispatch costs a single map lookup no matter
+ * how many sub-receivers a module has. Each subscriber chooses whether it is called
+ * directly on the main thread or posted to a shared background looper.
+ * Subscribers can be added before the bus is registered; actions subscribed after
+ * registration cause the underlying receiver to be re-registered with extended filter.
+ */
+public class BroadcastEventBus {
+    private static final String TAG = "GB:BroadcastEventBus";
+    private static final boolean DEBUG = false;
+
+    public static final int DELIVERY_MAIN = 0;
+    public static final int DELIVERY_BACKGROUND = 1;
+
+    private static Handler sBackgroundHandler;
+
+    private static final class Subscription {
+        final BroadcastSubReceiver receiver;
+        final int delivery;
+        volatile boolean active = true;
+
+        Subscription(BroadcastSubReceiver receiver, int delivery) {
+            this.receiver = receiver;
+            this.delivery = delivery;
+        }
+    }
+
+    private final String mName;
+    // subscription arrays are never modified once published so they can be iterated safely
+    // even when a subscriber (un)subscribes from within its own callback
+    private final Map<String, Subscription[]> mSubscriptions = new HashMap<String, Subscription[]>();
+    private Context mContext;
+    private IntentFilter mRegisteredFilter;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    private static synchronized Handler getBackgroundHandler() {
+        if (sBackgroundHandler == null) {
+            HandlerThread thread = new HandlerThread("GbEventBus", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sBackgroundHandler = new Handler(thread.getLooper());
+        }
+        return sBackgroundHandler;
+    }
+
+    public BroadcastEventBus(String name) {
+        mName = name;
+    }
+
+    private BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            dispatch(context, intent);
+        }
+    };
+
+    public synchronized void subscribe(BroadcastSubReceiver receiver, int delivery, String... actions) {
+        if (receiver == null || actions == null) return;
+
+        boolean filterChanged = false;
+        for (String action : actions) {
+            Subscription[] oldSubs = mSubscriptions.get(action);
+            if (oldSubs == null) {
+                mSubscriptions.put(action, new Subscription[] { new Subscription(receiver, delivery) });
+                filterChanged = true;
+            } else {
+                boolean subscribed = false;
+                for (Subscription s : oldSubs) {
+                    if (s.receiver == receiver) {
+                        subscribed = true;
+                        break;
+                    }
+                }
+                if (subscribed) continue;
+                Subscription[] subs = new Subscription[oldSubs.length + 1];
+                System.arraycopy(oldSubs, 0, subs, 0, oldSubs.length);
+                subs[oldSubs.length] = new Subscription(receiver, delivery);
+                mSubscriptions.put(action, subs);
+            }
+        }
+
+        if (filterChanged && mRegisteredFilter != null) {
+            registerReceiver();
+        }
+    }
+
+    /**
+     * Removes all subscriptions of given receiver. Receiver is not called anymore
+     * even for the intent that is being dispatched at the moment.
+     */
+    public synchronized void unsubscribe(BroadcastSubReceiver receiver) {
+        if (receiver == null) return;
+
+        for (Map.Entry<String, Subscription[]> entry : mSubscriptions.entrySet()) {
+            Subscription[] oldSubs = entry.getValue();
+            int index = -1;
+            for (int i = 0; i < oldSubs.length; i++) {
+                if (oldSubs[i].receiver == receiver) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) continue;
+            oldSubs[index].active = false;
+            // keep the action registered even when its last subscriber is gone,
+            // empty array avoids re-registering receiver each time subscriber comes and goes
+            Subscription[] subs = new Subscription[oldSubs.length - 1];
+            System.arraycopy(oldSubs, 0, subs, 0, index);
+            System.arraycopy(oldSubs, index + 1, subs, index, oldSubs.length - index - 1);
+            entry.setValue(subs);
+        }
+    }
+
+    public synchronized boolean isSubscribed(BroadcastSubReceiver receiver) {
+        for (Subscription[] subs : mSubscriptions.values()) {
+            for (Subscription s : subs) {
+                if (s.receiver == receiver) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the bus as broadcast receiver for all currently subscribed actions.
+     */
+    public synchronized void register(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("Context cannot be null");
+
+        mContext = context;
+        registerReceiver();
+    }
+
+    private void registerReceiver() {
+        if (mRegisteredFilter != null) {
+            mContext.unregisterReceiver(mReceiver);
+        }
+        mRegisteredFilter = new IntentFilter();
+        for (String action : mSubscriptions.keySet()) {
+            mRegisteredFilter.addAction(action);
+        }
+        mContext.registerReceiver(mReceiver, mRegisteredFilter);
+        if (DEBUG) log(mName + ": registered for " + mRegisteredFilter.countActions() + " actions");
+    }
+
+    public void dispatch(final Context context, final Intent intent) {
+        final String action = intent.getAction();
+        if (action == null) return;
+
+        final Subscription[] subs;
+        synchronized (this) {
+            subs = mSubscriptions.get(action);
+        }
+        if (subs == null || subs.length == 0) return;
+        if (DEBUG) log(mName + ": dispatching " + action + " to " + subs.length + " subscribers");
+
+        for (final Subscription s : subs) {
+            if (!s.active) continue;
+            if (s.delivery == DELIVERY_BACKGROUND) {
+                getBackgroundHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (s.active) {
+                            deliver(s, context, intent);
+                        }
+                    }
+                });
+            } else {
+                deliver(s, context, intent);
+            }
+        }
+    }
+
+    private void deliver(Subscription s, Context context, Intent intent) {
+        try {
+            s.receiver.onBroadcastReceived(context, intent);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+}
@@ -22,8 +22,6 @@ import java.util.Hashtable;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
-import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
@@ -129,19 +127,18 @@ public class GlowPadHelper {
             }
 
             final Resources res = context.getResources();
+            final int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                    iconSizeDp, res.getDisplayMetrics());
             if (mode == AppPickerPreference.MODE_APP) {
-                PackageManager pm = context.getPackageManager();
-                ActivityInfo ai = pm.getActivityInfo(appInfo.intent.getComponent(), 0);
-                appInfo.name = (String) ai.loadLabel(pm);
+                AppIconCache iconCache = AppIconCache.getInstance(context);
+                appInfo.name = iconCache.getLabel(appInfo.intent.getComponent());
                 if (appIcon == null) {
-                    appIcon = Utils.drawableToBitmap(ai.loadIcon(pm));
+                    appIcon = iconCache.getIcon(appInfo.intent.getComponent(), sizePx);
                 }
             } else if (mode == AppPickerPreference.MODE_SHORTCUT) {
                 appInfo.name = appInfo.intent.getStringExtra("label");
             }
             if (appIcon != null) {
-                int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
-                        iconSizeDp, res.getDisplayMetrics());
                 appIcon = createStyledBitmap(appIcon, sizePx, bgStyle);
                 appInfo.icon = new BitmapDrawable(res, appIcon);
             }
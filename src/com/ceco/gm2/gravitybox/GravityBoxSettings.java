@@ -1326,6 +1326,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
             addPreferencesFromResource(R.xml.gravitybox);
 
             mPrefs = getPreferenceScreen().getSharedPreferences();
+            PrefsSnapshot.Publisher.start(getActivity(), mPrefs);
             AppPickerPreference.sPrefsFragment = this;
             AppPickerPreference.cleanupAsync(getActivity());
 
@@ -15,80 +15,92 @@
 
 package com.ceco.gm2.gravitybox;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
 
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.os.RemoteException;
 
+/**
+ * Receives raw ARGB_8888 pixels of last screen through a pipe passed in MSG_SET_IMAGE,
+ * optionally blurs them and stores them to KIS_IMAGE_FILE in raw format which is
+ * memory mapped by lockscreen with no image decoding involved.
+ */
 public class KeyguardImageService extends Service {
-    public static final int MSG_BEGIN_OUTPUT = 1;
-    public static final int MSG_WRITE_OUTPUT = 2;
-    public static final int MSG_FINISH_OUTPUT = 3;
-    public static final int MSG_GET_NEXT_CHUNK = 4;
+    public static final int MSG_SET_IMAGE = 1;
+    public static final int MSG_IMAGE_SAVED = 2;
     public static final int MSG_ERROR = -1;
 
+    public static final String EXTRA_WIDTH = "width";
+    public static final String EXTRA_HEIGHT = "height";
+    public static final String EXTRA_PIXELS = "pixels";
+
     public static final String ACTION_KEYGUARD_IMAGE_UPDATED = "gravitybox.intent.action.KEYGUARD_IMAGE_UPDATED";
+    public static final String KIS_IMAGE_FILE = "kis_image.raw";
+    private static final String KIS_IMAGE_FILE_LEGACY = "kis_image.png";
+
+    // raw image file header: magic, width, height
+    private static final int IMAGE_MAGIC = 0x47424b49;
+    private static final int IMAGE_HEADER_SIZE = 12;
 
     private File mKisImageFile;
-    private boolean mWriteInProgress;
-    private ByteArrayOutputStream mOutputStream;
     private SharedPreferences mPrefs;
-
-    final Messenger mMessenger = new Messenger(new ClientHandler());
+    private HandlerThread mWorkerThread;
+    private Messenger mMessenger;
 
     class ClientHandler extends Handler {
+        ClientHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_BEGIN_OUTPUT:
-                    if (mWriteInProgress) return;
-                    try {
-                        mOutputStream = new ByteArrayOutputStream();
-                        mWriteInProgress = true;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException e1) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_WRITE_OUTPUT:
-                    try {
-                        byte[] data = msg.getData().getByteArray("data");
-                        mOutputStream.write(data);
-                        data = null;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException e1) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_FINISH_OUTPUT:
+            if (msg.what != MSG_SET_IMAGE) return;
+
+            final Messenger client = msg.replyTo;
+            final Bundle data = msg.getData();
+            final ParcelFileDescriptor pfd = data.getParcelable(EXTRA_PIXELS);
+            boolean saved = false;
+            try {
+                saved = saveImage(data.getInt(EXTRA_WIDTH), data.getInt(EXTRA_HEIGHT), pfd);
+                if (saved) {
+                    Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
+                    sendBroadcast(intent);
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+            } finally {
+                if (pfd != null) {
                     try {
-                        if (saveImage()) {
-                            Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
-                            sendBroadcast(intent);
-                        }
-                        mOutputStream.close();
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                    }
-                    break;
+                        pfd.close();
+                    } catch (IOException e) { }
+                }
+            }
+            if (client != null) {
+                try {
+                    client.send(Message.obtain(null, saved ? MSG_IMAGE_SAVED : MSG_ERROR));
+                } catch (RemoteException e) { }
             }
         }
     };
@@ -96,9 +108,19 @@ public class KeyguardImageService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        mKisImageFile = new File(getFilesDir() + "/kis_image.png");
+        mKisImageFile = new File(getFilesDir(), KIS_IMAGE_FILE);
+        new File(getFilesDir(), KIS_IMAGE_FILE_LEGACY).delete();
         final String prefsName = getPackageName() + "_preferences";
         mPrefs = getSharedPreferences(prefsName, Context.MODE_WORLD_READABLE);
+        mWorkerThread = new HandlerThread("KeyguardImageService", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mMessenger = new Messenger(new ClientHandler(mWorkerThread.getLooper()));
+    }
+
+    @Override
+    public void onDestroy() {
+        mWorkerThread.quit();
+        super.onDestroy();
     }
 
     @Override
@@ -106,24 +128,86 @@ public class KeyguardImageService extends Service {
         return mMessenger.getBinder();
     }
 
-    private boolean saveImage() {
+    private boolean saveImage(int width, int height, ParcelFileDescriptor pfd) throws IOException {
+        if (pfd == null || width <= 0 || height <= 0) return false;
+
+        final ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+        FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
         try {
-            Bitmap tmpBmp = BitmapFactory.decodeStream(
-                    new ByteArrayInputStream(mOutputStream.toByteArray()));
-            if (tmpBmp != null) {
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                    tmpBmp = Utils.blurBitmap(this, tmpBmp, mPrefs.getInt(
-                            GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
-                }
-                tmpBmp.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(mKisImageFile));
-                mKisImageFile.setReadable(true, false);
-                tmpBmp.recycle();
-                return true;
+            final ReadableByteChannel channel = in.getChannel();
+            while (pixels.hasRemaining()) {
+                if (channel.read(pixels) < 0) return false;
+            }
+        } finally {
+            in.close();
+        }
+        pixels.rewind();
+
+        Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bmp.copyPixelsFromBuffer(pixels);
+        if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
+            Bitmap blurred = Utils.blurBitmap(this, bmp, mPrefs.getInt(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
+            bmp.recycle();
+            bmp = blurred;
+            pixels.rewind();
+            bmp.copyPixelsToBuffer(pixels);
+            pixels.rewind();
+        }
+        bmp.recycle();
+
+        // write to temp file first so that lockscreen never maps partially written image
+        final File tmpFile = new File(mKisImageFile.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(IMAGE_HEADER_SIZE).order(ByteOrder.nativeOrder());
+            header.putInt(IMAGE_MAGIC).putInt(width).putInt(height).rewind();
+            raf.setLength(IMAGE_HEADER_SIZE + pixels.capacity());
+            channel.write(header, 0);
+            long pos = IMAGE_HEADER_SIZE;
+            while (pixels.hasRemaining()) {
+                pos += channel.write(pixels, pos);
+            }
+        } finally {
+            raf.close();
+        }
+        tmpFile.setReadable(true, false);
+        return tmpFile.renameTo(mKisImageFile);
+    }
+
+    /**
+     * Loads image stored by the service. Pixels are memory mapped straight to bitmap.
+     * @return bitmap or null if there's no valid image
+     */
+    public static Bitmap loadImage(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size < IMAGE_HEADER_SIZE) return null;
+
+            MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.nativeOrder());
+            final int width = buf.getInt(4);
+            final int height = buf.getInt(8);
+            if (buf.getInt(0) != IMAGE_MAGIC || width <= 0 || height <= 0 ||
+                    size != IMAGE_HEADER_SIZE + (long) width * height * 4) return null;
+
+            buf.position(IMAGE_HEADER_SIZE);
+            Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bmp.copyPixelsFromBuffer(buf.slice());
+            return bmp;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) { }
             }
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
         }
     }
 }
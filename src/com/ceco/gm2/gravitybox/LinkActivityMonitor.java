@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+/**
+ * Decides whether SmartRadio switch to power saving mode should be postponed
+ * because of mobile link activity and when link should be sampled next.
+ * Works on plain timestamps and cumulative byte counters so that it can be driven
+ * by alarms and TrafficStats as well as by recorded traces.
+ */
+public class LinkActivityMonitor {
+    // link activity sampling intervals
+    public static final long INTERVAL_MIN = 15 * 1000;
+    public static final long INTERVAL_MAX = 5 * 60 * 1000;
+
+    private long mTimestamp;
+    private long mRxBytes;
+    private long mTxBytes;
+    private long mInterval;
+
+    /**
+     * Starts monitoring from the given sample.
+     * @param timestamp elapsed realtime in ms
+     * @param rxBytes cumulative received bytes or negative value if unsupported
+     * @param txBytes cumulative transmitted bytes or negative value if unsupported
+     */
+    public void start(long timestamp, long rxBytes, long txBytes) {
+        mInterval = INTERVAL_MIN;
+        setSample(timestamp, rxBytes, txBytes);
+    }
+
+    /**
+     * Evaluates link activity since the previous sample.
+     * @param thresholdKBs activity threshold in KB/s; 0 disables postponing
+     * @return delay in ms after which link should be sampled again when activity
+     * reached the threshold or 0 when mode should be changed now
+     */
+    public long getPostponeDelay(long timestamp, long rxBytes, long txBytes, int thresholdKBs) {
+        if (thresholdKBs <= 0 || mRxBytes < 0 || rxBytes < 0) return 0;
+
+        final long timeDelta = timestamp - mTimestamp;
+        if (timeDelta <= 0) return 0;
+        final long speedRxKBs = (rxBytes - mRxBytes) * 1000 / timeDelta / 1024;
+        final long speedTxKBs = (txBytes - mTxBytes) * 1000 / timeDelta / 1024;
+        if (speedRxKBs < thresholdKBs && speedTxKBs < thresholdKBs) return 0;
+
+        // sample again soon so that idle link is detected quickly, backing off
+        // while transfer lasts to avoid frequent wake ups
+        final long delay = mInterval;
+        mInterval = Math.min(mInterval * 2, INTERVAL_MAX);
+        setSample(timestamp, rxBytes, txBytes);
+        return delay;
+    }
+
+    private void setSample(long timestamp, long rxBytes, long txBytes) {
+        mTimestamp = timestamp;
+        mRxBytes = rxBytes;
+        mTxBytes = txBytes;
+    }
+}
@@ -17,94 +17,209 @@
 package com.ceco.gm2.gravitybox;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 
 import android.os.StrictMode;
+import android.os.SystemClock;
 
 public class MemInfoReader {
-    byte[] mBuffer = new byte[1024];
+    // results of back-to-back reads within this period are shared
+    private static final long CACHE_TTL_MS = 1000;
 
-    private long mTotalSize;
-    private long mFreeSize;
-    private long mCachedSize;
+    private static final String[] ZRAM_MEM_USED_FILES = new String[] {
+        "/sys/block/zram0/mem_used_total",
+        "/sys/block/zram0/compr_data_size"
+    };
+    private static final String ZRAM_ORIG_DATA_FILE = "/sys/block/zram0/orig_data_size";
 
-    private boolean matchText(byte[] buffer, int index, String text) {
-        int N = text.length();
-        if ((index+N) >= buffer.length) {
-            return false;
+    private static final int KEY_MEM_TOTAL = 0;
+    private static final int KEY_MEM_FREE = 1;
+    private static final int KEY_BUFFERS = 2;
+    private static final int KEY_CACHED = 3;
+    private static final int KEY_SWAP_CACHED = 4;
+    private static final int KEY_ACTIVE = 5;
+    private static final int KEY_INACTIVE = 6;
+    private static final int KEY_SWAP_TOTAL = 7;
+    private static final int KEY_SWAP_FREE = 8;
+    private static final byte[][] KEYS = new byte[][] {
+        "MemTotal".getBytes(),
+        "MemFree".getBytes(),
+        "Buffers".getBytes(),
+        "Cached".getBytes(),
+        "SwapCached".getBytes(),
+        "Active".getBytes(),
+        "Inactive".getBytes(),
+        "SwapTotal".getBytes(),
+        "SwapFree".getBytes()
+    };
+    private static final int MAX_KEY_LENGTH = 32;
+
+    private final byte[] mBuffer = new byte[1024];
+    private final byte[] mKeyBuffer = new byte[MAX_KEY_LENGTH];
+    private final long[] mValues = new long[KEYS.length];
+    private long mZramMemUsed;
+    private long mZramOrigDataSize;
+    private long mLastReadTime;
+    private boolean mValid;
+
+    public void readMemInfo() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mValid && (now - mLastReadTime) < CACHE_TTL_MS) {
+            return;
         }
-        for (int i=0; i<N; i++) {
-            if (buffer[index+i] != text.charAt(i)) {
-                return false;
+
+        // Permit disk reads here, as /proc/meminfo isn't really "on
+        // disk" and should be fast.  TODO: make BlockGuard ignore
+        // /proc/ and /sys/ files perhaps?
+        StrictMode.ThreadPolicy savedPolicy = StrictMode.allowThreadDiskReads();
+        try {
+            for (int i = 0; i < mValues.length; i++) {
+                mValues[i] = 0;
             }
+            parseMemInfo();
+            mZramMemUsed = 0;
+            for (String file : ZRAM_MEM_USED_FILES) {
+                mZramMemUsed = readSingleValue(file);
+                if (mZramMemUsed > 0) break;
+            }
+            mZramOrigDataSize = mZramMemUsed > 0 ? readSingleValue(ZRAM_ORIG_DATA_FILE) : 0;
+            mValid = true;
+            mLastReadTime = now;
+        } catch (IOException e) {
+            mValid = false;
+        } finally {
+            StrictMode.setThreadPolicy(savedPolicy);
         }
-        return true;
     }
 
-    private long extractMemValue(byte[] buffer, int index) {
-        while (index < buffer.length && buffer[index] != '\n') {
-            if (buffer[index] >= '0' && buffer[index] <= '9') {
-                int start = index;
-                index++;
-                while (index < buffer.length && buffer[index] >= '0'
-                    && buffer[index] <= '9') {
-                    index++;
+    // forces next readMemInfo() call to read fresh values
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Streams /proc/meminfo through a fixed buffer. Lines have "Key:   value kB" format;
+     * state is kept across reads so lines spanning buffer boundaries are handled.
+     */
+    private void parseMemInfo() throws IOException {
+        FileInputStream is = new FileInputStream("/proc/meminfo");
+        try {
+            int keyLength = 0;
+            int key = -1;
+            boolean inValue = false;
+            boolean skipLine = false;
+            long value = 0;
+            int len;
+            while ((len = is.read(mBuffer)) > 0) {
+                for (int i = 0; i < len; i++) {
+                    final byte b = mBuffer[i];
+                    if (b == '\n') {
+                        if (key >= 0) {
+                            mValues[key] = value * 1024;
+                        }
+                        keyLength = 0;
+                        key = -1;
+                        inValue = false;
+                        skipLine = false;
+                        value = 0;
+                    } else if (skipLine) {
+                        continue;
+                    } else if (!inValue) {
+                        if (b == ':') {
+                            key = findKey(keyLength);
+                            inValue = true;
+                            skipLine = (key < 0);
+                        } else if (keyLength < MAX_KEY_LENGTH) {
+                            mKeyBuffer[keyLength++] = b;
+                        } else {
+                            skipLine = true;
+                        }
+                    } else if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                    } else if (value > 0) {
+                        // unit suffix follows the number
+                        skipLine = true;
+                    }
                 }
-                String str = new String(buffer, 0, start, index-start);
-                return ((long)Integer.parseInt(str)) * 1024;
             }
-            index++;
+        } finally {
+            is.close();
         }
-        return 0;
     }
 
-    public void readMemInfo() {
-        // Permit disk reads here, as /proc/meminfo isn't really "on
-        // disk" and should be fast.  TODO: make BlockGuard ignore
-        // /proc/ and /sys/ files perhaps?
-        StrictMode.ThreadPolicy savedPolicy = StrictMode.allowThreadDiskReads();
+    private int findKey(int keyLength) {
+        for (int k = 0; k < KEYS.length; k++) {
+            final byte[] name = KEYS[k];
+            if (name.length != keyLength) continue;
+            int j = 0;
+            while (j < keyLength && name[j] == mKeyBuffer[j]) j++;
+            if (j == keyLength) return k;
+        }
+        return -1;
+    }
+
+    private long readSingleValue(String path) {
+        FileInputStream is = null;
         try {
-            mTotalSize = 0;
-            mFreeSize = 0;
-            mCachedSize = 0;
-            FileInputStream is = new FileInputStream("/proc/meminfo");
-            int len = is.read(mBuffer);
-            is.close();
-            final int BUFLEN = mBuffer.length;
-            int count = 0;
-            for (int i=0; i<len && count < 3; i++) {
-                if (matchText(mBuffer, i, "MemTotal")) {
-                    i += 8;
-                    mTotalSize = extractMemValue(mBuffer, i);
-                    count++;
-                } else if (matchText(mBuffer, i, "MemFree")) {
-                    i += 7;
-                    mFreeSize = extractMemValue(mBuffer, i);
-                    count++;
-                } else if (matchText(mBuffer, i, "Cached")) {
-                    i += 6;
-                    mCachedSize = extractMemValue(mBuffer, i);
-                    count++;
-                }
-                while (i < BUFLEN && mBuffer[i] != '\n') {
-                    i++;
-                }
+            is = new FileInputStream(path);
+            final int len = is.read(mBuffer);
+            long value = 0;
+            for (int i = 0; i < len; i++) {
+                final byte b = mBuffer[i];
+                if (b < '0' || b > '9') break;
+                value = value * 10 + (b - '0');
             }
-        } catch (java.io.FileNotFoundException e) {
-        } catch (java.io.IOException e) {
+            return value;
+        } catch (IOException e) {
+            return 0;
         } finally {
-            StrictMode.setThreadPolicy(savedPolicy);
+            if (is != null) try { is.close(); } catch (IOException e) { }
         }
     }
 
     public long getTotalSize() {
-        return mTotalSize;
+        return mValues[KEY_MEM_TOTAL];
     }
 
     public long getFreeSize() {
-        return mFreeSize;
+        return mValues[KEY_MEM_FREE];
+    }
+
+    public long getBuffersSize() {
+        return mValues[KEY_BUFFERS];
     }
 
     public long getCachedSize() {
-        return mCachedSize;
+        return mValues[KEY_CACHED];
+    }
+
+    public long getSwapCachedSize() {
+        return mValues[KEY_SWAP_CACHED];
+    }
+
+    public long getActiveSize() {
+        return mValues[KEY_ACTIVE];
+    }
+
+    public long getInactiveSize() {
+        return mValues[KEY_INACTIVE];
+    }
+
+    public long getSwapTotalSize() {
+        return mValues[KEY_SWAP_TOTAL];
+    }
+
+    public long getSwapFreeSize() {
+        return mValues[KEY_SWAP_FREE];
+    }
+
+    // memory used by zram device itself (compressed data), in bytes
+    public long getZramMemUsed() {
+        return mZramMemUsed;
+    }
+
+    // uncompressed size of data stored in zram, in bytes
+    public long getZramOrigDataSize() {
+        return mZramOrigDataSize;
     }
 }
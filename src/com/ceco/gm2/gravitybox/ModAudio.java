@@ -16,6 +16,7 @@
 package com.ceco.gm2.gravitybox;
 
 import com.ceco.gm2.gravitybox.ledcontrol.QuietHours;
+import com.ceco.gm2.gravitybox.ledcontrol.QuietHoursActivity;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -48,6 +49,11 @@ public class ModAudio {
     private static boolean mSwapVolumeKeys;
     private static HandleChangeVolume mHandleChangeVolume;
     private static XSharedPreferences mQhPrefs;
+    private static QuietHours mQuietHours;
+    private static volatile boolean mQhTouchSoundMuted;
+    private static volatile long mQhNextCheckTime;
+    private static boolean mQhReceiverRegistered;
+    private static boolean mQhReceiverRegistrationAttempted;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -73,6 +79,39 @@ public class ModAudio {
         }
     };
 
+    private static BroadcastReceiver mQhReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (DEBUG) log("Quiet hours changed");
+            invalidateQuietHours();
+        }
+    };
+
+    private static synchronized void invalidateQuietHours() {
+        mQuietHours = null;
+        mQhNextCheckTime = 0;
+    }
+
+    // Re-evaluates cached quiet hours policy. Called only when policy was invalidated
+    // or at the next quiet hours schedule transition.
+    private static synchronized void updateQuietHoursPolicy() {
+        final long now = System.currentTimeMillis();
+        if (now < mQhNextCheckTime) return;
+
+        // file check covers processes where change receiver could not be registered
+        if (mQuietHours == null || mQhPrefs.hasFileChanged()) {
+            mQhPrefs.reload();
+            mQuietHours = new QuietHours(mQhPrefs);
+        }
+        mQhTouchSoundMuted = mQuietHours.isSystemSoundMuted(QuietHours.SystemSound.TOUCH);
+        mQhNextCheckTime = mQuietHours.getNextTransitionTime(now);
+        if (!mQhReceiverRegistered) {
+            // poll for prefs changes at least once a minute when there is no receiver
+            mQhNextCheckTime = Math.min(mQhNextCheckTime, (now / 60000 + 1) * 60000);
+        }
+        if (DEBUG) log("Quiet hours policy updated: mQhTouchSoundMuted=" + mQhTouchSoundMuted);
+    }
+
     public static void initZygote(final XSharedPreferences prefs) {
         try {
             final Class<?> classAudioService = XposedHelpers.findClass(CLASS_AUDIO_SERVICE, null);
@@ -195,12 +234,34 @@ public class ModAudio {
                 }
             });
 
+            XposedHelpers.findAndHookConstructor(AudioManager.class, Context.class, new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
+                    synchronized (ModAudio.class) {
+                        if (mQhReceiverRegistrationAttempted) return;
+                        Context context = ((Context) param.args[0]).getApplicationContext();
+                        if (context == null) return;
+                        // don't retry in processes not allowed to register receivers
+                        mQhReceiverRegistrationAttempted = true;
+                        try {
+                            context.registerReceiver(mQhReceiver,
+                                    new IntentFilter(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED));
+                            mQhReceiverRegistered = true;
+                            invalidateQuietHours();
+                        } catch (Throwable t) {
+                            if (DEBUG) log("Unable to register quiet hours receiver: " + t.getMessage());
+                        }
+                    }
+                }
+            });
+
             XposedHelpers.findAndHookMethod(AudioManager.class, "querySoundEffectsEnabled", new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
-                    mQhPrefs.reload();
-                    QuietHours qh = new QuietHours(mQhPrefs);
-                    if (qh.isSystemSoundMuted(QuietHours.SystemSound.TOUCH)) {
+                    if (System.currentTimeMillis() >= mQhNextCheckTime) {
+                        updateQuietHoursPolicy();
+                    }
+                    if (mQhTouchSoundMuted) {
                         param.setResult(false);
                     }
                 } 
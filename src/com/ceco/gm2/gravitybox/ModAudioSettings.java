@@ -15,6 +15,7 @@
 
 package com.ceco.gm2.gravitybox;
 
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.view.View;
 import android.widget.TextView;
@@ -54,8 +55,8 @@ public class ModAudioSettings {
 
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
 
                     Object[] mSeekBarVolumizer = (Object[]) XposedHelpers.getObjectField(
                             param.thisObject, "mSeekBarVolumizer");
@@ -89,8 +90,8 @@ public class ModAudioSettings {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
 
                     if (DEBUG ) log("SeekBarVolumizer setVolume: streamType=" + param.args[0] +
                             "; volume=" + param.args[1] + "; flag=" + param.args[2]);
@@ -130,8 +131,8 @@ public class ModAudioSettings {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
 
                     final int streamType = XposedHelpers.getIntField(param.thisObject, "mStreamType");
                     final Object profileManager = XposedHelpers.getObjectField(
@@ -164,8 +165,8 @@ public class ModAudioSettings {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LINK_VOLUMES, true)) return;
 
                     final int streamType = XposedHelpers.getIntField(param.thisObject, "mStreamType");
                     final Object profileManager = XposedHelpers.getObjectField(
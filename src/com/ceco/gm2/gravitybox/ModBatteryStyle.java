@@ -20,6 +20,7 @@ import com.ceco.gm2.gravitybox.managers.SysUiManagers;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.os.Build;
@@ -100,10 +101,10 @@ public class ModBatteryStyle {
             }
         } else if (intent.getAction().equals(ACTION_MTK_BATTERY_PERCENTAGE_SWITCH)) {
             mMtkPercentTextEnabled = intent.getIntExtra(EXTRA_MTK_BATTERY_PERCENTAGE_STATE, 0) == 1;
-            mPrefs.reload();
-            mPercentText.setTextSize(mMtkPercentTextEnabled ? 16 : Integer.valueOf(mPrefs.getString(
+            final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(mPrefs);
+            mPercentText.setTextSize(mMtkPercentTextEnabled ? 16 : Integer.valueOf(currentPrefs.getString(
                     GravityBoxSettings.PREF_KEY_BATTERY_PERCENT_TEXT_SIZE, "16")));
-            mPercentText.setPercentSign(mMtkPercentTextEnabled ? "%" : mPrefs.getString(
+            mPercentText.setPercentSign(mMtkPercentTextEnabled ? "%" : currentPrefs.getString(
                     GravityBoxSettings.PREF_KEY_BATTERY_PERCENT_TEXT_STYLE, "%"));
             if (DEBUG) log("mMtkPercentText changed to: " + mMtkPercentTextEnabled);
             updateBatteryStyle();
@@ -18,6 +18,7 @@ package com.ceco.gm2.gravitybox;
 import java.io.File;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
@@ -67,8 +68,8 @@ public class ModCallCard {
                     new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (!prefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false))
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (!currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false))
                         return;
                     if (DEBUG) XposedBridge.log(TAG + ": CallCard: after updateCallInfoLayout");
 
@@ -86,8 +87,8 @@ public class ModCallCard {
                         callClass, ViewGroup.class, new XC_MethodHook() {
                     @Override
                     protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
-                        prefs.reload();
-                        if (!prefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false))
+                        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                        if (!currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false))
                             return;
                         if (DEBUG) XposedBridge.log(TAG + ": CallCard: after updateCallBannerBackground");
     
@@ -117,9 +118,9 @@ public class ModCallCard {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
                     if (DEBUG) XposedBridge.log(TAG + ": InCallTouchUi: after showIncomingCallWidget");
-                    prefs.reload();
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
                     boolean showFullscreen = 
-                            prefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false);
+                            currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_CALLER_FULLSCREEN_PHOTO, false);
 
                     View incomingCallWidget =
                             (View) XposedHelpers.getObjectField(param.thisObject, "mIncomingCallWidget");
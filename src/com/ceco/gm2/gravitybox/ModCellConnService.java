@@ -17,6 +17,7 @@ package com.ceco.gm2.gravitybox;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
@@ -40,12 +41,12 @@ public class ModCellConnService {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
                     Intent intent = (Intent) param.args[0];
                     if (DEBUG) log("onNewIntent: " + ((intent == null) ? "NULL" : intent.toString()));
 
                     if (intent == null
-                            || !prefs.getBoolean(GravityBoxSettings.PREF_KEY_ROAMING_WARNING_DISABLE, false)) {
+                            || !currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_ROAMING_WARNING_DISABLE, false)) {
                         return;
                     }
 
@@ -16,30 +16,36 @@
 package com.ceco.gm2.gravitybox;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.LayoutTransition;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Build;
 import android.os.Handler;
 import android.text.format.Formatter;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewPropertyAnimator;
 import android.widget.FrameLayout;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.ImageView.ScaleType;
-import android.widget.ScrollView;
 import android.widget.TextView;
 
 import com.ceco.gm2.gravitybox.R;
@@ -68,7 +74,6 @@ public class ModClearAllRecents {
     // RAM bar
     private static TextView mBackgroundProcessText;
     private static TextView mForegroundProcessText;
-    private static ActivityManager mAm;
     private static MemInfoReader mMemInfoReader;
     private static Context mGbContext;
     private static LinearColorBar mRamUsageBar;
@@ -80,6 +85,7 @@ public class ModClearAllRecents {
     private static boolean mPreserveCurrentTask;
     private static boolean mNavbarAlwaysOnBottom;
     private static View mRecentsPanelView;
+    private static ClearAllEngine mClearAllEngine;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -137,7 +143,6 @@ public class ModClearAllRecents {
                     Context context = mRecentsPanelView.getContext();
                     mGbContext = Utils.getGbContext(context);
                     mHandler = new Handler();
-                    mAm = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 
                     final Resources res = context.getResources();
                     mRamUsageBarPaddings = new int[4];
@@ -294,7 +299,7 @@ public class ModClearAllRecents {
                                 !(Boolean) XposedHelpers.callStaticMethod(ActivityManager.class, "isHighEndGfx"));
                     }
                 });
-            }
+            }
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
@@ -310,7 +315,9 @@ public class ModClearAllRecents {
         }
         @Override
         protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
-            if (mRamUsageBar != null && mRamUsageBar.getVisibility() == View.VISIBLE && mHandler != null) {
+            // RAM bar gets updated once clearing all tasks is finished
+            if (mClearAllEngine == null && mRamUsageBar != null &&
+                    mRamUsageBar.getVisibility() == View.VISIBLE && mHandler != null) {
                 mHandler.post(updateRamBarTask);
             }
         }
@@ -320,7 +327,8 @@ public class ModClearAllRecents {
         @Override
         protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
             try {
-                mClearRecentsMode = Integer.valueOf(mPrefs.getString(GravityBoxSettings.PREF_KEY_CLEAR_RECENTS_MODE, "0"));
+                final SharedPreferences prefs = PrefsSnapshot.getPrefs(mPrefs);
+                mClearRecentsMode = Integer.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_CLEAR_RECENTS_MODE, "0"));
                 boolean show = false;
                 if (Build.VERSION.SDK_INT < 17) {
                     show = XposedHelpers.getBooleanField(param.thisObject, "mWaitingToShow")
@@ -329,13 +337,15 @@ public class ModClearAllRecents {
                     show = (Boolean) param.args[0];
                 }
                 if (show) {
-                    mPrefs.reload();
-                    updateButtonLayout((View) param.thisObject);
-                    updateRamBarLayout();
+                    updateButtonLayout((View) param.thisObject, prefs);
+                    updateRamBarLayout(prefs);
+                } else if (mClearAllEngine != null) {
+                    // don't leave clearing half done when panel gets hidden
+                    mClearAllEngine.finish();
                 }
                 List<?> recentTaskDescriptions = (List<?>) XposedHelpers.getObjectField(param.thisObject, "mRecentTaskDescriptions");
                 boolean visible = (recentTaskDescriptions != null && recentTaskDescriptions.size() > 0);
-                int gravity = Integer.valueOf(mPrefs.getString(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_ALL, "53"));
+                int gravity = Integer.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_ALL, "53"));
                 setRecentsClearAll(show && visible && gravity == GravityBoxSettings.RECENT_CLEAR_NAVIGATION_BAR, 
                         ((View) param.thisObject).getContext());
             } catch (Throwable t) {
@@ -349,11 +359,11 @@ public class ModClearAllRecents {
         ModPieControls.setRecentAlt(show);
     }
 
-    private static void updateButtonLayout(View container) {
+    private static void updateButtonLayout(View container, SharedPreferences prefs) {
         if (mRecentsClearButton == null) return;
 
         final Context context = mRecentsClearButton.getContext();
-        int gravity = Integer.valueOf(mPrefs.getString(
+        int gravity = Integer.valueOf(prefs.getString(
                 GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_ALL, "53"));
         List<?> recentTaskDescriptions = (List<?>) XposedHelpers.getObjectField(
                 container, "mRecentTaskDescriptions");
@@ -369,24 +379,24 @@ public class ModClearAllRecents {
             lparams.gravity = gravity;
             if (gravity == 51 || gravity == 53) {
                 int marginTop = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                        mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_TOP, 0), 
+                        prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_TOP, 0), 
                         res.getDisplayMetrics());
                 int marginRight = (gravity == 53 && orientation == Configuration.ORIENTATION_LANDSCAPE
                         && Utils.isPhoneUI(context) && !mNavbarAlwaysOnBottom) ?
                         (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                                mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
+                                prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
                                 res.getDisplayMetrics()): 0;
                 lparams.setMargins(0, marginTop, marginRight, 0);
             } else {
                 int marginBottom = (orientation == Configuration.ORIENTATION_PORTRAIT || 
                                         !Utils.isPhoneUI(context) || mNavbarAlwaysOnBottom) ?
                         (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                        mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
+                        prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
                         res.getDisplayMetrics()) : 0;
                 int marginRight = (gravity == 85 && orientation == Configuration.ORIENTATION_LANDSCAPE
                         && Utils.isPhoneUI(context) && !mNavbarAlwaysOnBottom) ?
                         (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                                mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
+                                prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
                                 res.getDisplayMetrics()): 0;
                 lparams.setMargins(0, 0, marginRight, marginBottom);
             }
@@ -403,57 +413,152 @@ public class ModClearAllRecents {
         if (param.args[0] != null)
             return;
 
-        if (DEBUG) log("handleDismissChild - removing all views");
+        // don't call original method
+        param.setResult(null);
 
-        // scroll recents tasks view to show the first task clearing will start from
-        if (param.thisObject instanceof ScrollView) {
-            ((ScrollView) param.thisObject).smoothScrollTo(0, 0);
-        } else if (param.thisObject instanceof HorizontalScrollView) {
-            ((HorizontalScrollView)param.thisObject).smoothScrollTo(0, 0);
+        if (mClearAllEngine != null) {
+            if (DEBUG) log("handleDismissChild - clearing already in progress");
+            return;
         }
 
-        // start clearing task after 200ms delay to give some time for smooth scroll to finish
-        final LinearLayout mLinearLayout = (LinearLayout) XposedHelpers.getObjectField(param.thisObject, "mLinearLayout");
-        final Handler handler = new Handler();
-        handler.postDelayed(new Runnable() {
+        if (DEBUG) log("handleDismissChild - removing all views");
+        mClearAllEngine = new ClearAllEngine(param.thisObject);
+        mClearAllEngine.start();
+    }
+
+    // Animates task views out in small batches paced to display frames and removes
+    // all tasks in a single pass once animations are finished
+    private static final class ClearAllEngine implements Choreographer.FrameCallback {
+        private static final int BATCH_SIZE = 4;
+        private static final long ANIM_DURATION = 200;
+        private static final long WATCHDOG_TIMEOUT = ANIM_DURATION * 3;
+
+        private final Object mScrollView;
+        private final LinearLayout mLinearLayout;
+        private final Object mCallback;
+        private final boolean mHorizontal;
+        private final List<View> mViews = new ArrayList<View>();
+        private View mPreservedView;
+        private int mNextIndex;
+        private int mPendingAnimations;
+        private boolean mFinished;
+        private final Handler mWatchdogHandler = new Handler();
+
+        // onAnimationEnd() is called for cancelled animations as well
+        private final AnimatorListenerAdapter mAnimListener = new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                if (--mPendingAnimations == 0 && mNextIndex == mViews.size()) {
+                    finish();
+                }
+            }
+        };
+
+        // finishes clearing in case some of the animations never end
+        private final Runnable mWatchdog = new Runnable() {
             @Override
             public void run() {
-                final int count = mLinearLayout.getChildCount();
-                for (int i = 0; i < count; i++) {
-                    final View child = mLinearLayout.getChildAt(i);
-                    final int index = i;
-                    handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                if (mPreserveCurrentTask && index == (count-1)) {
-                                    Object callback = XposedHelpers.getObjectField(param.thisObject, "mCallback");
-                                    XposedHelpers.callMethod(callback, "handleOnClick", child);
-                                } else {
-                                    Object[] newArgs = new Object[] { child };
-                                    XposedBridge.invokeOriginalMethod(param.method, param.thisObject, newArgs);
-                                }
-                            } catch (Exception e) {
-                                XposedBridge.log(e);
-                            }
-                        }
-                    }, 150 * i);
+                if (DEBUG) log("ClearAllEngine: watchdog timeout");
+                finish();
+            }
+        };
+
+        ClearAllEngine(Object scrollView) {
+            mScrollView = scrollView;
+            mLinearLayout = (LinearLayout) XposedHelpers.getObjectField(scrollView, "mLinearLayout");
+            mCallback = XposedHelpers.getObjectField(scrollView, "mCallback");
+            mHorizontal = scrollView instanceof HorizontalScrollView;
+
+            final int count = mLinearLayout.getChildCount();
+            for (int i = 0; i < count; i++) {
+                View child = mLinearLayout.getChildAt(i);
+                if (mPreserveCurrentTask && i == (count-1)) {
+                    mPreservedView = child;
+                } else {
+                    mViews.add(child);
                 }
             }
-        }, 200);
+        }
 
-        if (mRamUsageBar != null && mRamUsageBar.getVisibility() == View.VISIBLE && mHandler != null) {
-            mHandler.post(updateRamBarTask);
+        void start() {
+            if (mViews.isEmpty()) {
+                finish();
+            } else {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
         }
 
-        // don't call original method
-        param.setResult(null);
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            final int end = Math.min(mNextIndex + BATCH_SIZE, mViews.size());
+            for (; mNextIndex < end; mNextIndex++) {
+                final View v = mViews.get(mNextIndex);
+                ViewPropertyAnimator anim = v.animate().alpha(0).setDuration(ANIM_DURATION);
+                if (mHorizontal) {
+                    anim.translationY(-mLinearLayout.getHeight());
+                } else {
+                    anim.translationX(mLinearLayout.getWidth());
+                }
+                mPendingAnimations++;
+                anim.setListener(mAnimListener);
+            }
+            if (mNextIndex < mViews.size()) {
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                mWatchdogHandler.postDelayed(mWatchdog, WATCHDOG_TIMEOUT);
+            }
+        }
+
+        void finish() {
+            if (mFinished) return;
+            mFinished = true;
+            Choreographer.getInstance().removeFrameCallback(this);
+            mWatchdogHandler.removeCallbacks(mWatchdog);
+
+            try {
+                // detach listener from animators of views first so that cancelling
+                // animations which are still running doesn't get back here
+                for (int i = 0; i < mNextIndex; i++) {
+                    ViewPropertyAnimator anim = mViews.get(i).animate();
+                    anim.setListener(null);
+                    anim.cancel();
+                }
+                // dismiss all views at once without triggering layout transition for each of them
+                // the same way as swiped out views so that they get recycled and their tasks removed
+                final LayoutTransition lt = mLinearLayout.getLayoutTransition();
+                mLinearLayout.setLayoutTransition(null);
+                try {
+                    for (View v : mViews) {
+                        // restore properties we animated as dismissed views are reused
+                        v.setAlpha(1f);
+                        v.setTranslationX(0);
+                        v.setTranslationY(0);
+                        XposedHelpers.callMethod(mScrollView, "onChildDismissed", v);
+                    }
+                } finally {
+                    mLinearLayout.setLayoutTransition(lt);
+                }
+                if (mPreservedView != null) {
+                    XposedHelpers.callMethod(mCallback, "handleOnClick", mPreservedView);
+                }
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            } finally {
+                mClearAllEngine = null;
+            }
+
+            if (mRamUsageBar != null && mRamUsageBar.getVisibility() == View.VISIBLE && mHandler != null) {
+                mMemInfoReader.invalidate();
+                mHandler.post(updateRamBarTask);
+            }
+            if (DEBUG) log("ClearAllEngine: " + mViews.size() + " tasks removed");
+        }
     }
 
-    private static void updateRamBarLayout() {
+    private static void updateRamBarLayout(SharedPreferences prefs) {
         if (mRamUsageBar == null) return;
 
-        final int rbGravity = Integer.valueOf(mPrefs.getString(
+        final int rbGravity = Integer.valueOf(prefs.getString(
                 GravityBoxSettings.PREF_KEY_RAMBAR, "0"));
         if (rbGravity == 0) {
             mRamUsageBar.setVisibility(View.GONE);
@@ -461,7 +566,7 @@ public class ModClearAllRecents {
             final Context context = mRamUsageBar.getContext();
             final Resources res = mRamUsageBar.getResources();
             final int orientation = res.getConfiguration().orientation;
-            final int caGravity = Integer.valueOf(mPrefs.getString(
+            final int caGravity = Integer.valueOf(prefs.getString(
                     GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_ALL, "53"));
             final boolean caOnTop = (caGravity & Gravity.TOP) == Gravity.TOP;
             final boolean caOnLeft = (caGravity & Gravity.LEFT) == Gravity.LEFT;
@@ -470,17 +575,17 @@ public class ModClearAllRecents {
                     mRecentsClearButton.getVisibility() == View.VISIBLE) && 
                     ((caOnTop && rbOnTop) || (!caOnTop && !rbOnTop));
             final int marginTop = rbOnTop ? (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                    mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_TOP, 0), 
+                    prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_TOP, 0), 
                     res.getDisplayMetrics()) : 0;
             final int marginBottom = (!rbOnTop && (orientation == Configuration.ORIENTATION_PORTRAIT ||
                                                     !Utils.isPhoneUI(context) || mNavbarAlwaysOnBottom)) ? 
                     (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                    mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
+                    prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
                     res.getDisplayMetrics()) : 0;
             final int marginRight = orientation == Configuration.ORIENTATION_LANDSCAPE && 
                                                         Utils.isPhoneUI(context) && !mNavbarAlwaysOnBottom ?
                             (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 
-                                    mPrefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
+                                    prefs.getInt(GravityBoxSettings.PREF_KEY_RECENTS_CLEAR_MARGIN_BOTTOM, 0), 
                                     res.getDisplayMetrics()) : 0;
 
             FrameLayout.LayoutParams flp = (FrameLayout.LayoutParams) mRamUsageBar.getLayoutParams();
@@ -506,12 +611,8 @@ public class ModClearAllRecents {
                 return;
             }
 
-            ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-            mAm.getMemoryInfo(memInfo);
-            long secServerMem = 0;//XposedHelpers.getLongField(memInfo, "secondaryServerThreshold");
             mMemInfoReader.readMemInfo();
-            long availMem = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize() -
-                    secServerMem;
+            long availMem = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize();
             long totalMem = mMemInfoReader.getTotalSize();
 
             String sizeStr = Formatter.formatShortFileSize(mGbContext, totalMem-availMem);
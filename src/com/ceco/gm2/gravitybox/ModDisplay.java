@@ -15,10 +15,10 @@
 
 package com.ceco.gm2.gravitybox;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import com.ceco.gm2.gravitybox.ModLowBatteryWarning.ChargingLed;
 
@@ -33,7 +33,6 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.XResources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Color;
 import android.os.BatteryManager;
 import android.os.Build;
@@ -42,6 +41,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.ResultReceiver;
@@ -83,10 +83,11 @@ public class ModDisplay {
     private static int mBatteryLevel;
     private static ChargingLed mChargingLed;
 
+    private static final long KIS_TRANSFER_TIMEOUT = 10000;
     private static ServiceConnection mKisServiceConn;
-    private static InputStream mKisImageStream;
-    private static Messenger mKisService;
+    private static WakeLock mKisWakeLock;
     private static Messenger mKisClient;
+    private static Handler mKisHandler;
     private static KeyguardManager mKeyguardManager;
     private static boolean mLsBgLastScreenEnabled;
     private static boolean mIsUserPresent;
@@ -485,8 +486,13 @@ public class ModDisplay {
                             Thread kisThread = new Thread(new Runnable() {
                                 @Override
                                 public void run() {
-                                    final WakeLock wakeLock = mPm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
-                                    wakeLock.acquire(10000);
+                                    // previous image still being transferred
+                                    if (mKisServiceConn != null) {
+                                        bmp.recycle();
+                                        return;
+                                    }
+                                    mKisWakeLock = mPm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+                                    mKisWakeLock.acquire(KIS_TRANSFER_TIMEOUT);
                                     Bitmap tmpBmp = bmp;
                                     int width = bmp.getWidth();
                                     int height = bmp.getHeight();
@@ -498,56 +504,19 @@ public class ModDisplay {
                                         if (DEBUG_KIS) log("requestPowerState: scaled image res (WxH):"
                                                 + newWidth + "x" + newHeight);
                                         tmpBmp = Bitmap.createScaledBitmap(bmp, newWidth, newHeight, true);
+                                        bmp.recycle();
                                     }
-
-                                    final ByteArrayOutputStream os = new ByteArrayOutputStream();
-                                    tmpBmp.compress(CompressFormat.PNG, 100, os);
-                                    try {
-                                       os.close();
-                                    } catch (IOException e1) { }
-                                    bmp.recycle();
-                                    tmpBmp.recycle();
-                                    mKisImageStream = new ByteArrayInputStream(os.toByteArray());
+                                    final Bitmap image = tmpBmp;
     
                                     if (mKisClient == null) {
                                         mKisClient = new Messenger(new Handler(h.getLooper()) {
                                             @Override
                                             public void handleMessage(Message msg) {
                                                 if (DEBUG_KIS) log("mKisClient: got reply: what=" + msg.what);
-                                                try {
-                                                    if (msg.what == KeyguardImageService.MSG_GET_NEXT_CHUNK) {
-                                                        byte[] data = new byte[204800];
-                                                        if (mKisImageStream.read(data) != -1) {
-                                                            Bundle bundle = new Bundle();
-                                                            bundle.putByteArray("data", data);
-                                                            Message dataMsg = Message.obtain(null, KeyguardImageService.MSG_WRITE_OUTPUT);
-                                                            dataMsg.setData(bundle);
-                                                            dataMsg.replyTo = mKisClient;
-                                                            mKisService.send(dataMsg);
-                                                            if (DEBUG_KIS) log("mKisClient: MSG_WRITE_OUTPUT sent");
-                                                        } else {
-                                                            msg = Message.obtain(null, KeyguardImageService.MSG_FINISH_OUTPUT);
-                                                            mKisService.send(msg);
-                                                            mContext.unbindService(mKisServiceConn);
-                                                            if (wakeLock != null && wakeLock.isHeld()) {
-                                                                wakeLock.release();
-                                                            }
-                                                            mKisService = null;
-                                                            mKisServiceConn = null;
-                                                            if (DEBUG_KIS) log("mKisClient: MSG_FINISH_OUTPUT sent");
-                                                        }
-                                                    } else if (msg.what == KeyguardImageService.MSG_ERROR) {
-                                                        mContext.unbindService(mKisServiceConn);
-                                                        if (wakeLock != null && wakeLock.isHeld()) {
-                                                            wakeLock.release();
-                                                        }
-                                                        mKisService = null;
-                                                        mKisServiceConn = null;
-                                                        log("mKisClient: MSG_ERROR received");
-                                                    }
-                                                } catch (Throwable t) {
-                                                    XposedBridge.log(t);
+                                                if (msg.what == KeyguardImageService.MSG_ERROR) {
+                                                    log("mKisClient: MSG_ERROR received");
                                                 }
+                                                finishKisTransfer();
                                             }
                                         });
                                     }
@@ -556,29 +525,44 @@ public class ModDisplay {
                                         @Override
                                         public void onServiceConnected(ComponentName cn, IBinder binder) {
                                             try {
-                                                mKisService = new Messenger(binder);
-                                                Message msg = Message.obtain(null, KeyguardImageService.MSG_BEGIN_OUTPUT);
+                                                // pixels are streamed through a pipe so they are copied
+                                                // only once and never end up in binder transaction buffer
+                                                ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+                                                Bundle data = new Bundle();
+                                                data.putInt(KeyguardImageService.EXTRA_WIDTH, image.getWidth());
+                                                data.putInt(KeyguardImageService.EXTRA_HEIGHT, image.getHeight());
+                                                data.putParcelable(KeyguardImageService.EXTRA_PIXELS, pipe[0]);
+                                                Message msg = Message.obtain(null, KeyguardImageService.MSG_SET_IMAGE);
+                                                msg.setData(data);
                                                 msg.replyTo = mKisClient;
-                                                mKisService.send(msg);
+                                                new Messenger(binder).send(msg);
+                                                pipe[0].close();
+                                                writeKisImage(image, pipe[1]);
                                                 if (DEBUG_KIS) log("mKisServiceConn: onServiceConnected");
                                             } catch (Throwable t) {
-                                                XposedBridge.log(t);;
+                                                XposedBridge.log(t);
+                                                image.recycle();
+                                                finishKisTransfer();
                                             }
                                         }
                                         @Override
                                         public void onServiceDisconnected(ComponentName cn) {
-                                            if (wakeLock != null && wakeLock.isHeld()) {
-                                                wakeLock.release();
-                                            }
-                                            mKisService = null;
-                                            mKisServiceConn = null;
+                                            finishKisTransfer();
                                             if (DEBUG_KIS) log("mKisServiceConn: onServiceDisconnected");
                                         } 
                                     };
                                     ComponentName cn = new ComponentName(GravityBox.PACKAGE_NAME, KeyguardImageService.class.getName());
                                     Intent intent = new Intent();
                                     intent.setComponent(cn);
-                                    mContext.bindService(intent, mKisServiceConn, Context.BIND_AUTO_CREATE);
+                                    if (!mContext.bindService(intent, mKisServiceConn, Context.BIND_AUTO_CREATE)) {
+                                        log("Unable to bind to KeyguardImageService");
+                                        image.recycle();
+                                        finishKisTransfer();
+                                        return;
+                                    }
+                                    // don't block further transfers if service never replies
+                                    mKisHandler = h;
+                                    h.postDelayed(mKisTimeoutRunnable, KIS_TRANSFER_TIMEOUT);
                                 }
                             });
                             // Give keyguard a chance to do its initialization
@@ -592,6 +576,61 @@ public class ModDisplay {
         }
     }
 
+    private static void writeKisImage(final Bitmap image, final ParcelFileDescriptor pfd) {
+        new Thread("GbKisWriter") {
+            @Override
+            public void run() {
+                FileOutputStream os = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+                try {
+                    ByteBuffer pixels = ByteBuffer.allocateDirect(image.getByteCount());
+                    image.copyPixelsToBuffer(pixels);
+                    image.recycle();
+                    pixels.rewind();
+                    FileChannel channel = os.getChannel();
+                    while (pixels.hasRemaining()) {
+                        channel.write(pixels);
+                    }
+                    if (DEBUG_KIS) log("writeKisImage: " + pixels.capacity() + " bytes written");
+                } catch (Throwable t) {
+                    log("writeKisImage: " + t.getMessage());
+                } finally {
+                    if (!image.isRecycled()) {
+                        image.recycle();
+                    }
+                    try {
+                        os.close();
+                    } catch (IOException e) { }
+                }
+            }
+        }.start();
+    }
+
+    private static Runnable mKisTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mKisServiceConn != null) {
+                log("Keyguard image transfer timed out");
+                finishKisTransfer();
+            }
+        }
+    };
+
+    private static void finishKisTransfer() {
+        if (mKisHandler != null) {
+            mKisHandler.removeCallbacks(mKisTimeoutRunnable);
+        }
+        if (mKisServiceConn != null) {
+            try {
+                mContext.unbindService(mKisServiceConn);
+            } catch (Throwable t) { }
+            mKisServiceConn = null;
+        }
+        if (mKisWakeLock != null && mKisWakeLock.isHeld()) {
+            mKisWakeLock.release();
+        }
+        mKisWakeLock = null;
+    }
+
     private static void updateAutobrightnessConfig(int[] lux, int[] brightness) {
         if (mDisplayPowerController == null || mContext == null) return;
 
@@ -15,6 +15,7 @@
 
 package com.ceco.gm2.gravitybox;
 
+import android.content.SharedPreferences;
 import android.inputmethodservice.InputMethodService;
 import android.view.KeyEvent;
 import de.robv.android.xposed.XC_MethodHook;
@@ -44,10 +45,10 @@ public class ModInputMethod {
             XposedHelpers.findAndHookMethod(imeClass, "onShowInputRequested", int.class, boolean.class, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    mVolKeyCursorControl = Integer.valueOf(prefs.getString(
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    mVolKeyCursorControl = Integer.valueOf(currentPrefs.getString(
                             GravityBoxSettings.PREF_KEY_VOL_KEY_CURSOR_CONTROL, "0"));
-                    mFullscreenImeDisabled = prefs.getBoolean(
+                    mFullscreenImeDisabled = currentPrefs.getBoolean(
                             GravityBoxSettings.PREF_KEY_IME_FULLSCREEN_DISABLE, false);
 
                     if (DEBUG) log("onShowInputRequested: refreshing configuartion; " +
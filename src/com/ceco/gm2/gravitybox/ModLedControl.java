@@ -16,8 +16,10 @@
 package com.ceco.gm2.gravitybox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.ceco.gm2.gravitybox.ledcontrol.LedSettings;
 import com.ceco.gm2.gravitybox.ledcontrol.LedSettings.ActiveScreenMode;
@@ -59,6 +61,10 @@ public class ModLedControl {
     private static final String PACKAGE_NAME_GRAVITYBOX = "com.ceco.gm2.gravitybox";
 
     public static final String NOTIF_EXTRAS = "gbExtras";
+    // gbExtras parcel trailer: magic, version, length of bundle data in bytes, bundle
+    private static final int NOTIF_EXTRAS_MAGIC = 0x47424558; // "GBEX"
+    private static final int NOTIF_EXTRAS_VERSION = 1;
+    private static final int NOTIF_EXTRAS_HEADER_SIZE = 12;
     private static final String NOTIF_EXTRA_ACTIVE_SCREEN_MODE = "gbActiveScreenMode";
     private static final String NOTIF_EXTRA_ACTIVE_SCREEN_POCKET_MODE = "gbActiveScreenPocketMode";
     public static final String NOTIF_EXTRA_PROGRESS_TRACKING = "gbProgressTracking";
@@ -73,13 +79,55 @@ public class ModLedControl {
     private static KeyguardManager mKm;
     private static Sensor mProxSensor;
     private static boolean mOnPanelRevealedBlocked;
-    private static QuietHours mQuietHours;
+    private static volatile QuietHours mQuietHours;
+    private static volatile LedRules mLedRules;
     private static Map<String, Long> mNotifTimestamps = new HashMap<String, Long>();
     private static boolean mUserPresent;
     private static Object mNotifManagerService;
     private static boolean mProximityWakeUpEnabled;
     private static AudioManager mAudioManager;
 
+    // Immutable snapshot of ledcontrol preferences compiled on settings change
+    // so that notifyHook does not need to deserialize anything per notification
+    private static final class LedRules {
+        final boolean locked;
+        final boolean activeScreenIgnoreQuietHours;
+        final boolean activeScreenPocketMode;
+        final LedSettings defaults;
+        final Map<String, LedSettings> packages;
+
+        LedRules(XSharedPreferences prefs) {
+            locked = prefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false);
+            activeScreenIgnoreQuietHours = prefs.getBoolean(
+                    LedSettings.PREF_KEY_ACTIVE_SCREEN_IGNORE_QUIET_HOURS, false);
+            activeScreenPocketMode = prefs.getBoolean(
+                    LedSettings.PREF_KEY_ACTIVE_SCREEN_POCKET_MODE, true);
+            defaults = LedSettings.deserialize(prefs.getStringSet("default", null));
+
+            Map<String, LedSettings> pkgMap = new HashMap<String, LedSettings>();
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                if (!(entry.getValue() instanceof Set) || entry.getKey().equals("default")) continue;
+                try {
+                    @SuppressWarnings("unchecked")
+                    LedSettings ls = LedSettings.deserialize((Set<String>) entry.getValue());
+                    // disabled packages fall back to defaults anyway so there's no need to keep them
+                    if (ls.getEnabled()) {
+                        pkgMap.put(entry.getKey(), ls);
+                    }
+                } catch (Throwable t) {
+                    XposedBridge.log(t);
+                }
+            }
+            packages = Collections.unmodifiableMap(pkgMap);
+            if (DEBUG) log("LedRules compiled: " + packages.size() + " package rules");
+        }
+
+        LedSettings get(String pkgName) {
+            LedSettings ls = packages.get(pkgName);
+            return (ls == null ? defaults : ls);
+        }
+    }
+
     private static SensorEventListener mProxSensorEventListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) { 
@@ -111,6 +159,7 @@ public class ModLedControl {
             final String action = intent.getAction();
             if (action.equals(LedSettings.ACTION_UNC_SETTINGS_CHANGED)) {
                 mPrefs.reload();
+                mLedRules = new LedRules(mPrefs);
                 if (intent.hasExtra(LedSettings.EXTRA_UNC_AS_ENABLED)) {
                     toggleActiveScreenFeature(intent.getBooleanExtra(
                             LedSettings.EXTRA_UNC_AS_ENABLED, false));
@@ -144,6 +193,7 @@ public class ModLedControl {
         mQhPrefs = new XSharedPreferences(GravityBox.PACKAGE_NAME, "quiet_hours");
         mQhPrefs.makeWorldReadable();
         mQuietHours = new QuietHours(mQhPrefs);
+        mLedRules = new LedRules(mPrefs);
 
         mProximityWakeUpEnabled = mainPrefs.getBoolean(GravityBoxSettings.PREF_KEY_POWER_PROXIMITY_WAKE, false);
 
@@ -209,26 +259,31 @@ public class ModLedControl {
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
                     final Parcel p = (Parcel) param.args[0];
                     final int pos = p.dataPosition();
-                    Bundle extras = new Bundle();
-                    boolean extrasFound = false;
-                    while (p.dataAvail() > 0) {
+                    if (p.dataAvail() < NOTIF_EXTRAS_HEADER_SIZE || p.readInt() != NOTIF_EXTRAS_MAGIC) {
+                        p.setDataPosition(pos);
+                        return;
+                    }
+
+                    final int version = p.readInt();
+                    final int length = p.readInt();
+                    final int dataPos = p.dataPosition();
+                    if (length < 0 || length > p.dataAvail()) {
+                        if (DEBUG) log("Invalid GB extras trailer length: " + length);
+                        p.setDataPosition(pos);
+                        return;
+                    }
+                    if (version == NOTIF_EXTRAS_VERSION) {
                         try {
-                            if (NOTIF_EXTRAS.equals(p.readString())) {
-                                if (DEBUG) log("GB extras magic found. Reading bundle");
-                                extras = p.readBundle();
-                                extrasFound = true;
-                                break;
-                            } else if (DEBUG) {
-                                log("No GB extras magic in value");
-                            }
+                            if (DEBUG) log("GB extras trailer found. Reading bundle");
+                            XposedHelpers.setAdditionalInstanceField(param.thisObject, NOTIF_EXTRAS,
+                                    p.readBundle());
                         } catch (Throwable t) {
-                            if (DEBUG) log("Error reading value from parcel: " + t.getMessage());
+                            if (DEBUG) log("Error reading GB extras from parcel: " + t.getMessage());
                         }
+                    } else if (DEBUG) {
+                        log("Skipping GB extras trailer of unknown version " + version);
                     }
-                    if (!extrasFound) {
-                        p.setDataPosition(pos);
-                    }
-                    XposedHelpers.setAdditionalInstanceField(param.thisObject, NOTIF_EXTRAS, extras);
+                    p.setDataPosition(dataPos + length);
                 }
             });
 
@@ -236,10 +291,21 @@ public class ModLedControl {
                     Parcel.class, int.class, new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
+                    Bundle extras = (Bundle) XposedHelpers.getAdditionalInstanceField(
+                            param.thisObject, NOTIF_EXTRAS);
+                    if (extras == null || extras.isEmpty()) return;
+
                     Parcel p = (Parcel) param.args[0];
-                    p.writeString(NOTIF_EXTRAS);
-                    p.writeBundle((Bundle) XposedHelpers.getAdditionalInstanceField(
-                            param.thisObject, NOTIF_EXTRAS));
+                    p.writeInt(NOTIF_EXTRAS_MAGIC);
+                    p.writeInt(NOTIF_EXTRAS_VERSION);
+                    final int lengthPos = p.dataPosition();
+                    p.writeInt(0);
+                    final int dataPos = p.dataPosition();
+                    p.writeBundle(extras);
+                    final int endPos = p.dataPosition();
+                    p.setDataPosition(lengthPos);
+                    p.writeInt(endPos - dataPos);
+                    p.setDataPosition(endPos);
                     if (DEBUG) log("Notification to parcel: gbExtras written");
                 }
             });
@@ -263,7 +329,8 @@ public class ModLedControl {
         @Override
         protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
             try {
-                if (mPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false)) {
+                final LedRules rules = mLedRules;
+                if (rules.locked) {
                     if (DEBUG) log("Ultimate notification control feature locked.");
                     return;
                 }
@@ -274,23 +341,21 @@ public class ModLedControl {
 
                 if (pkgName.equals(PACKAGE_NAME_GRAVITYBOX) && id >= 2049) return;
 
-                LedSettings ls = LedSettings.deserialize(mPrefs.getStringSet(pkgName, null));
-                if (!ls.getEnabled()) {
-                    // use default settings in case they are active
-                    ls = LedSettings.deserialize(mPrefs.getStringSet("default", null));
-                    if (!ls.getEnabled() && !mQuietHours.quietHoursActive(ls, n, mUserPresent)) {
-                        return;
-                    }
+                // package specific settings or defaults in case package settings are not enabled
+                final LedSettings ls = rules.get(pkgName);
+                final QuietHours quietHours = mQuietHours;
+                final boolean qhActive = quietHours.quietHoursActive(ls, n, mUserPresent);
+                if (!ls.getEnabled() && !qhActive) {
+                    return;
                 }
                 if (DEBUG) log(pkgName + ": " + ls.toString());
 
                 Bundle extras = new Bundle();
                 XposedHelpers.setAdditionalInstanceField(n, NOTIF_EXTRAS, extras);
-                final boolean qhActive = mQuietHours.quietHoursActive(ls, n, mUserPresent);
-                final boolean qhActiveIncludingLed = qhActive && mQuietHours.muteLED;
-                final boolean qhActiveIncludingVibe = qhActive && mQuietHours.muteVibe;
+                final boolean qhActiveIncludingLed = qhActive && quietHours.muteLED;
+                final boolean qhActiveIncludingVibe = qhActive && quietHours.muteVibe;
                 final boolean qhActiveIncludingActiveScreen = qhActive &&
-                        !mPrefs.getBoolean(LedSettings.PREF_KEY_ACTIVE_SCREEN_IGNORE_QUIET_HOURS, false);
+                        !rules.activeScreenIgnoreQuietHours;
 
                 if (ls.getEnabled()) {
                     extras.putBoolean(NOTIF_EXTRA_PROGRESS_TRACKING, ls.getProgressTracking());
@@ -413,7 +478,7 @@ public class ModLedControl {
                         extras.putString(NOTIF_EXTRA_ACTIVE_SCREEN_MODE,
                                 ls.getActiveScreenMode().toString());
                         extras.putBoolean(NOTIF_EXTRA_ACTIVE_SCREEN_POCKET_MODE, !mProximityWakeUpEnabled &&
-                                mPrefs.getBoolean(LedSettings.PREF_KEY_ACTIVE_SCREEN_POCKET_MODE, true));
+                                rules.activeScreenPocketMode);
                     }
                 }
 
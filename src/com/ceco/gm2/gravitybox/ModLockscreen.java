@@ -15,6 +15,7 @@
 
 package com.ceco.gm2.gravitybox;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -260,8 +261,8 @@ public class ModLockscreen {
                             String wallpaperFile = mGbContext.getFilesDir() + "/lockwallpaper";
                             customBg = BitmapFactory.decodeFile(wallpaperFile);
                         } else if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN)) {
-                            String kisImageFile = mGbContext.getFilesDir() + "/kis_image.png";
-                            customBg = BitmapFactory.decodeFile(kisImageFile);
+                            customBg = KeyguardImageService.loadImage(new File(
+                                    mGbContext.getFilesDir(), KeyguardImageService.KIS_IMAGE_FILE));
                         }
                         if (customBg != null) {
                             mLockScreenWallpaperImage = new ImageView(context);
@@ -1094,8 +1095,9 @@ public class ModLockscreen {
     }
 
     private static void setLastScreenBackground(Context context) {
-        String kisImageFile = mGbContext.getFilesDir() + "/kis_image.png";
-        Bitmap customBg = BitmapFactory.decodeFile(kisImageFile);
+        Bitmap customBg = KeyguardImageService.loadImage(new File(
+                mGbContext.getFilesDir(), KeyguardImageService.KIS_IMAGE_FILE));
+        if (customBg == null) return;
 
         int rotation = Utils.SystemProp.getInt("ro.sf.hwrotation", 0);
         WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
@@ -26,6 +26,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
@@ -188,9 +189,9 @@ public class ModLowBatteryWarning {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
                     final int batteryWarningPolicy = Integer.valueOf(
-                            prefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_POLICY, "3"));
+                            currentPrefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_POLICY, "3"));
                     final boolean playSound = ((batteryWarningPolicy & GravityBoxSettings.BATTERY_WARNING_SOUND) != 0);
                     final boolean customSound = ((batteryWarningPolicy & GravityBoxSettings.BATTERY_WARNING_CUSTOMSOUND) != 0);
 
@@ -199,7 +200,7 @@ public class ModLowBatteryWarning {
                     if (customSound) {
                         Uri sound = null;
                         try {
-                            sound = Uri.parse(prefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_CUSTOMSOUND, ""));
+                            sound = Uri.parse(currentPrefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_CUSTOMSOUND, ""));
                             final Ringtone sfx = RingtoneManager.getRingtone(AndroidAppHelper.currentApplication(), sound); // any better way to get context ?
                             if (sfx != null) {
                                 sfx.setStreamType(AudioManager.STREAM_NOTIFICATION);
@@ -221,9 +222,9 @@ public class ModLowBatteryWarning {
 
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
                     final int batteryWarningPolicy = Integer.valueOf(
-                            prefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_POLICY, "3"));
+                            currentPrefs.getString(GravityBoxSettings.PREF_KEY_LOW_BATTERY_WARNING_POLICY, "3"));
                     final boolean showPopup = ((batteryWarningPolicy & GravityBoxSettings.BATTERY_WARNING_POPUP) != 0);
                     
                     if (DEBUG) log("showLowBatteryWarning called; showPopup = " + showPopup);
@@ -15,6 +15,7 @@
 
 package com.ceco.gm2.gravitybox;
 
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.text.TextWatcher;
 import de.robv.android.xposed.XC_MethodHook;
@@ -91,7 +92,8 @@ public class ModMms {
                             CharSequence s = (CharSequence) param2.args[0];
                             XposedHelpers.setAdditionalInstanceField(param.thisObject, "mGbOriginalText", s);
                             if (DEBUG) log ("TextEditorWatcher.onTextChanged: original ='" + s + "'");
-                            s = mUnicodeFilter.filter(s);
+                            s = mUnicodeFilter.filter(s, (Integer) param2.args[1],
+                                    (Integer) param2.args[2], (Integer) param2.args[3]);
                             if (DEBUG) log ("TextEditorWatcher.onTextChanged: stripped ='" + s + "'");
                             param2.args[0] = s;
                         }
@@ -133,8 +135,8 @@ public class ModMms {
     };
 
     private static boolean prepareUnicodeFilter() {
-        mPrefs.reload();
-        final String uniStrMode = mPrefs.getString(
+        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(mPrefs);
+        final String uniStrMode = currentPrefs.getString(
                 GravityBoxSettings.PREF_KEY_MMS_UNICODE_STRIPPING, 
                 GravityBoxSettings.UNISTR_LEAVE_INTACT);
 
@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XC_MethodReplacement;
@@ -59,8 +60,8 @@ public class ModMtkToolbar {
                     long.class, new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (!prefs.getBoolean(
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (!currentPrefs.getBoolean(
                             GravityBoxSettings.PREF_KEY_MOBILE_DATA_SLOW2G_DISABLE, false)) return;
 
                     final int msgResId = (Integer) param.getResult();
@@ -27,6 +27,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.XModuleResources;
 import android.graphics.Bitmap;
@@ -161,6 +162,68 @@ public class ModNavigationBar {
         boolean menuCustomSwapped;
     }
 
+    // SystemUI navbar resource IDs resolved by name once per resources instance;
+    // dimensions are re-read by ID only when configuration changes
+    static class NavbarResources {
+        final Resources res;
+        final int back;
+        final int home;
+        final int menu;
+        final int recentApps;
+        final int rot0;
+        final int rot90;
+        final int navButtons;
+        final int icRecent;
+        final int icRecentLand;
+        private final int mKeyWidthId;
+        private final int mMenuKeyWidthId;
+        private final Configuration mConfig = new Configuration();
+        int keyWidth;
+        int menuKeyWidth;
+
+        NavbarResources(Resources res) {
+            this.res = res;
+            back = res.getIdentifier("back", "id", PACKAGE_NAME);
+            home = res.getIdentifier("home", "id", PACKAGE_NAME);
+            menu = res.getIdentifier("menu", "id", PACKAGE_NAME);
+            recentApps = res.getIdentifier("recent_apps", "id", PACKAGE_NAME);
+            rot0 = res.getIdentifier("rot0", "id", PACKAGE_NAME);
+            rot90 = res.getIdentifier("rot90", "id", PACKAGE_NAME);
+            navButtons = res.getIdentifier("nav_buttons", "id", PACKAGE_NAME);
+            icRecent = res.getIdentifier("ic_sysbar_recent", "drawable", PACKAGE_NAME);
+            icRecentLand = res.getIdentifier("ic_sysbar_recent_land", "drawable", PACKAGE_NAME);
+            mKeyWidthId = res.getIdentifier("navigation_key_width", "dimen", PACKAGE_NAME);
+            mMenuKeyWidthId = res.getIdentifier("navigation_menu_key_width", "dimen", PACKAGE_NAME);
+            updateDimensions();
+        }
+
+        private void updateDimensions() {
+            mConfig.setTo(res.getConfiguration());
+            keyWidth = mKeyWidthId == 0 ? 0 : res.getDimensionPixelSize(mKeyWidthId);
+            menuKeyWidth = mMenuKeyWidthId == 0 ? 0 : res.getDimensionPixelSize(mMenuKeyWidthId);
+        }
+
+        void onConfigurationChanged() {
+            if (!mConfig.equals(res.getConfiguration())) {
+                if (DEBUG) log("NavbarResources: configuration changed");
+                updateDimensions();
+            }
+        }
+    }
+
+    private static NavbarResources mNavbarRes;
+
+    private static NavbarResources getNavbarRes() {
+        NavbarResources nr = mNavbarRes;
+        if (nr == null || nr.res != mResources) {
+            nr = new NavbarResources(mResources);
+            mNavbarRes = nr;
+        } else {
+            nr.onConfigurationChanged();
+        }
+        return nr;
+    }
+
     private static BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -432,10 +495,9 @@ public class ModNavigationBar {
                             GravityBoxSettings.PREF_KEY_NAVBAR_BG_COLOR, mNavbarDefaultBgColor);
 
                     try {
-                        mRecentIcon = mResources.getDrawable(
-                            mResources.getIdentifier("ic_sysbar_recent", "drawable", PACKAGE_NAME));
-                        mRecentLandIcon = mResources.getDrawable(
-                            mResources.getIdentifier("ic_sysbar_recent_land", "drawable", PACKAGE_NAME));
+                        final NavbarResources nr = getNavbarRes();
+                        mRecentIcon = mResources.getDrawable(nr.icRecent);
+                        mRecentLandIcon = mResources.getDrawable(nr.icRecentLand);
                     } catch (Throwable t) {
                         log("Error getting resources for recents key. Clear all in navbar support disabled.");
                     }
@@ -484,9 +546,10 @@ public class ModNavigationBar {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
                     final Context context = ((View) param.thisObject).getContext();
-                    final int backButtonResId = mResources.getIdentifier("back", "id", PACKAGE_NAME);
-                    final int recentAppsResId = mResources.getIdentifier("recent_apps", "id", PACKAGE_NAME);
-                    final int homeButtonResId = mResources.getIdentifier("home", "id", PACKAGE_NAME);
+                    final NavbarResources nr = getNavbarRes();
+                    final int backButtonResId = nr.back;
+                    final int recentAppsResId = nr.recentApps;
+                    final int homeButtonResId = nr.home;
                     final View[] rotatedViews = 
                             (View[]) XposedHelpers.getObjectField(param.thisObject, "mRotatedViews");
 
@@ -495,7 +558,7 @@ public class ModNavigationBar {
                         mHomeKeys = new HomeKeyInfo[rotatedViews.length];
                         int index = 0;
                         for(View v : rotatedViews) {
-                            if (mAlwaysOnBottom && v.getId() == mResources.getIdentifier("rot0", "id", PACKAGE_NAME)) {
+                            if (mAlwaysOnBottom && v.getId() == nr.rot0) {
                                 adjustPortraitLayout(v);
                             }
                             if (backButtonResId != 0) { 
@@ -525,8 +588,7 @@ public class ModNavigationBar {
                     ViewGroup vRot, navButtons;
 
                     // prepare keys for rot0 view
-                    vRot = (ViewGroup) ((ViewGroup) param.thisObject).findViewById(
-                            mResources.getIdentifier("rot0", "id", PACKAGE_NAME));
+                    vRot = (ViewGroup) ((ViewGroup) param.thisObject).findViewById(nr.rot0);
                     if (vRot != null) {
                         KeyButtonView appKey = new KeyButtonView(context);
                         appKey.setScaleType(ScaleType.FIT_CENTER);
@@ -546,14 +608,12 @@ public class ModNavigationBar {
                         dpadRight.setVisibility(View.GONE);
                         dpadRight.setKeyCode(KeyEvent.KEYCODE_DPAD_RIGHT);
 
-                        navButtons = (ViewGroup) vRot.findViewById(
-                                mResources.getIdentifier("nav_buttons", "id", PACKAGE_NAME));
+                        navButtons = (ViewGroup) vRot.findViewById(nr.navButtons);
                         prepareNavbarViewInfo(navButtons, 0, appKey, dpadLeft, dpadRight);
                     }
 
                     // prepare keys for rot90 view
-                    vRot = (ViewGroup) ((ViewGroup) param.thisObject).findViewById(
-                            mResources.getIdentifier("rot90", "id", PACKAGE_NAME));
+                    vRot = (ViewGroup) ((ViewGroup) param.thisObject).findViewById(nr.rot90);
                     if (vRot != null) {
                         KeyButtonView appKey = new KeyButtonView(context);
                         appKey.setClickable(true);
@@ -570,8 +630,7 @@ public class ModNavigationBar {
                         dpadRight.setVisibility(View.GONE);
                         dpadRight.setKeyCode(KeyEvent.KEYCODE_DPAD_RIGHT);
 
-                        navButtons = (ViewGroup) vRot.findViewById(
-                                mResources.getIdentifier("nav_buttons", "id", PACKAGE_NAME));
+                        navButtons = (ViewGroup) vRot.findViewById(nr.navButtons);
                         prepareNavbarViewInfo(navButtons, 1, appKey, dpadLeft, dpadRight);
                     }
 
@@ -791,15 +850,13 @@ public class ModNavigationBar {
         // we loaded navbar layout from layout-sw600dp which portrait mode
         // is not suitable for small screens, thus we have to make some adjustments
         try {
-            ViewGroup vg = (ViewGroup) rView.findViewById(mResources.getIdentifier(
-                    "nav_buttons", "id", PACKAGE_NAME));
-            int keyWidth = mResources.getDimensionPixelSize(
-                    mResources.getIdentifier("navigation_key_width", "dimen", PACKAGE_NAME));
-            int menuKeyWidth = mResources.getDimensionPixelSize(
-                    mResources.getIdentifier("navigation_menu_key_width", "dimen", PACKAGE_NAME));
-            int backKeyResId = mResources.getIdentifier("back", "id", PACKAGE_NAME);
-            int homeKeyResId = mResources.getIdentifier("home", "id", PACKAGE_NAME);
-            int menuKeyResId = mResources.getIdentifier("menu", "id", PACKAGE_NAME);
+            final NavbarResources nr = getNavbarRes();
+            ViewGroup vg = (ViewGroup) rView.findViewById(nr.navButtons);
+            int keyWidth = nr.keyWidth;
+            int menuKeyWidth = nr.menuKeyWidth;
+            int backKeyResId = nr.back;
+            int homeKeyResId = nr.home;
+            int menuKeyResId = nr.menu;
             int otherViewWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
                     40, mResources.getDisplayMetrics());
 
@@ -901,7 +958,7 @@ public class ModNavigationBar {
                 }
             } else {
                 // determine layout from Back key
-                final int resId = navButtons.getResources().getIdentifier("back", "id", PACKAGE_NAME);
+                final int resId = getNavbarRes().back;
                 if (resId != 0) {
                     View back = navButtons.findViewById(resId);
                     if (back != null) {
@@ -978,7 +1035,7 @@ public class ModNavigationBar {
             final int disabledFlags = XposedHelpers.getIntField(mNavigationBarView, "mDisabledFlags");
             final boolean visible = (showMenu || mAlwaysShowMenukey) &&
                     !((disabledFlags & STATUS_BAR_DISABLE_RECENT) != 0);
-            int menuResId = mResources.getIdentifier("menu", "id", PACKAGE_NAME);
+            int menuResId = getNavbarRes().menu;
             for (int i = 0; i <= 1; i++) {
                 View v = mNavbarViewInfo[i].navButtons.findViewById(menuResId);
                 if (v != null) {
@@ -1063,7 +1120,7 @@ public class ModNavigationBar {
                     v.setVisibility(mDpadKeysVisible ? View.GONE : View.VISIBLE);
                 }
                 // hide/unhide menu key
-                int menuResId = mResources.getIdentifier("menu", "id", PACKAGE_NAME);
+                int menuResId = getNavbarRes().menu;
                 v = mNavbarViewInfo[i].navButtons.findViewById(menuResId);
                 if (v != null) {
                     if (mDpadKeysVisible) {
@@ -1121,8 +1178,7 @@ public class ModNavigationBar {
     private static void setKeyColor() {
         try {
             View v = (View) XposedHelpers.getObjectField(mNavigationBarView, "mCurrentView");
-            ViewGroup navButtons = (ViewGroup) v.findViewById(
-                    mResources.getIdentifier("nav_buttons", "id", PACKAGE_NAME));
+            ViewGroup navButtons = (ViewGroup) v.findViewById(getNavbarRes().navButtons);
             final int childCount = navButtons.getChildCount();
             for (int i = 0; i < childCount; i++) {
                 if (navButtons.getChildAt(i) instanceof ImageView) {
@@ -1189,8 +1245,9 @@ public class ModNavigationBar {
 
     private static void swapBackAndRecents() {
         try {
-            final int backButtonResId = mResources.getIdentifier("back", "id", PACKAGE_NAME);
-            final int recentAppsResId = mResources.getIdentifier("recent_apps", "id", PACKAGE_NAME);
+            final NavbarResources nr = getNavbarRes();
+            final int backButtonResId = nr.back;
+            final int recentAppsResId = nr.recentApps;
             for (int i = 0; i < 2; i++) {
                 if (mNavbarViewInfo[i].navButtons == null) continue;
                 View backKey = mNavbarViewInfo[i].navButtons.findViewById(backButtonResId);
@@ -1217,7 +1274,7 @@ public class ModNavigationBar {
         if (nvi.customKey.getParent() == null) return;
 
         try {
-            final int menuButtonResId = mResources.getIdentifier("menu", "id", PACKAGE_NAME);
+            final int menuButtonResId = getNavbarRes().menu;
             View menuKey = nvi.navButtons.findViewById(menuButtonResId);
             View customKey = nvi.customKey;
             int menuPos = nvi.navButtons.indexOfChild(menuKey);
@@ -20,6 +20,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Build;
@@ -138,8 +139,8 @@ public class ModPhone {
 
                     @Override
                     protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
-                        prefs.reload();
-                        boolean mvno = prefs.getBoolean(GravityBoxSettings.PREF_KEY_NATIONAL_ROAMING, false);
+                        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                        boolean mvno = currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_NATIONAL_ROAMING, false);
                         if (DEBUG) log("ignoreDomesticRoaming: " + mvno);
                         return mvno;
                     }
@@ -153,8 +154,8 @@ public class ModPhone {
 
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        prefs.reload();
-                        boolean mvno = prefs.getBoolean(GravityBoxSettings.PREF_KEY_NATIONAL_ROAMING, false);
+                        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                        boolean mvno = currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_NATIONAL_ROAMING, false);
                         final Class<?> classSystemProperties = 
                                 XposedHelpers.findClass("android.os.SystemProperties", null);
                         String simNumeric = (String) XposedHelpers.callStaticMethod(
@@ -472,14 +473,14 @@ public class ModPhone {
 
     private static void refreshPhonePrefs() {
         if (mPrefsPhone != null) {
-            mPrefsPhone.reload();
-            mCallVibrations = mPrefsPhone.getStringSet(
+            final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(mPrefsPhone);
+            mCallVibrations = currentPrefs.getStringSet(
                     GravityBoxSettings.PREF_KEY_CALL_VIBRATIONS, new HashSet<String>());
             if (DEBUG) log("mCallVibrations = " + mCallVibrations.toString());
 
             mFlipAction = GravityBoxSettings.PHONE_FLIP_ACTION_NONE;
             try {
-                mFlipAction = Integer.valueOf(mPrefsPhone.getString(
+                mFlipAction = Integer.valueOf(currentPrefs.getString(
                         GravityBoxSettings.PREF_KEY_PHONE_FLIP, "0"));
                 if (DEBUG) log("mFlipAction = " + mFlipAction);
             } catch (NumberFormatException e) {
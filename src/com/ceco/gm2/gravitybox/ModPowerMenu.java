@@ -29,6 +29,7 @@ import android.app.KeyguardManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Color;
@@ -305,8 +306,8 @@ public class ModPowerMenu {
                     boolean.class, boolean.class, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWERMENU_DISABLE_ON_LOCKSCREEN, false)) {
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    if (currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_POWERMENU_DISABLE_ON_LOCKSCREEN, false)) {
                         boolean locked = (Boolean) param.args[0];
                         if (!locked) {
                             // double-check using keyguard manager
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,16 +59,13 @@ import android.animation.Animator;
 import android.annotation.SuppressLint;
 import android.app.KeyguardManager;
 import android.bluetooth.BluetoothAdapter;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.PointF;
-import android.media.AudioManager;
 import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.IBinder;
@@ -146,10 +144,17 @@ public class ModQuickSettings {
     private static PointF mQuickPulldownSize = new PointF(0.85f, 0.15f);
     private static boolean mQsSwipeEnabled;
 
-    private static ArrayList<AQuickSettingsTile> mTiles;
+    private static abstract class TileFactory {
+        abstract AQuickSettingsTile create();
+    }
+
+    // factories of tiles supported by device keyed by tile key; tiles are instantiated only when active
+    private static Map<String, TileFactory> mTileFactories;
+    private static Map<String, AQuickSettingsTile> mTiles;
+    private static LayoutInflater mLayoutInflater;
     private static Map<String, View> mAllTileViews;
 
-    private static List<BroadcastSubReceiver> mBroadcastSubReceivers;
+    private static BroadcastEventBus mEventBus = new BroadcastEventBus(TAG);
 
     static {
         mCustomSystemTileKeys = new ArrayList<String>(Arrays.asList(
@@ -216,15 +221,16 @@ public class ModQuickSettings {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    private static BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+    private static BroadcastSubReceiver mBroadcastReceiver = new BroadcastSubReceiver() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onBroadcastReceived(Context context, Intent intent) {
             if (DEBUG) log("received broadcast: " + intent.toString());
             if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_QUICKSETTINGS_CHANGED)) {
                 if (intent.hasExtra(GravityBoxSettings.EXTRA_QS_PREFS)) {
                     mActiveTileKeys = new ArrayList<String>(Arrays.asList(
                             intent.getStringExtra(GravityBoxSettings.EXTRA_QS_PREFS).split(",")));
+                    updateTileInstances(true);
                     updateTileOrderAndVisibility();
                 }
                 if (intent.hasExtra(GravityBoxSettings.EXTRA_QS_COLS)) {
@@ -268,12 +274,6 @@ public class ModQuickSettings {
                 mStatusbarLockPolicy = intent.getIntExtra(GravityBoxSettings.EXTRA_STATUSBAR_LOCK_POLICY,
                         GravityBoxSettings.SBL_POLICY_DEFAULT);
             }
-
-            if (mBroadcastSubReceivers != null) {
-                for (BroadcastSubReceiver bsr : mBroadcastSubReceivers) {
-                    bsr.onBroadcastReceived(context, intent);
-                }
-            }
         }
     };
 
@@ -660,19 +660,11 @@ public class ModQuickSettings {
             mContainerView = (ViewGroup) XposedHelpers.getObjectField(param.thisObject, "mContainerView");
             mWifiManager = new WifiManagerWrapper(mContext);
 
-            IntentFilter intentFilter = new IntentFilter(GravityBoxSettings.ACTION_PREF_QUICKSETTINGS_CHANGED);
-            intentFilter.addAction(GravityBoxSettings.ACTION_PREF_QUICKAPP_CHANGED);
-            intentFilter.addAction(GravityBoxSettings.ACTION_PREF_QUICKAPP_CHANGED_2);
-            intentFilter.addAction(GravityBoxSettings.ACTION_PREF_EXPANDED_DESKTOP_MODE_CHANGED);
-            intentFilter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
-            intentFilter.addAction(UsbTetherTile.ACTION_TETHER_STATE_CHANGED);
-            intentFilter.addAction(UsbTetherTile.ACTION_USB_STATE);
-            intentFilter.addAction(Intent.ACTION_MEDIA_SHARED);
-            intentFilter.addAction(UsbTetherTile.ACTION_MEDIA_UNSHARED);
-            intentFilter.addAction(GravityBoxSettings.ACTION_PREF_QS_NETWORK_MODE_SIM_SLOT_CHANGED);
-            intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_LOCK_POLICY_CHANGED);
-            intentFilter.addAction(RecordingService.ACTION_RECORDING_STATUS_CHANGED);
-            mContext.registerReceiver(mBroadcastReceiver, intentFilter);
+            // tiles subscribe for their actions once they are created
+            mEventBus.subscribe(mBroadcastReceiver, BroadcastEventBus.DELIVERY_MAIN,
+                    GravityBoxSettings.ACTION_PREF_QUICKSETTINGS_CHANGED,
+                    GravityBoxSettings.ACTION_PREF_STATUSBAR_LOCK_POLICY_CHANGED);
+            mEventBus.register(mContext);
         }
     };
 
@@ -692,122 +684,246 @@ public class ModQuickSettings {
         }
     };
 
-    private static XC_MethodHook quickSettingsAddSystemTilesHook = new XC_MethodHook() {
-        @Override
-        protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
-            if (DEBUG) log("about to add tiles");
-
-            try {
-                LayoutInflater inflater = (LayoutInflater) param.args[1];
+    private static void registerTile(int tileViewId, TileFactory factory) {
+        mTileFactories.put(mGbContext.getResources().getResourceEntryName(tileViewId), factory);
+    }
 
-                mTiles = new ArrayList<AQuickSettingsTile>();
+    private static void registerTileFactories() {
+        mTileFactories = new LinkedHashMap<String, TileFactory>();
 
-                if (Utils.isMtkDevice()) {
-                    WifiTile wt = new WifiTile(mContext, mGbContext, mStatusBar, mPanelBar, mWifiManager);
-                    wt.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(wt);
+        if (Utils.isMtkDevice()) {
+            registerTile(R.id.wifi_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new WifiTile(mContext, mGbContext, mStatusBar, mPanelBar, mWifiManager);
                 }
+            });
+        }
 
-                if (Utils.hasNfc(mContext)) {
-                    NfcTile nfcTile = new NfcTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    nfcTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(nfcTile);
+        if (Utils.hasNfc(mContext)) {
+            registerTile(R.id.nfc_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new NfcTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
 
-                if (Utils.hasGPS(mContext)) {
-                    GpsTile gpsTile = new GpsTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    gpsTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(gpsTile);
+        if (Utils.hasGPS(mContext)) {
+            registerTile(R.id.gps_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new GpsTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
 
-                RingerModeTile rmTile = new RingerModeTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                rmTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(rmTile);
+        registerTile(R.id.ringer_mode_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new RingerModeTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                VolumeTile volTile = new VolumeTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                volTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(volTile);
+        registerTile(R.id.volume_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new VolumeTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                if (!Utils.isWifiOnly(mContext)) {
-                    NetworkModeTile nmTile = new NetworkModeTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    nmTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(nmTile);
+        if (!Utils.isWifiOnly(mContext)) {
+            registerTile(R.id.network_mode_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new NetworkModeTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
 
-                SyncTile syncTile = new SyncTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                syncTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(syncTile);
+        registerTile(R.id.sync_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new SyncTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                WifiApTile wifiApTile = new WifiApTile(mContext, mGbContext, mStatusBar, mPanelBar, mWifiManager);
-                wifiApTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(wifiApTile);
+        registerTile(R.id.wifi_ap_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new WifiApTile(mContext, mGbContext, mStatusBar, mPanelBar, mWifiManager);
+            }
+        });
 
-                if (Utils.hasFlash(mContext)) {
-                    TorchTile torchTile = new TorchTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    torchTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(torchTile);
+        if (Utils.hasFlash(mContext)) {
+            registerTile(R.id.torch_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new TorchTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
 
-                SleepTile sleepTile = new SleepTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                sleepTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(sleepTile);
+        registerTile(R.id.sleep_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new SleepTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                StayAwakeTile swTile = new StayAwakeTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                swTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(swTile);
+        registerTile(R.id.stay_awake_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new StayAwakeTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                QuickRecordTile qrTile = new QuickRecordTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                qrTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(qrTile);
+        registerTile(R.id.quickrecord_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new QuickRecordTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                QuickAppTile qAppTile = new QuickAppTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                qAppTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(qAppTile);
+        registerTile(R.id.quickapp_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new QuickAppTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                QuickAppTile qAppTile2 = new QuickAppTile(mContext, mGbContext, mStatusBar, mPanelBar, 2);
-                qAppTile2.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(qAppTile2);
+        registerTile(R.id.quickapp_tileview_2, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new QuickAppTile(mContext, mGbContext, mStatusBar, mPanelBar, 2);
+            }
+        });
 
-                ExpandedDesktopTile edTile = new ExpandedDesktopTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                edTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(edTile);
+        registerTile(R.id.expanded_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new ExpandedDesktopTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                ScreenshotTile ssTile = new ScreenshotTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                ssTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(ssTile);
+        registerTile(R.id.screenshot_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new ScreenshotTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                GravityBoxTile gbTile = new GravityBoxTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                gbTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(gbTile);
+        registerTile(R.id.gravitybox_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new GravityBoxTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                CameraTile camTile = new CameraTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                camTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(camTile);
+        registerTile(R.id.camera_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new CameraTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                UsbTetherTile utTile = new UsbTetherTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                utTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(utTile);
+        registerTile(R.id.usb_tether_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new UsbTetherTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SMART_RADIO_ENABLE, false)) {
-                    SmartRadioTile srTile = new SmartRadioTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    srTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(srTile);
+        if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SMART_RADIO_ENABLE, false)) {
+            registerTile(R.id.smart_radio_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new SmartRadioTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
 
-                LockScreenTile lsTile = new LockScreenTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                lsTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                mTiles.add(lsTile);
+        registerTile(R.id.lock_screen_tileview, new TileFactory() {
+            @Override
+            AQuickSettingsTile create() {
+                return new LockScreenTile(mContext, mGbContext, mStatusBar, mPanelBar);
+            }
+        });
 
-                if (SysUiManagers.QuietHoursManager != null) {
-                    QuietHoursTile qhTile = new QuietHoursTile(mContext, mGbContext, mStatusBar, mPanelBar);
-                    qhTile.setupQuickSettingsTile(mContainerView, inflater, mPrefs, mQuickSettings);
-                    mTiles.add(qhTile);
+        if (SysUiManagers.QuietHoursManager != null) {
+            registerTile(R.id.quiet_hours_tileview, new TileFactory() {
+                @Override
+                AQuickSettingsTile create() {
+                    return new QuietHoursTile(mContext, mGbContext, mStatusBar, mPanelBar);
                 }
+            });
+        }
+    }
 
-                mBroadcastSubReceivers = new ArrayList<BroadcastSubReceiver>();
-                for (AQuickSettingsTile t : mTiles) {
-                    mBroadcastSubReceivers.add(t);
+    private static boolean isTileActive(String key) {
+        return (mActiveTileKeys == null || mActiveTileKeys.contains(key));
+    }
+
+    /**
+     * Creates tiles that became active and destroys those that are no longer active.
+     */
+    private static void updateTileInstances(boolean reloadPrefs) {
+        if (mTileFactories == null) return;
+
+        for (Map.Entry<String, TileFactory> entry : mTileFactories.entrySet()) {
+            final String key = entry.getKey();
+            final AQuickSettingsTile tile = mTiles.get(key);
+            if (isTileActive(key)) {
+                if (tile == null) {
+                    // tile reads its settings from prefs when being set up
+                    if (reloadPrefs) {
+                        mPrefs.reload();
+                        reloadPrefs = false;
+                    }
+                    createTile(key, entry.getValue());
                 }
+            } else if (tile != null) {
+                destroyTile(key, tile);
+            }
+        }
+    }
+
+    private static void createTile(String key, TileFactory factory) {
+        try {
+            AQuickSettingsTile tile = factory.create();
+            tile.setupQuickSettingsTile(mContainerView, mLayoutInflater, mPrefs, mQuickSettings);
+            mTiles.put(key, tile);
+            List<String> actions = tile.getBroadcastActions();
+            mEventBus.subscribe(tile, BroadcastEventBus.DELIVERY_MAIN,
+                    actions.toArray(new String[actions.size()]));
+            if (DEBUG) log("Tile created: " + key);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+
+    private static void destroyTile(String key, AQuickSettingsTile tile) {
+        mEventBus.unsubscribe(tile);
+        mTiles.remove(key);
+        mAllTileViews.remove(key);
+        try {
+            tile.onDestroy();
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+        if (DEBUG) log("Tile destroyed: " + key);
+    }
+
+    private static XC_MethodHook quickSettingsAddSystemTilesHook = new XC_MethodHook() {
+        @Override
+        protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
+            if (DEBUG) log("about to add tiles");
+
+            try {
+                mLayoutInflater = (LayoutInflater) param.args[1];
+                mTiles = new LinkedHashMap<String, AQuickSettingsTile>();
+                registerTileFactories();
+                updateTileInstances(false);
             } catch (Throwable t) {
                 XposedBridge.log(t);
             }
@@ -826,7 +942,7 @@ public class ModQuickSettings {
         protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
             if (DEBUG) log("updateResources - updating all tiles");
 
-            for (AQuickSettingsTile t : mTiles) {
+            for (AQuickSettingsTile t : mTiles.values()) {
                 t.updateResources();
             }
         }
@@ -23,6 +23,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.view.View;
 import android.view.ViewGroup;
@@ -149,8 +150,8 @@ public class ModSignalIconHide {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                     if (DEBUG) log("UiccController.setNotification(" + param.args[0] + ")");
-                    prefs.reload();
-                    Set<String> autohidePrefs = prefs.getStringSet(GravityBoxSettings.PREF_KEY_SIGNAL_ICON_AUTOHIDE, null);
+                    final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                    Set<String> autohidePrefs = currentPrefs.getStringSet(GravityBoxSettings.PREF_KEY_SIGNAL_ICON_AUTOHIDE, null);
                     if (autohidePrefs != null && autohidePrefs.contains("notifications_disabled")) {
                         if (DEBUG) log("SIM not inserted notifications disabled - skipping method");
                         param.setResult(null);
@@ -15,6 +15,8 @@
 
 package com.ceco.gm2.gravitybox;
 
+import java.util.regex.Pattern;
+
 import com.ceco.gm2.gravitybox.shortcuts.AShortcut;
 
 import android.app.AlarmManager;
@@ -24,13 +26,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.TrafficStats;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.telephony.TelephonyManager;
 import de.robv.android.xposed.XC_MethodHook;
@@ -69,10 +74,14 @@ public class ModSmartRadio {
     private static boolean mIgnoreMobileDataAvailability;
     private static boolean mIsPhoneIdle = true;
     private static int mAdaptiveDelayThreshold;
+    private static ConnectivityState mConnState;
 
     private static BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            // connectivity model must reflect this intent before any decision is made
+            mConnState.onBroadcastReceived(context, intent);
+
             if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_SMART_RADIO_CHANGED)) {
                 if (intent.hasExtra(GravityBoxSettings.EXTRA_SR_NORMAL_MODE)) {
                     setNewModeValue(State.NORMAL, 
@@ -117,10 +126,9 @@ public class ModSmartRadio {
                     if (ni != null) nwType = ni.getType();
                 }
                 if (nwType == -1) return;
-                NetworkInfo nwInfo = mConnManager.getNetworkInfo(nwType);
                 if (nwType == ConnectivityManager.TYPE_WIFI ||
                         nwType == ConnectivityManager.TYPE_MOBILE) {
-                    if (DEBUG) log("Network type: " + nwType + "; connected: " + nwInfo.isConnected());
+                    if (DEBUG) log("Network type: " + nwType + "; connected: " + mConnState.isConnected(nwType));
                     if (shouldSwitchToNormalState()) {
                         switchToState(State.NORMAL);
                     } else {
@@ -167,71 +175,41 @@ public class ModSmartRadio {
     };
 
     private static boolean isMobileDataEnabled() {
-        try {
-            return (Boolean) XposedHelpers.callMethod(mConnManager, "getMobileDataEnabled");
-        } catch (Throwable t) {
-            return false;
-        }
+        return mConnState.isMobileDataEnabled();
     }
 
     private static boolean isMobileNetworkAvailable() {
         if (mIgnoreMobileDataAvailability) {
             return true;
         }
-        try {
-            return mConnManager.getNetworkInfo(ConnectivityManager.TYPE_MOBILE).isAvailable();
-        } catch (Throwable t) {
-            return false;
-        }
+        return mConnState.isMobileAvailable();
     }
 
     private static boolean isWifiConnected() {
-        try {
-            return mConnManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI).isConnected();
-        } catch (Throwable t) {
-            return false;
-        }
+        return mConnState.isConnected(ConnectivityManager.TYPE_WIFI);
     }
 
     private static boolean isTetheringViaMobileNetwork() {
-        try {
-            String[] wifiRegexs = (String[]) XposedHelpers.callMethod(mConnManager, "getTetherableWifiRegexs");
-            String[] usbRegexs = (String[]) XposedHelpers.callMethod(mConnManager, "getTetherableUsbRegexs");
-            String[] btRegexes = (String[]) XposedHelpers.callMethod(mConnManager, "getTetherableBluetoothRegexs");
-            String[] tetheredIfaces = (String[]) XposedHelpers.callMethod(mConnManager, "getTetheredIfaces");
-
-            for (String tiface : tetheredIfaces) {
-                // if wifi tethering active it's obvious it goes via mobile network
-                for (String regex : wifiRegexs) {
-                    if (tiface.matches(regex)) {
-                        if (DEBUG) log("isTetheringViaMobileNetwork: WiFi tethering enabled");
-                        return true;
-                    }
-                }
+        // if wifi tethering active it's obvious it goes via mobile network
+        if (mConnState.isWifiTethered()) {
+            if (DEBUG) log("isTetheringViaMobileNetwork: WiFi tethering enabled");
+            return true;
+        }
 
-                // if not WiFi connected check for USB and BT tethering
-                if (!isWifiConnected()) {
-                    for (String regex : usbRegexs) {
-                        if (tiface.matches(regex)) {
-                            if (DEBUG) log("isTetheringViaMobileNetwork: USB tethering enabled and WiFi not connected");
-                            return true;
-                        }
-                    }
-                    for (String regex : btRegexes) {
-                        if (tiface.matches(regex)) {
-                            if (DEBUG) log("isTetheringViaMobileNetwork: BT tethering enabled and WiFi not connected");
-                            return true;
-                        }
-                    }
-                }
+        // if not WiFi connected check for USB and BT tethering
+        if (!isWifiConnected()) {
+            if (mConnState.isUsbTethered()) {
+                if (DEBUG) log("isTetheringViaMobileNetwork: USB tethering enabled and WiFi not connected");
+                return true;
+            }
+            if (mConnState.isBtTethered()) {
+                if (DEBUG) log("isTetheringViaMobileNetwork: BT tethering enabled and WiFi not connected");
+                return true;
             }
-
-            if (DEBUG) log("isTetheringViaMobileNetwork: nope");
-            return false;
-        } catch (Throwable t) {
-            log("isTetheringViaMobileNetwork: " + t.getMessage());
-            return false;
         }
+
+        if (DEBUG) log("isTetheringViaMobileNetwork: nope");
+        return false;
     }
 
     private static boolean isKeyguardLocked() {
@@ -333,6 +311,163 @@ public class ModSmartRadio {
         }
     }
 
+    /**
+     * In-memory model of connectivity and tethering state SmartRadio decisions are based on.
+     * Tetherable interface patterns are compiled once and state is kept up to date from
+     * connectivity, tethering and airplane mode broadcasts and mobile data setting changes
+     * so that evaluating the rules requires no binder calls.
+     * Must be used from the main thread.
+     */
+    private static class ConnectivityState implements BroadcastSubReceiver {
+        public static final String ACTION_TETHER_STATE_CHANGED = "android.net.conn.TETHER_STATE_CHANGED";
+        public static final String EXTRA_ACTIVE_TETHER = "activeArray";
+        private static final String SETTING_MOBILE_DATA = "mobile_data";
+
+        private ConnectivityManager mConnectivityManager;
+        private Pattern[] mWifiRegexs;
+        private Pattern[] mUsbRegexs;
+        private Pattern[] mBtRegexs;
+        private boolean mWifiTethered;
+        private boolean mUsbTethered;
+        private boolean mBtTethered;
+        private boolean mWifiConnected;
+        private boolean mMobileConnected;
+        private boolean mMobileAvailable;
+        private boolean mMobileDataEnabled;
+
+        public ConnectivityState(Context context, ConnectivityManager cm) {
+            mConnectivityManager = cm;
+            mWifiRegexs = compileRegexs("getTetherableWifiRegexs");
+            mUsbRegexs = compileRegexs("getTetherableUsbRegexs");
+            mBtRegexs = compileRegexs("getTetherableBluetoothRegexs");
+
+            try {
+                updateTetheredIfaces((String[]) XposedHelpers.callMethod(cm, "getTetheredIfaces"));
+            } catch (Throwable t) {
+                log("ConnectivityState: " + t.getMessage());
+            }
+            updateNetworkInfo(ConnectivityManager.TYPE_WIFI);
+            updateNetworkInfo(ConnectivityManager.TYPE_MOBILE);
+            updateMobileDataEnabled();
+
+            final Uri mobileDataUri = Build.VERSION.SDK_INT > 16 ?
+                    Settings.Global.getUriFor(SETTING_MOBILE_DATA) :
+                    Settings.Secure.getUriFor(SETTING_MOBILE_DATA);
+            context.getContentResolver().registerContentObserver(mobileDataUri, false,
+                    new ContentObserver(new Handler()) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            updateMobileDataEnabled();
+                        }
+                    });
+        }
+
+        private Pattern[] compileRegexs(String methodName) {
+            try {
+                String[] regexs = (String[]) XposedHelpers.callMethod(mConnectivityManager, methodName);
+                Pattern[] patterns = new Pattern[regexs == null ? 0 : regexs.length];
+                for (int i = 0; i < patterns.length; i++) {
+                    patterns[i] = Pattern.compile(regexs[i]);
+                }
+                return patterns;
+            } catch (Throwable t) {
+                log("ConnectivityState: " + methodName + ": " + t.getMessage());
+                return new Pattern[0];
+            }
+        }
+
+        private static boolean matchesAny(String iface, Pattern[] patterns) {
+            for (Pattern p : patterns) {
+                if (p.matcher(iface).matches()) return true;
+            }
+            return false;
+        }
+
+        private void updateTetheredIfaces(String[] tetheredIfaces) {
+            mWifiTethered = mUsbTethered = mBtTethered = false;
+            if (tetheredIfaces == null) return;
+            for (String tiface : tetheredIfaces) {
+                mWifiTethered |= matchesAny(tiface, mWifiRegexs);
+                mUsbTethered |= matchesAny(tiface, mUsbRegexs);
+                mBtTethered |= matchesAny(tiface, mBtRegexs);
+            }
+            if (DEBUG) log("ConnectivityState: tethering wifi=" + mWifiTethered +
+                    "; usb=" + mUsbTethered + "; bt=" + mBtTethered);
+        }
+
+        private void updateNetworkInfo(int type) {
+            try {
+                updateNetworkInfo(mConnectivityManager.getNetworkInfo(type), type);
+            } catch (Throwable t) {
+                updateNetworkInfo(null, type);
+            }
+        }
+
+        private void updateNetworkInfo(NetworkInfo ni, int type) {
+            if (type == ConnectivityManager.TYPE_WIFI) {
+                mWifiConnected = ni != null && ni.isConnected();
+            } else if (type == ConnectivityManager.TYPE_MOBILE) {
+                mMobileConnected = ni != null && ni.isConnected();
+                mMobileAvailable = ni != null && ni.isAvailable();
+            }
+        }
+
+        private void updateMobileDataEnabled() {
+            try {
+                mMobileDataEnabled = (Boolean) XposedHelpers.callMethod(
+                        mConnectivityManager, "getMobileDataEnabled");
+            } catch (Throwable t) {
+                mMobileDataEnabled = false;
+            }
+            if (DEBUG) log("ConnectivityState: mMobileDataEnabled=" + mMobileDataEnabled);
+        }
+
+        public boolean isConnected(int type) {
+            return type == ConnectivityManager.TYPE_WIFI ? mWifiConnected :
+                type == ConnectivityManager.TYPE_MOBILE ? mMobileConnected : false;
+        }
+
+        public boolean isMobileAvailable() {
+            return mMobileAvailable;
+        }
+
+        public boolean isMobileDataEnabled() {
+            return mMobileDataEnabled;
+        }
+
+        public boolean isWifiTethered() {
+            return mWifiTethered;
+        }
+
+        public boolean isUsbTethered() {
+            return mUsbTethered;
+        }
+
+        public boolean isBtTethered() {
+            return mBtTethered;
+        }
+
+        @Override
+        public void onBroadcastReceived(Context context, Intent intent) {
+            if (intent.getAction().equals(ConnectivityManager.CONNECTIVITY_ACTION)) {
+                NetworkInfo ni = intent.getParcelableExtra(ConnectivityManager.EXTRA_NETWORK_INFO);
+                if (ni != null) {
+                    updateNetworkInfo(ni, ni.getType());
+                } else if (Build.VERSION.SDK_INT > 16) {
+                    int nwType = intent.getIntExtra(ConnectivityManager.EXTRA_NETWORK_TYPE, -1);
+                    if (nwType != -1) {
+                        updateNetworkInfo(nwType);
+                    }
+                }
+            } else if (intent.getAction().equals(ACTION_TETHER_STATE_CHANGED)) {
+                updateTetheredIfaces(intent.getStringArrayExtra(EXTRA_ACTIVE_TETHER));
+            } else if (intent.getAction().equals(Intent.ACTION_AIRPLANE_MODE_CHANGED)) {
+                // mobile availability can change without mobile connectivity broadcast
+                updateNetworkInfo(ConnectivityManager.TYPE_MOBILE);
+            }
+        }
+    }
+
     private static class NetworkModeChanger implements Runnable, BroadcastSubReceiver {
         public static final String ACTION_CHANGE_MODE_ALARM = "gravitybox.smartradio.intent.action.CHANGE_MODE_ALARM";
         private Context mContext;
@@ -342,13 +477,7 @@ public class ModSmartRadio {
         private WakeLock mWakeLock;
         private AlarmManager mAlarmManager;
         private PendingIntent mPendingIntent;
-        private LinkActivity mLinkActivity;
-
-        class LinkActivity {
-            long timestamp;
-            long rxBytes;
-            long txBytes;
-        }
+        private LinkActivityMonitor mLinkActivity;
 
         public NetworkModeChanger(Context context) {
             mContext = context;
@@ -356,7 +485,7 @@ public class ModSmartRadio {
             mNextNetworkMode = -1;
             mCurrentNetworkMode = -1;
             mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
-            mLinkActivity = new LinkActivity();
+            mLinkActivity = new LinkActivityMonitor();
 
             PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
             mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GB:SmartRadio");
@@ -380,8 +509,11 @@ public class ModSmartRadio {
             if (networkMode == -1 || networkMode == mCurrentNetworkMode) return;
             mNextNetworkMode = networkMode;
             if (mIsScreenOff && mNextNetworkMode == mPowerSavingMode && mScreenOffDelay != 0) {
+                // alarm is used instead of wake lock held for the whole delay
                 if (DEBUG) log("NetworkModeChanger: scheduling alarm for switching to power saving mode");
-                scheduleAlarm();
+                mLinkActivity.start(SystemClock.elapsedRealtime(),
+                        TrafficStats.getMobileRxBytes(), TrafficStats.getMobileTxBytes());
+                scheduleAlarm(mScreenOffDelay*60*1000);
             } else {
                 if (mModeChangeDelay == 0) {
                     run();
@@ -403,14 +535,11 @@ public class ModSmartRadio {
             }
         }
 
-        private void scheduleAlarm() {
+        private void scheduleAlarm(long delay) {
             Intent intent = new Intent(ACTION_CHANGE_MODE_ALARM);
             mPendingIntent = PendingIntent.getBroadcast(mContext, 1, intent, PendingIntent.FLAG_ONE_SHOT);
-            long triggerAtMillis = System.currentTimeMillis() + mScreenOffDelay*60*1000;
-            mAlarmManager.set(AlarmManager.RTC_WAKEUP, triggerAtMillis, mPendingIntent);
-            mLinkActivity.timestamp = System.currentTimeMillis();
-            mLinkActivity.rxBytes = TrafficStats.getMobileRxBytes();
-            mLinkActivity.txBytes = TrafficStats.getMobileTxBytes();
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    SystemClock.elapsedRealtime() + delay, mPendingIntent);
         }
 
         private void cancelPendingAlarm() {
@@ -420,30 +549,18 @@ public class ModSmartRadio {
             }
         }
 
-        private boolean shouldPostponeAlarm() {
-            boolean postpone = false;
-            if (mAdaptiveDelayThreshold > 0) {
-                // if there's link activity higher than defined threshold
-                long rxDelta = TrafficStats.getMobileRxBytes() - mLinkActivity.rxBytes;
-                long txDelta = TrafficStats.getMobileTxBytes() - mLinkActivity.txBytes;
-                long timeDelta = System.currentTimeMillis() - mLinkActivity.timestamp;
-                long speedRxKBs = (long)(rxDelta / (timeDelta / 1000f)) / 1024;
-                long speedTxKBs = (long)(txDelta / (timeDelta / 1000f)) / 1024;
-                postpone |= speedTxKBs >= mAdaptiveDelayThreshold || speedRxKBs >= mAdaptiveDelayThreshold;
-                if (DEBUG) log("shouldPostponeAlarm: speedRxKBs=" + speedRxKBs +
-                        "; speedTxKBs=" + speedTxKBs + "; threshold=" + mAdaptiveDelayThreshold);
-            }
-            return postpone;
-        }
-
         @Override
         public void onBroadcastReceived(Context context, Intent intent) {
             if (intent.getAction().equals(ACTION_CHANGE_MODE_ALARM)) {
                 if (DEBUG) log("ACTION_CHANGE_MODE_ALARM received");
                 mPendingIntent = null;
-                if (shouldPostponeAlarm()) {
-                    if (DEBUG) log("NetworkModeChanger: postponing alarm for switching to power saving mode");
-                    scheduleAlarm();
+                final long delay = mLinkActivity.getPostponeDelay(SystemClock.elapsedRealtime(),
+                        TrafficStats.getMobileRxBytes(), TrafficStats.getMobileTxBytes(),
+                        mAdaptiveDelayThreshold);
+                if (delay > 0) {
+                    if (DEBUG) log("NetworkModeChanger: postponing alarm for switching to power saving mode by " +
+                            delay + "ms");
+                    scheduleAlarm(delay);
                 } else {
                     run();
                 }
@@ -476,6 +593,7 @@ public class ModSmartRadio {
                                 SETTING_SMART_RADIO_ENABLED, 1) == 1;
                         mConnManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
                         mKeyguardManager = (KeyguardManager) mContext.getSystemService(Context.KEYGUARD_SERVICE);
+                        mConnState = new ConnectivityState(mContext, mConnManager);
                         mNetworkModeChanger = new NetworkModeChanger(mContext);
                         Settings.System.putString(mContext.getContentResolver(), 
                                 SETTING_SMART_RADIO_STATE, mCurrentState.toString());
@@ -489,6 +607,8 @@ public class ModSmartRadio {
                         intentFilter.addAction(NetworkModeChanger.ACTION_CHANGE_MODE_ALARM);
                         intentFilter.addAction(ACTION_TOGGLE_SMART_RADIO);
                         intentFilter.addAction(TelephonyManager.ACTION_PHONE_STATE_CHANGED);
+                        intentFilter.addAction(ConnectivityState.ACTION_TETHER_STATE_CHANGED);
+                        intentFilter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED);
                         mContext.registerReceiver(mBroadcastReceiver, intentFilter);
                     }
                 }
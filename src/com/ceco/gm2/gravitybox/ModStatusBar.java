@@ -17,8 +17,6 @@ package com.ceco.gm2.gravitybox;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.ceco.gm2.gravitybox.TrafficMeterAbstract.TrafficMeterMode;
 import com.ceco.gm2.gravitybox.managers.SysUiManagers;
@@ -37,11 +35,10 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.SearchManager;
 import android.content.ActivityNotFoundException;
-import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.content.res.XModuleResources;
 import android.content.res.XResources;
@@ -153,25 +150,24 @@ public class ModStatusBar {
     private static int mLinger;
     private static int mInitialTouchX;
     private static int mInitialTouchY;
+    private static int mTouchSlop;
+    private static int mNotificationHeaderHeight;
+    private static Handler mBrightnessHandler;
+    private static BrightnessDragSession mBrightnessDragSession;
     private static int BRIGHTNESS_ON = 255;
 
-    private static List<BroadcastSubReceiver> mBroadcastSubReceivers = new ArrayList<BroadcastSubReceiver>();
+    private static BroadcastEventBus mEventBus = new BroadcastEventBus(TAG);
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    private static BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+    private static BroadcastSubReceiver mBroadcastReceiver = new BroadcastSubReceiver() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onBroadcastReceived(Context context, Intent intent) {
             if (DEBUG) log("Broadcast received: " + intent.toString());
 
-            for (BroadcastSubReceiver bsr : mBroadcastSubReceivers) {
-                bsr.onBroadcastReceived(context, intent);
-            }
-            ModBatteryStyle.onBroadcastReceived(context, intent);
-
             if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED)) {
                 if (intent.hasExtra(GravityBoxSettings.EXTRA_CENTER_CLOCK)) {
                     setClockPosition(intent.getBooleanExtra(GravityBoxSettings.EXTRA_CENTER_CLOCK, false));
@@ -246,14 +242,6 @@ public class ModStatusBar {
             } else if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_STATUSBAR_DT2S_CHANGED) &&
                     intent.hasExtra(GravityBoxSettings.EXTRA_SB_DT2S)) {
                 mDt2sEnabled = intent.getBooleanExtra(GravityBoxSettings.EXTRA_SB_DT2S, false);
-            } else if (intent.getAction().equals(ACTION_DELETE_SCREENSHOT)) {
-                Uri screenshotUri = Uri.parse(intent.getStringExtra(SCREENSHOT_URI));
-                if (screenshotUri != null) {
-                    mContext.getContentResolver().delete(screenshotUri, null, null);
-                }
-                NotificationManager notificationManager =
-                        (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
-                notificationManager.cancel(SCREENSHOT_NOTIFICATION_ID);
             } else if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_STATUSBAR_TICKER_POLICY_CHANGED)) {
                 mTickerPolicy = TickerPolicy.valueOf(intent.getStringExtra(
                         GravityBoxSettings.EXTRA_STATUSBAR_TICKER_POLICY));
@@ -261,6 +249,27 @@ public class ModStatusBar {
         }
     };
 
+    // deletes screenshot file so it's delivered on background looper
+    private static BroadcastSubReceiver mScreenshotDeleteReceiver = new BroadcastSubReceiver() {
+        @Override
+        public void onBroadcastReceived(Context context, Intent intent) {
+            Uri screenshotUri = Uri.parse(intent.getStringExtra(SCREENSHOT_URI));
+            if (screenshotUri != null) {
+                mContext.getContentResolver().delete(screenshotUri, null, null);
+            }
+            NotificationManager notificationManager =
+                    (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+            notificationManager.cancel(SCREENSHOT_NOTIFICATION_ID);
+        }
+    };
+
+    private static BroadcastSubReceiver mBatteryStyleReceiver = new BroadcastSubReceiver() {
+        @Override
+        public void onBroadcastReceived(Context context, Intent intent) {
+            ModBatteryStyle.onBroadcastReceived(context, intent);
+        }
+    };
+
     static class SettingsObserver extends ContentObserver {
         SettingsObserver(Handler handler) {
             super(handler);
@@ -314,12 +323,14 @@ public class ModStatusBar {
             // inject download progress view
             mDownloadProgressView = new StatusbarDownloadProgressView(mContext, mPrefs);
             mStatusBarView.addView(mDownloadProgressView);
-            mBroadcastSubReceivers.add(mDownloadProgressView);
+            mEventBus.subscribe(mDownloadProgressView, BroadcastEventBus.DELIVERY_MAIN,
+                    GravityBoxSettings.ACTION_PREF_STATUSBAR_DOWNLOAD_PROGRESS_CHANGED);
 
             // inject battery bar view
             BatteryBarView bbView = new BatteryBarView(mContext, mPrefs);
             mStatusBarView.addView(bbView);
-            mBroadcastSubReceivers.add(bbView);
+            mEventBus.subscribe(bbView, BroadcastEventBus.DELIVERY_MAIN,
+                    GravityBoxSettings.ACTION_PREF_BATTERY_BAR_CHANGED);
             mDownloadProgressView.registerListener(bbView);
 
             mIconArea = (ViewGroup) XposedHelpers.getObjectField(mPhoneStatusBar,
@@ -350,7 +361,8 @@ public class ModStatusBar {
                     if (SysUiManagers.IconManager != null) {
                         SysUiManagers.IconManager.registerListener(mClock);
                     }
-                    mBroadcastSubReceivers.add(mClock);
+                    mEventBus.subscribe(mClock, BroadcastEventBus.DELIVERY_MAIN,
+                            GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED);
                     // find notification panel clock
                     final ViewGroup panelHolder = Build.VERSION.SDK_INT > 16 ?
                             (ViewGroup) mStatusBarView.findViewById(
@@ -463,6 +475,8 @@ public class ModStatusBar {
                         (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 84,
                                 res.getDisplayMetrics());
             BRIGHTNESS_ON = XposedHelpers.getStaticIntField(powerManagerClass, "BRIGHTNESS_ON");
+            mTouchSlop = ViewConfiguration.get(mContext).getScaledTouchSlop();
+            mBrightnessHandler = (Handler) XposedHelpers.getObjectField(mPhoneStatusBar, "mHandler");
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
@@ -552,30 +566,29 @@ public class ModStatusBar {
                     prepareTrafficMeter();
                     ModBatteryStyle.init(mStatusBarView, prefs);
 
-                    IntentFilter intentFilter = new IntentFilter();
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_BRIGHTNESS_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_ONGOING_NOTIFICATIONS_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_DATA_TRAFFIC_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_DISABLE_DATA_NETWORK_TYPE_ICONS_CHANGED);
-                    intentFilter.addAction(ACTION_START_SEARCH_ASSIST);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_NOTIF_CARRIER_TEXT_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_NOTIF_CARRIER2_TEXT_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_DT2S_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_SYSTEM_ICON_CHANGED);
-                    intentFilter.addAction(ACTION_DELETE_SCREENSHOT);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_DOWNLOAD_PROGRESS_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_TICKER_POLICY_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_BAR_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_STYLE_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_SIZE_CHANGED);
-                    intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_STYLE_CHANGED);
+                    mEventBus.subscribe(mBatteryStyleReceiver, BroadcastEventBus.DELIVERY_MAIN,
+                            GravityBoxSettings.ACTION_PREF_BATTERY_STYLE_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_SIZE_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_STYLE_CHANGED);
                     if (Utils.isMtkDevice()) {
-                        intentFilter.addAction(ModBatteryStyle.ACTION_MTK_BATTERY_PERCENTAGE_SWITCH);
+                        mEventBus.subscribe(mBatteryStyleReceiver, BroadcastEventBus.DELIVERY_MAIN,
+                                ModBatteryStyle.ACTION_MTK_BATTERY_PERCENTAGE_SWITCH);
                     }
-
-                    mContext.registerReceiver(mBroadcastReceiver, intentFilter);
+                    mEventBus.subscribe(mBroadcastReceiver, BroadcastEventBus.DELIVERY_MAIN,
+                            GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_STATUSBAR_BRIGHTNESS_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_ONGOING_NOTIFICATIONS_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_DATA_TRAFFIC_CHANGED,
+                            GravityBoxSettings.ACTION_DISABLE_DATA_NETWORK_TYPE_ICONS_CHANGED,
+                            ACTION_START_SEARCH_ASSIST,
+                            GravityBoxSettings.ACTION_NOTIF_CARRIER_TEXT_CHANGED,
+                            GravityBoxSettings.ACTION_NOTIF_CARRIER2_TEXT_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_STATUSBAR_DT2S_CHANGED,
+                            GravityBoxSettings.ACTION_PREF_STATUSBAR_TICKER_POLICY_CHANGED);
+                    mEventBus.subscribe(mScreenshotDeleteReceiver, BroadcastEventBus.DELIVERY_BACKGROUND,
+                            ACTION_DELETE_SCREENSHOT);
+                    mEventBus.register(mContext);
 
                     mSettingsObserver = new SettingsObserver(
                             (Handler) XposedHelpers.getObjectField(mPhoneStatusBar, "mHandler"));
@@ -948,7 +961,8 @@ public class ModStatusBar {
             }
 
             // Status bar Bluetooth icon policy
-            mBroadcastSubReceivers.add(new SystemIconController(classLoader, prefs));
+            mEventBus.subscribe(new SystemIconController(classLoader, prefs),
+                    BroadcastEventBus.DELIVERY_MAIN, GravityBoxSettings.ACTION_PREF_SYSTEM_ICON_CHANGED);
 
             // Delete action for screenshot notification
             try {
@@ -965,8 +979,8 @@ public class ModStatusBar {
                         if (XposedHelpers.getAdditionalInstanceField(builder, "gbDeleteActionAdded") != null)
                             return;
 
-                        prefs.reload();
-                        if (!prefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENSHOT_DELETE, false))
+                        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+                        if (!currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENSHOT_DELETE, false))
                             return;
 
                         Uri uri = (Uri) XposedHelpers.getObjectField(result, "imageUri");
@@ -1085,9 +1099,7 @@ public class ModStatusBar {
 
         removeTrafficMeterView();
         if (mTrafficMeter != null) {
-            if (mBroadcastSubReceivers.contains(mTrafficMeter)) {
-                mBroadcastSubReceivers.remove(mTrafficMeter);
-            }
+            mEventBus.unsubscribe(mTrafficMeter);
             if (SysUiManagers.IconManager != null) {
                 SysUiManagers.IconManager.unregisterListener(mTrafficMeter);
             }
@@ -1107,7 +1119,8 @@ public class ModStatusBar {
             if (mDownloadProgressView != null) {
                 mDownloadProgressView.registerListener(mTrafficMeter);
             }
-            mBroadcastSubReceivers.add(mTrafficMeter);
+            mEventBus.subscribe(mTrafficMeter, BroadcastEventBus.DELIVERY_MAIN,
+                    GravityBoxSettings.ACTION_PREF_DATA_TRAFFIC_CHANGED);
         }
     }
 
@@ -1237,17 +1250,11 @@ public class ModStatusBar {
             newBrightness = Math.min(newBrightness, BRIGHTNESS_ON);
             newBrightness = Math.max(newBrightness, mMinBrightness);
 
-            Class<?> classSm = XposedHelpers.findClass("android.os.ServiceManager", null);
-            Class<?> classIpm = XposedHelpers.findClass("android.os.IPowerManager.Stub", null);
-            IBinder b = (IBinder) XposedHelpers.callStaticMethod(
-                    classSm, "getService", Context.POWER_SERVICE);
-            Object power = XposedHelpers.callStaticMethod(classIpm, "asInterface", b);
-            if (power != null) {
-                final String bcMethod = Build.VERSION.SDK_INT > 16 ?
-                        "setTemporaryScreenBrightnessSettingOverride" : "setBacklightBrightness";
-                XposedHelpers.callMethod(power, bcMethod, newBrightness);
-                Settings.System.putInt(mContext.getContentResolver(),
-                        Settings.System.SCREEN_BRIGHTNESS, newBrightness);
+            if (mBrightnessDragSession == null) {
+                mBrightnessDragSession = BrightnessDragSession.start(mContext);
+            }
+            if (mBrightnessDragSession != null) {
+                mBrightnessDragSession.setBrightness(newBrightness);
             }
         } catch (Throwable t) {
             XposedBridge.log(t);
@@ -1259,13 +1266,13 @@ public class ModStatusBar {
             final int action = event.getAction();
             final int x = (int) event.getRawX();
             final int y = (int) event.getRawY();
-            Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneStatusBar, "mHandler");
-            int notificationHeaderHeight = Build.VERSION.SDK_INT > 16 ?
-                    XposedHelpers.getIntField(mPhoneStatusBar, "mNotificationHeaderHeight") :
-                        XposedHelpers.getIntField(mPhoneStatusBar, "mNotificationPanelMinHeight");
+            final Handler handler = mBrightnessHandler;
     
             if (action == MotionEvent.ACTION_DOWN) {
-                if (y < notificationHeaderHeight) {
+                mNotificationHeaderHeight = Build.VERSION.SDK_INT > 16 ?
+                        XposedHelpers.getIntField(mPhoneStatusBar, "mNotificationHeaderHeight") :
+                            XposedHelpers.getIntField(mPhoneStatusBar, "mNotificationPanelMinHeight");
+                if (y < mNotificationHeaderHeight) {
                     mLinger = 0;
                     mInitialTouchX = x;
                     mInitialTouchY = y;
@@ -1275,17 +1282,16 @@ public class ModStatusBar {
                             BRIGHTNESS_CONTROL_LONG_PRESS_TIMEOUT);
                 }
             } else if (action == MotionEvent.ACTION_MOVE) {
-                if (y < notificationHeaderHeight && mJustPeeked) {
+                if (y < mNotificationHeaderHeight && mJustPeeked) {
                     if (mLinger > BRIGHTNESS_CONTROL_LINGER_THRESHOLD) {
                         adjustBrightness(x);
                     } else {
                         final int xDiff = Math.abs(x - mInitialTouchX);
                         final int yDiff = Math.abs(y - mInitialTouchY);
-                        final int touchSlop = ViewConfiguration.get(mContext).getScaledTouchSlop();
                         if (xDiff > yDiff) {
                             mLinger++;
                         }
-                        if (xDiff > touchSlop || yDiff > touchSlop) {
+                        if (xDiff > mTouchSlop || yDiff > mTouchSlop) {
                             handler.removeCallbacks(mLongPressBrightnessChange);
                         }
                     }
@@ -1298,6 +1304,10 @@ public class ModStatusBar {
             } else if (action == MotionEvent.ACTION_UP ||
                         action == MotionEvent.ACTION_CANCEL) {
                 handler.removeCallbacks(mLongPressBrightnessChange);
+                if (mBrightnessDragSession != null) {
+                    mBrightnessDragSession.finish();
+                    mBrightnessDragSession = null;
+                }
             }
         } catch (Throwable t) {
             XposedBridge.log(t);
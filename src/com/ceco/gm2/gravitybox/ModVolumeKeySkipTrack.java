@@ -24,6 +24,7 @@ import static de.robv.android.xposed.XposedHelpers.getObjectField;
 import static de.robv.android.xposed.XposedHelpers.setAdditionalInstanceField;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.SystemClock;
@@ -202,8 +203,8 @@ public class ModVolumeKeySkipTrack {
     }
 
     private static void updatePreference(final XSharedPreferences prefs) {
-        prefs.reload();
-        allowSkipTrack = prefs.getBoolean(GravityBoxSettings.PREF_KEY_VOL_MUSIC_CONTROLS, false);
+        final SharedPreferences currentPrefs = PrefsSnapshot.getPrefs(prefs);
+        allowSkipTrack = currentPrefs.getBoolean(GravityBoxSettings.PREF_KEY_VOL_MUSIC_CONTROLS, false);
         if (DEBUG) log("allowSkipTrack = " + allowSkipTrack);
     }
 }
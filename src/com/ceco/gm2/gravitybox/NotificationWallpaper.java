@@ -26,10 +26,14 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.util.DisplayMetrics;
 import android.view.Display;
 import android.view.ViewGroup;
 import android.view.ViewParent;
@@ -52,7 +56,111 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
     private String mColorMode;
     private float mAlpha;
     private Context mContext;
-    Bitmap mBitmapWallpaper = null;
+    // decoded wallpaper per orientation (0 = portrait, 1 = landscape)
+    private final DecodedWallpaper[] mWallpaperCache = new DecodedWallpaper[2];
+    private WallpaperDecodeTask mDecodeTask;
+
+    private static class DecodedWallpaper {
+        final String path;
+        final long lastModified;
+        final boolean centerCrop;
+        // image is shown centered without scaling so only its visible region is needed
+        final boolean regionOnly;
+        Bitmap bitmap;
+
+        DecodedWallpaper(File file, boolean centerCrop, boolean regionOnly) {
+            path = file.getAbsolutePath();
+            lastModified = file.lastModified();
+            this.centerCrop = centerCrop;
+            this.regionOnly = regionOnly;
+        }
+
+        boolean isSameSource(File file, boolean centerCrop) {
+            return (path.equals(file.getAbsolutePath()) &&
+                    lastModified == file.lastModified() &&
+                    this.centerCrop == centerCrop);
+        }
+    }
+
+    /**
+     * Decodes wallpaper off the main thread at the size it is going to be displayed at.
+     * Image shown centered without scaling (overlay mode) is decoded only in its visible region
+     * while image that gets center-cropped or stretched as panel background (underlay mode)
+     * is subsampled as much as possible while still covering the panel.
+     * Images without alpha channel are decoded to RGB_565.
+     */
+    private class WallpaperDecodeTask extends AsyncTask<Void, Void, DecodedWallpaper> {
+        private final int mSlot;
+        private final DecodedWallpaper mWallpaper;
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+
+        WallpaperDecodeTask(int slot, DecodedWallpaper wallpaper, int targetWidth, int targetHeight) {
+            mSlot = slot;
+            mWallpaper = wallpaper;
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+        }
+
+        boolean isDecoding(int slot, File file, boolean centerCrop) {
+            return (mSlot == slot && mWallpaper.isSameSource(file, centerCrop));
+        }
+
+        @Override
+        protected DecodedWallpaper doInBackground(Void... params) {
+            try {
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inJustDecodeBounds = true;
+                BitmapFactory.decodeFile(mWallpaper.path, opts);
+                final int width = opts.outWidth;
+                final int height = opts.outHeight;
+                if (width <= 0 || height <= 0 || isCancelled()) return null;
+
+                opts.inJustDecodeBounds = false;
+                if ("image/jpeg".equals(opts.outMimeType)) {
+                    opts.inPreferredConfig = Bitmap.Config.RGB_565;
+                    opts.inDither = true;
+                }
+
+                if (!mWallpaper.regionOnly) {
+                    int sampleSize = 1;
+                    while (width / (sampleSize * 2) >= mTargetWidth &&
+                            height / (sampleSize * 2) >= mTargetHeight) {
+                        sampleSize *= 2;
+                    }
+                    opts.inSampleSize = sampleSize;
+                    mWallpaper.bitmap = BitmapFactory.decodeFile(mWallpaper.path, opts);
+                } else if (width > mTargetWidth || height > mTargetHeight) {
+                    final int left = Math.max(0, (width - mTargetWidth) / 2);
+                    final int top = Math.max(0, (height - mTargetHeight) / 2);
+                    final Rect rect = new Rect(left, top,
+                            Math.min(width, left + mTargetWidth), Math.min(height, top + mTargetHeight));
+                    BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(mWallpaper.path, true);
+                    try {
+                        mWallpaper.bitmap = decoder.decodeRegion(rect, opts);
+                    } finally {
+                        decoder.recycle();
+                    }
+                } else {
+                    mWallpaper.bitmap = BitmapFactory.decodeFile(mWallpaper.path, opts);
+                }
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            }
+            return (mWallpaper.bitmap == null ? null : mWallpaper);
+        }
+
+        @Override
+        protected void onPostExecute(DecodedWallpaper result) {
+            if (mDecodeTask != this) return;
+
+            mDecodeTask = null;
+            if (result != null) {
+                mWallpaperCache[mSlot] = result;
+                updateNotificationWallpaper();
+            }
+        }
+    }
 
     public NotificationWallpaper(ViewGroup container, XSharedPreferences prefs) {
         super(container.getContext());
@@ -148,13 +256,6 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
     }
 
     private void updateNotificationWallpaper() {
-        if (mNotificationWallpaperImage != null) {
-            removeView(mNotificationWallpaperImage);
-            mNotificationWallpaperImage = null;
-        }
-
-        if (mBgType.equals(GravityBoxSettings.NOTIF_BG_DEFAULT)) return;
-
         boolean isLandscape = false;
         File file = new File(mNotifBgImagePathPortrait);
         File fileLandscape = new File(mNotifBgImagePathLandscape);
@@ -172,21 +273,28 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
         }
 
         Drawable d = null;
+        final boolean centerCrop = isLandscape && !fileLandscape.exists();
         if (mBgType.equals(GravityBoxSettings.NOTIF_BG_IMAGE) && file.exists()) {
-            
-            if (isLandscape && fileLandscape.exists()) {
-                mBitmapWallpaper = BitmapFactory.decodeFile(mNotifBgImagePathLandscape);
-            } else {
-                mBitmapWallpaper = BitmapFactory.decodeFile(mNotifBgImagePathPortrait);
-            }
-            if (mBitmapWallpaper != null) {
-                d = new BitmapDrawable(getResources(), mBitmapWallpaper);
+            final int slot = isLandscape ? 1 : 0;
+            final File imageFile = (isLandscape && fileLandscape.exists()) ? fileLandscape : file;
+            DecodedWallpaper wallpaper = mWallpaperCache[slot];
+            if (wallpaper == null || !wallpaper.isSameSource(imageFile, centerCrop)) {
+                // current view is kept until the image is decoded
+                mWallpaperCache[slot] = null;
+                decodeWallpaper(slot, imageFile, centerCrop, isLandscape);
+                return;
             }
+            d = new BitmapDrawable(getResources(), wallpaper.bitmap);
         } else if (mBgType.equals(GravityBoxSettings.NOTIF_BG_COLOR)) {
             d = new ColorDrawable();
             ((ColorDrawable)d).setColor(mColor);
         }
 
+        if (mNotificationWallpaperImage != null) {
+            removeView(mNotificationWallpaperImage);
+            mNotificationWallpaperImage = null;
+        }
+
         if (d != null) {
             d.setAlpha(mAlpha == 0 ? 255 : (int) ((1-mAlpha) * 255));
             if (mColorMode.equals(GravityBoxSettings.NOTIF_BG_COLOR_MODE_UNDERLAY)) {
@@ -196,8 +304,7 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
                 }
             } else if (mColorMode.equals(GravityBoxSettings.NOTIF_BG_COLOR_MODE_OVERLAY)) {
                 mNotificationWallpaperImage = new ImageView(getContext());
-                if (mBgType.equals(GravityBoxSettings.NOTIF_BG_IMAGE) &&
-                        isLandscape && !fileLandscape.exists()) {
+                if (mBgType.equals(GravityBoxSettings.NOTIF_BG_IMAGE) && centerCrop) {
                     mNotificationWallpaperImage.setScaleType(ScaleType.CENTER_CROP);
                 } else {
                     mNotificationWallpaperImage.setScaleType(ScaleType.CENTER);
@@ -208,12 +315,51 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
         }
     }
 
+    private void decodeWallpaper(int slot, File file, boolean centerCrop, boolean isLandscape) {
+        if (mDecodeTask != null) {
+            if (mDecodeTask.isDecoding(slot, file, centerCrop)) return;
+            mDecodeTask.cancel(false);
+        }
+
+        // use panel size if it's already laid out in requested orientation
+        DisplayMetrics dm = getResources().getDisplayMetrics();
+        int width = Math.max(dm.widthPixels, dm.heightPixels);
+        int height = Math.min(dm.widthPixels, dm.heightPixels);
+        if (!isLandscape) {
+            int tmp = width;
+            width = height;
+            height = tmp;
+        }
+        final int panelWidth = mNotificationPanelView.getWidth();
+        final int panelHeight = mNotificationPanelView.getHeight();
+        if (panelWidth > 0 && panelHeight > 0 && (panelWidth > panelHeight) == isLandscape) {
+            width = Math.min(width, panelWidth);
+            height = Math.min(height, panelHeight);
+        }
+
+        // underlay is set as panel background which stretches the image to panel size
+        final boolean regionOnly = !centerCrop &&
+                mColorMode.equals(GravityBoxSettings.NOTIF_BG_COLOR_MODE_OVERLAY);
+        mDecodeTask = new WallpaperDecodeTask(slot,
+                new DecodedWallpaper(file, centerCrop, regionOnly), width, height);
+        mDecodeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void invalidateWallpaperCache() {
+        if (mDecodeTask != null) {
+            mDecodeTask.cancel(false);
+            mDecodeTask = null;
+        }
+        mWallpaperCache[0] = null;
+        mWallpaperCache[1] = null;
+    }
+
     @Override
     protected void onDetachedFromWindow() {
-        if (mBitmapWallpaper != null)
-            mBitmapWallpaper.recycle();
-
-        System.gc();
+        if (mDecodeTask != null) {
+            mDecodeTask.cancel(false);
+            mDecodeTask = null;
+        }
         super.onDetachedFromWindow();
     }
 
@@ -238,6 +384,7 @@ class NotificationWallpaper extends FrameLayout implements BroadcastSubReceiver
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BG_COLOR_MODE)) {
                 setColorMode(intent.getStringExtra(GravityBoxSettings.EXTRA_BG_COLOR_MODE));
             }
+            invalidateWallpaperCache();
             updateNotificationPanelBackground();
         }
     }
@@ -20,7 +20,6 @@ import static de.robv.android.xposed.XposedHelpers.findField;
 import static de.robv.android.xposed.XposedHelpers.findClass;
 import static de.robv.android.xposed.XposedHelpers.findConstructorExact;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,7 +27,9 @@ import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Map;
@@ -42,10 +43,6 @@ import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
-import libcore.io.BufferIterator;
-import libcore.io.HeapBufferIterator;
-import libcore.io.Streams;
-
 @SuppressWarnings("unchecked")
 
 public class PatchMasterKey {
@@ -66,7 +63,6 @@ public class PatchMasterKey {
     private static Field fldModDate;
     private static Field fldNameLength;
     private static Field fldLocalHeaderRelOffset;
-    private static Field fldName;
     private static Field fldRaf;
     private static Field fldComment;
     private static Field fldEntries;
@@ -86,7 +82,6 @@ public class PatchMasterKey {
         } catch (Throwable t) {
             fldLocalHeaderRelOffset = findField(ZipEntry.class, "mLocalHeaderRelOffset");
         }
-        fldName = findField(ZipEntry.class, "name");
         try {
             fldRaf = findField(ZipFile.class, "mRaf");
         } catch (Throwable t) {
@@ -227,14 +222,15 @@ public class PatchMasterKey {
 
     private static void readCentralDir(ZipFile zipFile) throws IOException {
         try {
-            // Scan back, looking for the End Of Central Directory field. If the zip file doesn't
-            // have an overall comment (unrelated to any per-entry comments), we'll hit the EOCD
-            // on the first try.
+            // Map the tail of the archive and scan back in memory, looking for the End Of
+            // Central Directory field. If the zip file doesn't have an overall comment
+            // (unrelated to any per-entry comments), we'll hit the EOCD on the first try.
             // No need to synchronize raf here -- we only do this when we first open the zip file.
             RandomAccessFile raf = (RandomAccessFile) fldRaf.get(zipFile);
-            long scanOffset = raf.length() - ENDHDR;
+            final long fileLength = raf.length();
+            long scanOffset = fileLength - ENDHDR;
             if (scanOffset < 0) {
-                throw new ZipException("File too short to be a zip file: " + raf.length());
+                throw new ZipException("File too short to be a zip file: " + fileLength);
             }
 
             raf.seek(0);
@@ -242,60 +238,78 @@ public class PatchMasterKey {
             if (headerMagic != LOCSIG) {
                 throw new ZipException("Not a zip archive");
             }
-    
+
             long stopOffset = scanOffset - 65536;
             if (stopOffset < 0) {
                 stopOffset = 0;
             }
-    
-            while (true) {
-                raf.seek(scanOffset);
-                if (Integer.reverseBytes(raf.readInt()) == ENDSIG) {
-                    break;
-                }
-    
-                scanOffset--;
-                if (scanOffset < stopOffset) {
+
+            FileChannel channel = raf.getChannel();
+            ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, stopOffset, fileLength - stopOffset);
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+
+            int eocdPos = (int) (scanOffset - stopOffset);
+            while (tail.getInt(eocdPos) != ENDSIG) {
+                if (--eocdPos < 0) {
                     throw new ZipException("End Of Central Directory signature not found");
                 }
             }
-    
-            // Read the End Of Central Directory. ENDHDR includes the signature bytes,
-            // which we've already read.
-            byte[] eocd = new byte[ENDHDR - 4];
-            raf.readFully(eocd);
-    
-            // Pull out the information we need.
-            BufferIterator it = HeapBufferIterator.iterator(eocd, 0, eocd.length, ByteOrder.LITTLE_ENDIAN);
-            int diskNumber = it.readShort() & 0xffff;
-            int diskWithCentralDir = it.readShort() & 0xffff;
-            int numEntries = it.readShort() & 0xffff;
-            int totalNumEntries = it.readShort() & 0xffff;
-            it.skip(4); // Ignore centralDirSize.
-            long centralDirOffset = ((long) it.readInt()) & 0xffffffffL;
-            int commentLength = it.readShort() & 0xffff;
-    
+            final long eocdOffset = stopOffset + eocdPos;
+
+            // Pull out the information we need from the End Of Central Directory.
+            tail.position(eocdPos + 4);
+            int diskNumber = tail.getShort() & 0xffff;
+            int diskWithCentralDir = tail.getShort() & 0xffff;
+            int numEntries = tail.getShort() & 0xffff;
+            int totalNumEntries = tail.getShort() & 0xffff;
+            tail.getInt(); // Ignore centralDirSize.
+            long centralDirOffset = ((long) tail.getInt()) & 0xffffffffL;
+            int commentLength = tail.getShort() & 0xffff;
+
             if (numEntries != totalNumEntries || diskNumber != 0 || diskWithCentralDir != 0) {
                 throw new ZipException("spanned archives not supported");
             }
 
             if (commentLength > 0) {
+                if (commentLength > tail.remaining()) {
+                    throw new ZipException("Truncated End Of Central Directory comment");
+                }
                 byte[] commentBytes = new byte[commentLength];
-                raf.readFully(commentBytes);
+                tail.get(commentBytes);
                 if (fldComment != null)
                     fldComment.set(zipFile, new String(commentBytes, 0, commentBytes.length, UTF_8));
             }
 
-            // Seek to the first CDE and read all entries.
+            if (centralDirOffset > eocdOffset) {
+                throw new ZipException("Central directory offset is after End Of Central Directory");
+            }
+
+            // Read all entries straight from the mapped central directory. The central directory
+            // always precedes the EOCD so we reuse the tail mapping whenever it covers it.
             // We have to do this now (from the constructor) rather than lazily because the
             // public API doesn't allow us to throw IOException except from the constructor
             // or from getInputStream.
-            InputStream rafStream = newRAFStream.newInstance(raf, centralDirOffset);
-            BufferedInputStream bufferedStream = new BufferedInputStream(rafStream, 4096);
-            byte[] hdrBuf = new byte[CENHDR]; // Reuse the same buffer for each entry.
+            ByteBuffer cd;
+            if (centralDirOffset >= stopOffset) {
+                tail.position((int) (centralDirOffset - stopOffset));
+                tail.limit(eocdPos);
+                cd = tail;
+            } else {
+                cd = channel.map(FileChannel.MapMode.READ_ONLY, centralDirOffset, eocdOffset - centralDirOffset);
+                cd.order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            byte[] nameBuf = new byte[256]; // Reuse the same buffer for each entry name.
             Map<String, ZipEntry> mEntries = (Map<String, ZipEntry>) fldEntries.get(zipFile);
             for (int i = 0; i < numEntries; ++i) {
-                ZipEntry newEntry = loadFromStream(hdrBuf, bufferedStream);
+                if (cd.remaining() < CENHDR) {
+                    throw new ZipException("Truncated Central Directory Entry");
+                }
+                final int nameLength = cd.getShort(cd.position() + 28) & 0xffff;
+                if (nameLength > nameBuf.length) {
+                    nameBuf = new byte[nameLength];
+                }
+                ZipEntry newEntry = loadFromBuffer(nameBuf, cd);
                 if (fldLocalHeaderRelOffset.getLong(newEntry) >= centralDirOffset) {
                     throw new ZipException("Local file header offset is after central directory");
                 }
@@ -304,15 +318,6 @@ public class PatchMasterKey {
                     throw new ZipException("Duplicate entry name: " + entryName);
                 }
             }
-        } catch (InvocationTargetException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof IOException)
-                throw (IOException) cause;
-            if (cause instanceof RuntimeException)
-                throw (RuntimeException) cause;
-            throw new Error(cause);
-        } catch (InstantiationException e) {
-            throw new Error(e);
         } catch (IllegalAccessException e) {
             throw new IllegalAccessError(e.getMessage());
         }
@@ -323,73 +328,50 @@ public class PatchMasterKey {
         throw new ZipException(msg + " signature not found; was " + hexString);
     }
 
-    private static ZipEntry loadFromStream(byte[] cdeHdrBuf, BufferedInputStream cdStream) throws IOException {
+    private static ZipEntry loadFromBuffer(byte[] nameBuf, ByteBuffer cd) throws IOException {
         try {
-            ZipEntry result = new ZipEntry("");
-
-            Streams.readFully(cdStream, cdeHdrBuf, 0, cdeHdrBuf.length);
-
-            BufferIterator it = HeapBufferIterator.iterator(cdeHdrBuf, 0, cdeHdrBuf.length,
-                ByteOrder.LITTLE_ENDIAN);
+            final int start = cd.position();
 
-            int sig = it.readInt();
+            int sig = cd.getInt(start);
             if (sig != CENSIG) {
                 throwZipException("Central Directory Entry", sig);
             }
 
-            it.seek(8);
-            int gpbf = it.readShort() & 0xffff;
-
+            int gpbf = cd.getShort(start + 8) & 0xffff;
             if ((gpbf & GPBF_UNSUPPORTED_MASK) != 0) {
                 throw new ZipException("Invalid General Purpose Bit Flag: " + gpbf);
             }
 
-            int compressionMethod;
-            compressionMethod = it.readShort() & 0xffff;
-            fldCompressionMethod.setInt(result, compressionMethod);
-            int time;
-            time = it.readShort() & 0xffff;
-            fldTime.setInt(result, time);
-            int modDate;
-            modDate = it.readShort() & 0xffff;
-            fldModDate.setInt(result, modDate);
+            int nameLength = cd.getShort(start + 28) & 0xffff;
+            int extraLength = cd.getShort(start + 30) & 0xffff;
+            int commentByteCount = cd.getShort(start + 32) & 0xffff;
+            if (cd.remaining() < CENHDR + nameLength + extraLength + commentByteCount) {
+                throw new ZipException("Truncated Central Directory Entry");
+            }
 
-            // These are 32-bit values in the file, but 64-bit fields in this object.
-            long crc;
-            crc = ((long) it.readInt()) & 0xffffffffL;
-            result.setCrc(crc);
-            long compressedSize;
-            compressedSize = ((long) it.readInt()) & 0xffffffffL;
-            result.setCompressedSize(compressedSize);
-            long size;
-            size = ((long) it.readInt()) & 0xffffffffL;
-            result.setSize(size);
-
-            int nameLength;
-            nameLength = it.readShort() & 0xffff;
-            fldNameLength.setInt(result, nameLength);
-            int extraLength = it.readShort() & 0xffff;
-            int commentByteCount = it.readShort() & 0xffff;
-
-            // This is a 32-bit value in the file, but a 64-bit field in this object.
-            it.seek(42);
-            long localHeaderRelOffset;
-            localHeaderRelOffset = ((long) it.readInt()) & 0xffffffffL;
-            fldLocalHeaderRelOffset.setLong(result, localHeaderRelOffset);
-
-            byte[] nameBytes = new byte[nameLength];
-            Streams.readFully(cdStream, nameBytes, 0, nameBytes.length);
-            if (containsNulByte(nameBytes)) {
-                throw new ZipException("Filename contains NUL byte: " + Arrays.toString(nameBytes));
+            // The name is needed before the entry exists, decode it from the shared buffer.
+            cd.position(start + CENHDR);
+            cd.get(nameBuf, 0, nameLength);
+            if (containsNulByte(nameBuf, nameLength)) {
+                throw new ZipException("Filename contains NUL byte: " +
+                        Arrays.toString(Arrays.copyOf(nameBuf, nameLength)));
             }
-            String name;
-            name = new String(nameBytes, 0, nameBytes.length, UTF_8);
-            fldName.set(result, name);
+            ZipEntry result = new ZipEntry(new String(nameBuf, 0, nameLength, UTF_8));
+            fldNameLength.setInt(result, nameLength);
+
+            fldCompressionMethod.setInt(result, cd.getShort(start + 10) & 0xffff);
+            fldTime.setInt(result, cd.getShort(start + 12) & 0xffff);
+            fldModDate.setInt(result, cd.getShort(start + 14) & 0xffff);
+
+            // These are 32-bit values in the file, but 64-bit fields in this object.
+            result.setCrc(((long) cd.getInt(start + 16)) & 0xffffffffL);
+            result.setCompressedSize(((long) cd.getInt(start + 20)) & 0xffffffffL);
+            result.setSize(((long) cd.getInt(start + 24)) & 0xffffffffL);
+            fldLocalHeaderRelOffset.setLong(result, ((long) cd.getInt(start + 42)) & 0xffffffffL);
 
             if (extraLength > 0) {
-                byte[] extra;
-                extra = new byte[extraLength];
-                Streams.readFully(cdStream, extra, 0, extraLength);
+                byte[] extra = new byte[extraLength];
+                cd.get(extra);
                 result.setExtra(extra);
             }
 
@@ -397,10 +379,8 @@ public class PatchMasterKey {
             // actually IBM-437.)
             if (commentByteCount > 0) {
                 byte[] commentBytes = new byte[commentByteCount];
-                Streams.readFully(cdStream, commentBytes, 0, commentByteCount);
-                String comment;
-                comment = new String(commentBytes, 0, commentBytes.length, UTF_8);
-                result.setComment(comment);
+                cd.get(commentBytes);
+                result.setComment(new String(commentBytes, 0, commentBytes.length, UTF_8));
             }
 
             return result;
@@ -409,12 +389,12 @@ public class PatchMasterKey {
         }
     }
 
-    private static boolean containsNulByte(byte[] bytes) {
-        for (byte b : bytes) {
-            if (b == 0) {
+    private static boolean containsNulByte(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == 0) {
                 return true;
             }
         }
         return false;
     }
-}
\ No newline at end of file
+}
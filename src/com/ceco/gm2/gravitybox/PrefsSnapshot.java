@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import de.robv.android.xposed.XSharedPreferences;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Binary snapshot of GravityBox main preferences published by the settings app and memory mapped
+ * read-only by hooked processes so they don't have to re-parse the preferences XML on every
+ * XSharedPreferences.reload(). The snapshot is re-decoded only when its generation counter changes.
+ *
+ * File layout: magic, version, generation, checksum, data length (ints), padding (int),
+ * modification time of preferences XML the snapshot corresponds to (long) followed by entry count
+ * and entries. The file is rewritten in place and never shrinks; generation is odd while the data
+ * is being written (seqlock) or when the snapshot has been invalidated. Mapped buffer accesses give
+ * no ordering guarantees across processes so readers copy the data out, re-check generation and
+ * verify CRC32 of everything from data length to the end of entries.
+ *
+ * Each generation is used only if the preferences XML modification time matched when it was loaded
+ * so that preferences written by other means than the publisher are never shadowed by a stale
+ * snapshot. The publisher republishes whenever the preferences XML has been written.
+ */
+public class PrefsSnapshot implements SharedPreferences {
+    private static final String TAG = "GB:PrefsSnapshot";
+    private static final boolean DEBUG = false;
+
+    private static final String SNAPSHOT_DIR = "prefs_snapshot";
+    private static final String SNAPSHOT_FILE = "main.bin";
+    private static final String SNAPSHOT_PATH = "/data/data/" + GravityBox.PACKAGE_NAME +
+            "/files/" + SNAPSHOT_DIR + "/" + SNAPSHOT_FILE;
+    private static final String PREFS_PATH = "/data/data/" + GravityBox.PACKAGE_NAME +
+            "/shared_prefs/" + GravityBox.PACKAGE_NAME + "_preferences.xml";
+
+    private static final int MAGIC = 0x47425053; // GBPS
+    private static final int VERSION = 3;
+    private static final int OFFSET_GENERATION = 8;
+    private static final int OFFSET_CHECKSUM = 12;
+    // checksum covers everything from here to the end of data
+    private static final int OFFSET_DATA_LENGTH = 16;
+    private static final int OFFSET_PREFS_MODIFIED = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int CAPACITY_STEP = 65536;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final long OPEN_RETRY_INTERVAL = 10000;
+    private static final long PUBLISH_DELAY = 200;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static PrefsSnapshot sInstance;
+    private static long sLastOpenAttempt;
+
+    private MappedByteBuffer mBuffer;
+    private int mGeneration = -1;
+    // whether current generation matched preferences XML when loaded
+    private boolean mUpToDate;
+    private volatile Map<String, Object> mValues = Collections.emptyMap();
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    /**
+     * Returns preferences to read values from: up-to-date snapshot when available
+     * or reloaded fallback preferences otherwise.
+     * Snapshot is used only when fallback refers to GravityBox main preferences.
+     */
+    public static SharedPreferences getPrefs(XSharedPreferences fallback) {
+        if (PREFS_PATH.equals(fallback.getFile().getPath())) {
+            PrefsSnapshot snapshot = getInstance();
+            if (snapshot != null && snapshot.refresh()) {
+                return snapshot;
+            }
+            // snapshot is not available, invalidated or preferences XML has been written
+            // since the snapshot was published
+            if (DEBUG && snapshot != null) log("Snapshot out of date; falling back to preferences XML");
+        }
+        fallback.reload();
+        return fallback;
+    }
+
+    private static synchronized PrefsSnapshot getInstance() {
+        if (sInstance == null) {
+            final long now = SystemClock.elapsedRealtime();
+            if (sLastOpenAttempt != 0 && now - sLastOpenAttempt < OPEN_RETRY_INTERVAL) {
+                return null;
+            }
+            sLastOpenAttempt = now;
+            File f = new File(SNAPSHOT_PATH);
+            if (f.canRead()) {
+                sInstance = new PrefsSnapshot();
+            }
+        }
+        return sInstance;
+    }
+
+    private PrefsSnapshot() { }
+
+    private boolean map(int minLength) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(SNAPSHOT_PATH, "r");
+            final long length = raf.length();
+            if (length < Math.max(HEADER_SIZE, minLength)) return false;
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+                if (DEBUG) log("Unsupported snapshot format");
+                mBuffer = null;
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            if (DEBUG) log("Error mapping snapshot: " + e.getMessage());
+            mBuffer = null;
+            return false;
+        } finally {
+            if (raf != null) {
+                try { raf.close(); } catch (IOException e) { }
+            }
+        }
+    }
+
+    /**
+     * Makes sure decoded values reflect current generation of the snapshot.
+     * @return false if snapshot is not usable
+     */
+    private synchronized boolean refresh() {
+        if (mBuffer == null && !map(HEADER_SIZE)) return false;
+
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            final int generation = mBuffer.getInt(OFFSET_GENERATION);
+            if (generation == mGeneration) return mUpToDate;
+            if ((generation & 1) != 0) {
+                // being written or invalidated
+                Thread.yield();
+                continue;
+            }
+
+            final int dataLength = mBuffer.getInt(OFFSET_DATA_LENGTH);
+            if (dataLength < 4) return false;
+            if (HEADER_SIZE + dataLength > mBuffer.capacity()) {
+                // file has grown since mapped
+                if (!map(HEADER_SIZE + dataLength)) return false;
+                continue;
+            }
+
+            // copy out and validate the copy; only then it's safe to decode
+            byte[] block = new byte[HEADER_SIZE - OFFSET_DATA_LENGTH + dataLength];
+            ByteBuffer src = mBuffer.duplicate();
+            src.position(OFFSET_DATA_LENGTH);
+            src.get(block);
+            final int checksum = mBuffer.getInt(OFFSET_CHECKSUM);
+            if (mBuffer.getInt(OFFSET_GENERATION) != generation) continue;
+            CRC32 crc = new CRC32();
+            crc.update(block);
+            if ((int) crc.getValue() != checksum) {
+                // torn read
+                continue;
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(block);
+            if (buf.getInt(0) != dataLength) continue;
+            final long prefsModified = buf.getLong(OFFSET_PREFS_MODIFIED - OFFSET_DATA_LENGTH);
+            Map<String, Object> values;
+            try {
+                buf.position(HEADER_SIZE - OFFSET_DATA_LENGTH);
+                values = decode(buf, dataLength);
+            } catch (RuntimeException e) {
+                if (DEBUG) log("Error decoding snapshot: " + e.getMessage());
+                return false;
+            }
+            mValues = values;
+            mGeneration = generation;
+            mUpToDate = (prefsModified == new File(PREFS_PATH).lastModified());
+            if (DEBUG) log("Snapshot generation " + generation + " loaded: " + values.size() +
+                    " entries; up to date: " + mUpToDate);
+            return mUpToDate;
+        }
+        return false;
+    }
+
+    private static Map<String, Object> decode(ByteBuffer buf, int dataLength) {
+        final int count = buf.getInt();
+        if (count < 0 || count > dataLength) {
+            throw new IllegalStateException("Invalid entry count: " + count);
+        }
+        Map<String, Object> values = new HashMap<String, Object>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            final String key = readString(buf);
+            final byte type = buf.get();
+            switch (type) {
+                case TYPE_BOOLEAN: values.put(key, buf.get() != 0); break;
+                case TYPE_INT: values.put(key, buf.getInt()); break;
+                case TYPE_LONG: values.put(key, buf.getLong()); break;
+                case TYPE_FLOAT: values.put(key, buf.getFloat()); break;
+                case TYPE_STRING: values.put(key, readString(buf)); break;
+                case TYPE_STRING_SET:
+                    final int size = buf.getInt();
+                    Set<String> set = new HashSet<String>(size * 4 / 3 + 1);
+                    for (int j = 0; j < size; j++) {
+                        set.add(readString(buf));
+                    }
+                    values.put(key, Collections.unmodifiableSet(set));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown value type: " + type);
+            }
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        final int length = buf.getInt();
+        if (length < 0) return null;
+        if (length > buf.remaining()) {
+            throw new IllegalStateException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return Collections.unmodifiableMap(mValues);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String v = (String) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> v = (Set<String>) mValues.get(key);
+        return v != null ? v : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer v = (Integer) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long v = (Long) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float v = (Float) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean v = (Boolean) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        throw new UnsupportedOperationException("read-only implementation");
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException("listeners are not supported in this implementation");
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException("listeners are not supported in this implementation");
+    }
+
+    /**
+     * Publishing side running in GravityBox settings process.
+     * Keeps the snapshot in sync with preferences as long as the process lives.
+     */
+    public static final class Publisher {
+        private static Publisher sPublisher;
+
+        private final File mFile;
+        private final File mPrefsFile;
+        private final SharedPreferences mPrefs;
+        private final Handler mHandler;
+        private final FileObserver mPrefsObserver;
+        // preferences held in memory by this publisher are no longer valid
+        private boolean mInvalidated;
+
+        public static synchronized void start(Context context, SharedPreferences prefs) {
+            if (sPublisher == null) {
+                sPublisher = new Publisher(context, prefs);
+                sPublisher.mPrefsObserver.startWatching();
+            }
+            sPublisher.schedulePublish(0);
+        }
+
+        /**
+         * Marks the snapshot as invalid so hooked processes fall back to preferences XML
+         * until the snapshot gets published again by a new instance of settings process.
+         */
+        public static synchronized void invalidate(Context context) {
+            if (sPublisher != null) {
+                sPublisher.mInvalidated = true;
+                sPublisher.mHandler.removeCallbacks(sPublisher.mPublishRunnable);
+            }
+            File f = getFile(context);
+            if (!f.exists()) return;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(f, "rw");
+                if (raf.length() < HEADER_SIZE) return;
+                MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                buf.putInt(OFFSET_GENERATION, buf.getInt(OFFSET_GENERATION) | 1);
+            } catch (IOException e) {
+                log("Error invalidating snapshot: " + e.getMessage());
+            } finally {
+                if (raf != null) {
+                    try { raf.close(); } catch (IOException e) { }
+                }
+            }
+        }
+
+        private static File getFile(Context context) {
+            return new File(context.getFilesDir() + "/" + SNAPSHOT_DIR + "/" + SNAPSHOT_FILE);
+        }
+
+        private Publisher(Context context, SharedPreferences prefs) {
+            mFile = getFile(context);
+            mPrefsFile = new File(context.getFilesDir().getParentFile(), "shared_prefs/" +
+                    context.getPackageName() + "_preferences.xml");
+            mPrefs = prefs;
+
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+
+            // preferences are written to XML asynchronously by apply(); publish once the write
+            // completed so that the snapshot records final modification time of the XML
+            mPrefsObserver = new FileObserver(mPrefsFile.getParent(),
+                    FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+                @Override
+                public void onEvent(int event, String path) {
+                    if (mPrefsFile.getName().equals(path)) {
+                        schedulePublish(PUBLISH_DELAY);
+                    }
+                }
+            };
+
+            File dir = mFile.getParentFile();
+            if (dir.mkdirs()) {
+                dir.getParentFile().setExecutable(true, false);
+                dir.setExecutable(true, false);
+                dir.setReadable(true, false);
+            }
+        }
+
+        private void schedulePublish(long delay) {
+            // coalesce bursts of writes into single publish
+            mHandler.removeCallbacks(mPublishRunnable);
+            mHandler.postDelayed(mPublishRunnable, delay);
+        }
+
+        private Runnable mPublishRunnable = new Runnable() {
+            @Override
+            public void run() {
+                publish();
+            }
+        };
+
+        private void publish() {
+            // invalidation must not be overwritten by publish in progress
+            synchronized (Publisher.class) {
+                if (mInvalidated) return;
+                writeSnapshot();
+            }
+        }
+
+        private void writeSnapshot() {
+            RandomAccessFile raf = null;
+            try {
+                // read modification time first; values in memory are never older than the XML
+                final long prefsModified = mPrefsFile.lastModified();
+                final byte[] data = encode(mPrefs.getAll());
+                ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE - OFFSET_DATA_LENGTH + data.length);
+                block.putInt(data.length);
+                block.putInt(0);
+                block.putLong(prefsModified);
+                block.put(data);
+                CRC32 crc = new CRC32();
+                crc.update(block.array());
+
+                raf = new RandomAccessFile(mFile, "rw");
+                final long length = raf.length();
+                final int required = HEADER_SIZE + data.length;
+                final long capacity = required > length ?
+                        ((required / CAPACITY_STEP) + 1) * CAPACITY_STEP : length;
+                if (capacity > length) {
+                    raf.setLength(capacity);
+                }
+                MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                final int generation = length >= HEADER_SIZE && buf.getInt(0) == MAGIC ?
+                        buf.getInt(OFFSET_GENERATION) : 0;
+                buf.putInt(OFFSET_GENERATION, generation | 1);
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, VERSION);
+                buf.position(OFFSET_DATA_LENGTH);
+                buf.put(block.array());
+                buf.putInt(OFFSET_CHECKSUM, (int) crc.getValue());
+                // shared mapping makes the data visible to readers without msync
+                buf.putInt(OFFSET_GENERATION, (generation | 1) + 1);
+                mFile.setReadable(true, false);
+                if (DEBUG) log("Snapshot published: generation=" + ((generation | 1) + 1) +
+                        "; size=" + data.length);
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            } finally {
+                if (raf != null) {
+                    try { raf.close(); } catch (IOException e) { }
+                }
+            }
+        }
+
+        private static byte[] encode(Map<String, ?> values) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(16384);
+            DataOutputStream out = new DataOutputStream(bos);
+            int count = 0;
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                if (entry.getValue() != null) count++;
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                final Object value = entry.getValue();
+                if (value == null) continue;
+                writeString(out, entry.getKey());
+                if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(TYPE_FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, (String) value);
+                } else if (value instanceof Set) {
+                    Set<?> set = (Set<?>) value;
+                    out.writeByte(TYPE_STRING_SET);
+                    out.writeInt(set.size());
+                    for (Object s : set) {
+                        writeString(out, (String) s);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unsupported value type for key " + entry.getKey());
+                }
+            }
+            out.flush();
+            return bos.toByteArray();
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.app.Notification;
+import android.widget.RemoteViews;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Extracts texts and progress values from notification RemoteViews by reading
+ * ReflectionAction fields directly. Results are memoized per Notification instance.
+ */
+public class RemoteViewsDecoder {
+    private static final String TAG = "GB:RemoteViewsDecoder";
+    private static final boolean DEBUG = false;
+
+    private static final String CLASS_REFLECTION_ACTION = "android.widget.RemoteViews$ReflectionAction";
+    private static final String KEY_DECODED_ACTIONS = "gbDecodedActions";
+
+    private static Class<?> sReflectionActionClass;
+    private static boolean sReflectionActionResolved;
+
+    public static final class DecodedActions {
+        private final RemoteViews mViews;
+        public final List<String> texts;
+        public final boolean hasProgressBar;
+        public final int progress;
+        public final int max;
+
+        private DecodedActions(RemoteViews views, List<String> texts,
+                boolean hasProgressBar, int progress, int max) {
+            mViews = views;
+            this.texts = texts;
+            this.hasProgressBar = hasProgressBar;
+            this.progress = progress;
+            this.max = max;
+        }
+
+        public float getProgressFraction() {
+            return (max > 0 ? ((float)progress/(float)max) : 0f);
+        }
+    }
+
+    private static final DecodedActions EMPTY = new DecodedActions(null,
+            Collections.<String>emptyList(), false, 0, 0);
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    private static synchronized Class<?> getReflectionActionClass() {
+        if (!sReflectionActionResolved) {
+            try {
+                sReflectionActionClass = XposedHelpers.findClass(CLASS_REFLECTION_ACTION, null);
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            }
+            sReflectionActionResolved = true;
+        }
+        return sReflectionActionClass;
+    }
+
+    public static DecodedActions decode(Notification n) {
+        if (n == null) return EMPTY;
+
+        // We have to extract the information from the content view
+        RemoteViews views = n.bigContentView;
+        if (views == null) views = n.contentView;
+        if (views == null) return EMPTY;
+
+        DecodedActions cached = (DecodedActions) XposedHelpers.getAdditionalInstanceField(
+                n, KEY_DECODED_ACTIONS);
+        if (cached != null && cached.mViews == views) {
+            return cached;
+        }
+
+        DecodedActions decoded = decode(views);
+        XposedHelpers.setAdditionalInstanceField(n, KEY_DECODED_ACTIONS, decoded);
+        return decoded;
+    }
+
+    private static DecodedActions decode(RemoteViews views) {
+        final Class<?> raClass = getReflectionActionClass();
+        if (raClass == null) return EMPTY;
+
+        List<String> texts = new ArrayList<String>();
+        boolean hasProgressBar = false;
+        int progress = 0;
+        int max = 0;
+
+        try {
+            List<?> actions = (List<?>) XposedHelpers.getObjectField(views, "mActions");
+            if (actions != null) {
+                for (Object action : actions) {
+                    if (!raClass.isInstance(action)) continue;
+
+                    final String methodName = (String) XposedHelpers.getObjectField(action, "methodName");
+                    final Object value = XposedHelpers.getObjectField(action, "value");
+                    if ("setText".equals(methodName)) {
+                        if (value instanceof CharSequence) {
+                            texts.add(value.toString().trim());
+                        }
+                    } else if ("setMax".equals(methodName)) {
+                        if (value instanceof Integer) {
+                            max = (Integer) value;
+                        }
+                    } else if ("setProgress".equals(methodName)) {
+                        if (value instanceof Integer) {
+                            progress = (Integer) value;
+                            hasProgressBar = true;
+                        }
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+
+        if (DEBUG) log("decode: texts=" + texts + "; hasProgressBar=" + hasProgressBar +
+                "; progress=" + progress + "; max=" + max);
+
+        return new DecodedActions(views, Collections.unmodifiableList(texts),
+                hasProgressBar, progress, max);
+    }
+}
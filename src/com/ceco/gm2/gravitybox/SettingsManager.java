@@ -102,7 +102,7 @@ public class SettingsManager {
         File[] fileList = mContext.getFilesDir().listFiles();
         if (fileList != null) {
             for (File f : fileList) {
-                if (f.isFile() && !f.getName().equals("kis_image.png")) {
+                if (f.isFile() && !f.getName().startsWith(KeyguardImageService.KIS_IMAGE_FILE)) {
                     File outFile = new File(targetFilesDirPath + "/" + f.getName());
                     try {
                         Utils.copyFile(f, outFile);
@@ -163,6 +163,9 @@ public class SettingsManager {
         // Save existing UUID
         String uuid = getOrCreateUuid();
 
+        // hooked processes must not use snapshot of preferences that are about to be replaced
+        PrefsSnapshot.Publisher.invalidate(mContext);
+
         // preferences
         String[] prefsFileNames = new String[] { 
                 mContext.getPackageName() + "_preferences.xml",
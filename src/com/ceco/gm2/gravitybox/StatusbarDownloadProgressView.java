@@ -34,14 +34,11 @@ import android.content.Intent;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Parcel;
-import android.os.Parcelable;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
-import android.widget.RemoteViews;
 
 public class StatusbarDownloadProgressView extends View implements IconManagerListener, BroadcastSubReceiver {
     private static final String TAG = "GB:StatusbarDownloadProgressView";
@@ -58,22 +55,6 @@ public class StatusbarDownloadProgressView extends View implements IconManagerLi
         void onProgressTrackingStopped();
     }
 
-    class ProgressInfo {
-        boolean hasProgressBar;
-        int progress;
-        int max;
-
-        public ProgressInfo(boolean hasProgressBar, int progress, int max) {
-            this.hasProgressBar = hasProgressBar;
-            this.progress = progress;
-            this.max = max;
-        }
-
-        public float getFraction() {
-            return (max > 0 ? ((float)progress/(float)max) : 0f);
-        }
-    }
-
     public enum Mode { OFF, TOP, BOTTOM };
     private Mode mMode;
     private String mId;
@@ -219,7 +200,7 @@ public class StatusbarDownloadProgressView extends View implements IconManagerLi
         Notification n = (Notification) XposedHelpers.getObjectField(statusBarNotif, "notification");
         return (n != null && 
                (SUPPORTED_PACKAGES.contains(pkgName) || hasUncProgressTracking(n)) &&
-                getProgressInfo(n).hasProgressBar);
+                RemoteViewsDecoder.decode(n).hasProgressBar);
     }
 
     private boolean hasUncProgressTracking(Notification n) {
@@ -229,7 +210,7 @@ public class StatusbarDownloadProgressView extends View implements IconManagerLi
     }
 
     private String getIdentifier(Object statusBarNotif) {
-        if (statusBarNotif == null) return null;
+        if (statusBarNotif == null) return null;
         String pkgName = (String) XposedHelpers.getObjectField(statusBarNotif, "pkg");
         if (Build.VERSION.SDK_INT > 17 && SUPPORTED_PACKAGES.get(0).equals(pkgName)) {
             String tag = (String) XposedHelpers.getObjectField(statusBarNotif, "tag");
@@ -248,7 +229,7 @@ public class StatusbarDownloadProgressView extends View implements IconManagerLi
         int newWidth = 0;
         if (statusBarNotif != null) {
             Notification n = (Notification) XposedHelpers.getObjectField(statusBarNotif, "notification");
-            newWidth = (int) ((float)maxWidth * getProgressInfo(n).getFraction());
+            newWidth = (int) ((float)maxWidth * RemoteViewsDecoder.decode(n).getProgressFraction());
         }
         if (DEBUG) log("updateProgress: maxWidth=" + maxWidth + "; newWidth=" + newWidth);
         ViewGroup.LayoutParams lp = (ViewGroup.LayoutParams) getLayoutParams();
@@ -257,55 +238,6 @@ public class StatusbarDownloadProgressView extends View implements IconManagerLi
         setVisibility(newWidth > 0 ? View.VISIBLE : View.GONE);
     }
 
-    private ProgressInfo getProgressInfo(Notification n) {
-        ProgressInfo pInfo = new ProgressInfo(false, 0, 0);
-        if (n == null) return pInfo;
-
-        // We have to extract the information from the content view
-        RemoteViews views = n.bigContentView;
-        if (views == null) views = n.contentView;
-        if (views == null) return pInfo;
-
-        try {
-            @SuppressWarnings("unchecked")
-            ArrayList<Parcelable> actions = (ArrayList<Parcelable>) 
-                XposedHelpers.getObjectField(views, "mActions");
-            if (actions == null) return pInfo;
-
-            for (Parcelable p : actions) {
-                Parcel parcel = Parcel.obtain();
-                p.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
-
-                // The tag tells which type of action it is (2 is ReflectionAction)
-                int tag = parcel.readInt();
-                if (tag != 2)  {
-                    parcel.recycle();
-                    continue;
-                }
-
-                parcel.readInt(); // skip View ID
-                String methodName = parcel.readString();
-                if ("setMax".equals(methodName)) {
-                    parcel.readInt(); // skip type value
-                    pInfo.max = parcel.readInt();
-                    if (DEBUG) log("getProgressInfo: total=" + pInfo.max);
-                } else if ("setProgress".equals(methodName)) {
-                    parcel.readInt(); // skip type value
-                    pInfo.progress = parcel.readInt();
-                    pInfo.hasProgressBar = true;
-                    if (DEBUG) log("getProgressInfo: current=" + pInfo.progress);
-                }
-
-                parcel.recycle();
-            }
-        } catch (Throwable  t) {
-            XposedBridge.log(t);
-        }
-
-        return pInfo;
-    }
-
     private void updatePosition() {
         if (mMode == Mode.OFF) return;
         FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) getLayoutParams();
@@ -15,11 +15,15 @@
 
 package com.ceco.gm2.gravitybox;
 
+import java.io.IOException;
+
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -36,19 +40,85 @@ public class TorchService extends Service {
     private static final String TAG = "GB:TorchService";
 
     public static final String ACTION_TOGGLE_TORCH = "gravitybox.intent.action.TOGGLE_TORCH";
+    public static final String ACTION_TOGGLE_STROBE = "gravitybox.intent.action.TOGGLE_TORCH_STROBE";
     public static final String ACTION_TORCH_STATUS_CHANGED = "gravitybox.intent.action.TORCH_STATUS_CHANGED";
     public static final String EXTRA_TORCH_STATUS = "torchStatus";
+    public static final String EXTRA_STROBE_PATTERN = "strobePattern";
     public static final int TORCH_STATUS_OFF = 0;
     public static final int TORCH_STATUS_ON = 1;
     public static final int TORCH_STATUS_ERROR = -1;
 
-    private Camera mCamera;
+    // alternating on/off durations in milliseconds repeated until strobe is toggled off
+    public static final long[] STROBE_PATTERN_DEFAULT = new long[] { 80, 120 };
+    public static final long[] STROBE_PATTERN_SOS = new long[] {
+        200, 200, 200, 200, 200, 600,
+        600, 200, 600, 200, 600, 600,
+        200, 200, 200, 200, 200, 1400 };
+
+    // camera is kept open for a while after torch is turned off
+    // so that quick re-toggles don't pay camera start-up again
+    private static final int CAMERA_RELEASE_DELAY = 3000;
+
+    private TorchSession mSession;
+    private SurfaceTexture mSurfaceTexture;
     private int mTorchStatus = TORCH_STATUS_OFF;
     private Notification mTorchNotif;
     private PendingIntent mPendingIntent;
     private WakeLock mPartialWakeLock;
     private int mTorchTimeout;
     private Handler mHandler;
+    private long[] mStrobePattern;
+    private int mStrobeIndex;
+    private boolean mIdleReceiverRegistered;
+
+    /**
+     * Opened camera configured for torch. Parameters are fetched once and only flash mode
+     * is changed afterwards so switching flash on and off doesn't restart preview.
+     */
+    private static class TorchSession {
+        private Camera mCamera;
+        private Camera.Parameters mParams;
+        private boolean mFlashOn;
+
+        TorchSession(SurfaceTexture surfaceTexture, Camera.ErrorCallback errorCallback) throws IOException {
+            mCamera = Camera.open();
+            try {
+                mCamera.setErrorCallback(errorCallback);
+                mParams = mCamera.getParameters();
+                mCamera.setPreviewTexture(surfaceTexture);
+                mCamera.startPreview();
+            } catch (IOException e) {
+                release();
+                throw e;
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        void setFlash(boolean on) {
+            if (mFlashOn == on) return;
+            mParams.setFlashMode(on ? Camera.Parameters.FLASH_MODE_TORCH :
+                Camera.Parameters.FLASH_MODE_OFF);
+            mCamera.setParameters(mParams);
+            mFlashOn = on;
+        }
+
+        void release() {
+            if (mCamera == null) return;
+            try {
+                if (mFlashOn) {
+                    setFlash(false);
+                }
+                mCamera.stopPreview();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                mCamera.release();
+                mCamera = null;
+            }
+        }
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -76,6 +146,10 @@ public class TorchService extends Service {
                 Context.MODE_WORLD_READABLE);
         mTorchTimeout = prefs.getInt(GravityBoxSettings.PREF_KEY_TORCH_AUTO_OFF, 10)*60*1000;
         mHandler = new Handler();
+
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE); 
+        mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        mPartialWakeLock.setReferenceCounted(false);
     }
 
     @Override
@@ -83,8 +157,13 @@ public class TorchService extends Service {
         if (intent != null && ACTION_TOGGLE_TORCH.equals(intent.getAction())) {
             toggleTorch();
             return START_REDELIVER_INTENT;
+        } else if (intent != null && ACTION_TOGGLE_STROBE.equals(intent.getAction())) {
+            toggleStrobe(intent.getLongArrayExtra(EXTRA_STROBE_PATTERN));
+            return START_REDELIVER_INTENT;
         } else {
-            stopSelf();
+            if (mSession == null) {
+                stopSelf();
+            }
             return START_NOT_STICKY;
         }
         
@@ -98,21 +177,35 @@ public class TorchService extends Service {
         }
     }
 
+    private synchronized void toggleStrobe(long[] pattern) {
+        if (mStrobePattern != null) {
+            setTorchOff();
+            return;
+        }
+
+        if (mTorchStatus != TORCH_STATUS_ON) {
+            setTorchOn();
+            if (mTorchStatus != TORCH_STATUS_ON) return;
+        }
+        mStrobePattern = (pattern != null && pattern.length > 1) ? pattern : STROBE_PATTERN_DEFAULT;
+        mStrobeIndex = 0;
+        mHandler.postDelayed(mStrobeRunnable, mStrobePattern[0]);
+    }
+
     private synchronized void setTorchOn() {
         try {
-            if (mCamera == null) {
-                mCamera = Camera.open();
+            mHandler.removeCallbacks(mReleaseSessionRunnable);
+            unregisterIdleReceiver();
+            if (mSession == null) {
+                if (mSurfaceTexture == null) {
+                    mSurfaceTexture = new SurfaceTexture(0);
+                }
+                mSession = new TorchSession(mSurfaceTexture, mCameraErrorCallback);
             }
-            Camera.Parameters camParams = mCamera.getParameters();
-            camParams.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
-            mCamera.setParameters(camParams);
-            mCamera.setPreviewTexture(new SurfaceTexture(0));
-            mCamera.startPreview();
+            mSession.setFlash(true);
             mTorchStatus = TORCH_STATUS_ON;
             startForeground(2, mTorchNotif);
 
-            PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE); 
-            mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
             mPartialWakeLock.acquire(mTorchTimeout > 0 ? mTorchTimeout : 3600000);
             mHandler.removeCallbacks(mTorchTimeoutRunnable);
             if (mTorchTimeout > 0) {
@@ -122,11 +215,9 @@ public class TorchService extends Service {
             mTorchStatus = TORCH_STATUS_ERROR;
             e.printStackTrace();
         } finally {
-            Intent i = new Intent(ACTION_TORCH_STATUS_CHANGED);
-            i.putExtra(EXTRA_TORCH_STATUS, mTorchStatus);
-            sendBroadcast(i);
+            broadcastStatus();
             if (mTorchStatus == TORCH_STATUS_ERROR) {
-                stopSelf();
+                releaseSession();
             }
         }
     }
@@ -134,34 +225,78 @@ public class TorchService extends Service {
     private synchronized void setTorchOff() {
         try {
             mHandler.removeCallbacks(mTorchTimeoutRunnable);
-            if (mPartialWakeLock != null && mPartialWakeLock.isHeld()) {
-                mPartialWakeLock.release();
-                mPartialWakeLock = null;
-            }
-            if (mCamera != null) {
-                Camera.Parameters camParams = mCamera.getParameters();
-                camParams.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
-                mCamera.setParameters(camParams);
-                mCamera.stopPreview();
-                mCamera.release();
-                mCamera = null;
+            stopStrobe();
+            if (mSession != null) {
+                mSession.setFlash(false);
             }
             mTorchStatus = TORCH_STATUS_OFF;
         } catch (Exception e) {
             mTorchStatus = TORCH_STATUS_ERROR;
             e.printStackTrace();
         } finally {
-            Intent i = new Intent(ACTION_TORCH_STATUS_CHANGED);
-            i.putExtra(EXTRA_TORCH_STATUS, mTorchStatus);
-            sendBroadcast(i);
+            broadcastStatus();
             stopForeground(true);
-            stopSelf();
+            if (mSession != null && mTorchStatus == TORCH_STATUS_OFF) {
+                // keep the device awake just long enough to release camera on time
+                mPartialWakeLock.acquire(CAMERA_RELEASE_DELAY + 1000);
+                mHandler.postDelayed(mReleaseSessionRunnable, CAMERA_RELEASE_DELAY);
+                registerIdleReceiver();
+            } else {
+                releaseSession();
+            }
+        }
+    }
+
+    private void stopStrobe() {
+        mHandler.removeCallbacks(mStrobeRunnable);
+        mStrobePattern = null;
+    }
+
+    private synchronized void releaseSession() {
+        mHandler.removeCallbacks(mReleaseSessionRunnable);
+        unregisterIdleReceiver();
+        if (mSession != null) {
+            mSession.release();
+            mSession = null;
+        }
+        if (mPartialWakeLock.isHeld()) {
+            mPartialWakeLock.release();
         }
+        stopSelf();
+    }
+
+    private void broadcastStatus() {
+        Intent i = new Intent(ACTION_TORCH_STATUS_CHANGED);
+        i.putExtra(EXTRA_TORCH_STATUS, mTorchStatus);
+        sendBroadcast(i);
+    }
+
+    // camera is released right away when user is likely about to use it in another app
+    private void registerIdleReceiver() {
+        if (mIdleReceiverRegistered) return;
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_CLOSE_SYSTEM_DIALOGS);
+        intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mIdleReceiver, intentFilter);
+        mIdleReceiverRegistered = true;
+    }
+
+    private void unregisterIdleReceiver() {
+        if (!mIdleReceiverRegistered) return;
+        unregisterReceiver(mIdleReceiver);
+        mIdleReceiverRegistered = false;
     }
 
     @Override
     public void onDestroy() {
-        setTorchOff();
+        if (mTorchStatus == TORCH_STATUS_ON) {
+            setTorchOff();
+        }
+        releaseSession();
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
         super.onDestroy();
     }
 
@@ -171,4 +306,57 @@ public class TorchService extends Service {
             setTorchOff();
         }
     };
+
+    private Runnable mReleaseSessionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            releaseSession();
+        }
+    };
+
+    private Runnable mStrobeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (TorchService.this) {
+                if (mStrobePattern == null || mSession == null) return;
+                mStrobeIndex = (mStrobeIndex + 1) % mStrobePattern.length;
+                try {
+                    mSession.setFlash(!mSession.mFlashOn);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    mStrobePattern = null;
+                    mTorchStatus = TORCH_STATUS_ERROR;
+                    broadcastStatus();
+                    releaseSession();
+                    return;
+                }
+                mHandler.postDelayed(this, mStrobePattern[mStrobeIndex]);
+            }
+        }
+    };
+
+    private BroadcastReceiver mIdleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mTorchStatus != TORCH_STATUS_ON) {
+                releaseSession();
+            }
+        }
+    };
+
+    private Camera.ErrorCallback mCameraErrorCallback = new Camera.ErrorCallback() {
+        @Override
+        public void onError(int error, Camera camera) {
+            synchronized (TorchService.this) {
+                stopStrobe();
+                mHandler.removeCallbacks(mTorchTimeoutRunnable);
+                if (mTorchStatus == TORCH_STATUS_ON) {
+                    mTorchStatus = TORCH_STATUS_ERROR;
+                    broadcastStatus();
+                    stopForeground(true);
+                }
+                releaseSession();
+            }
+        }
+    };
 }
@@ -19,10 +19,8 @@ package com.ceco.gm2.gravitybox;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
 import android.os.SystemClock;
 import android.util.TypedValue;
-import android.view.View;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -34,13 +32,15 @@ public class TrafficMeter extends TrafficMeterAbstract {
     public static final int INACTIVITY_MODE_HIDDEN = 1;
     public static final int INACTIVITY_MODE_SUMMARY = 2;
 
-    boolean mTrafficMeterHide;
-    int mTrafficMeterSummaryTime;
+    volatile boolean mTrafficMeterHide;
+    volatile int mTrafficMeterSummaryTime;
     long mTotalRxBytes;
     long mLastUpdateTime;
     long mTrafficBurstStartTime;
     long mTrafficBurstStartBytes;
     long mKeepOnUntil = Long.MIN_VALUE;
+    boolean mVisible;
+    final RateEstimator mRxRate = new RateEstimator();
     String mB = "B";
     String mKB = "KB";
     String mMB = "MB";
@@ -84,21 +84,23 @@ public class TrafficMeter extends TrafficMeterAbstract {
     }
 
     @Override
-    protected void startTrafficUpdates() {
-        mTotalRxBytes = getTotalRxTxBytes()[0];
+    protected void onStartSampling() {
+        mTrafficSampler.sample();
+        mTotalRxBytes = mTrafficSampler.getTotalRxBytes();
         mLastUpdateTime = SystemClock.elapsedRealtime();
         mTrafficBurstStartTime = Long.MIN_VALUE;
-
-        getHandler().removeCallbacks(mRunnable);
-        getHandler().post(mRunnable);
+        mVisible = true;
+        mRxRate.reset();
     }
 
     @Override
-    protected void stopTrafficUpdates() {
-        final Handler h = getHandler();
-        if (h != null && mRunnable != null) {
-            h.removeCallbacks(mRunnable);
+    protected int getMaxIdleInterval() {
+        if (!mTrafficMeterHide) {
+            return super.getMaxIdleInterval();
         }
+        // meter is hidden while idle; make sure burst summary gets hidden on time
+        final long keepOn = mKeepOnUntil - SystemClock.elapsedRealtime();
+        return (keepOn > 0 ? (int) Math.min(keepOn, INTERVAL_IDLE_MAX) : INTERVAL_IDLE_MAX);
     }
 
     private String formatTraffic(long bytes, boolean speed) {
@@ -125,70 +127,63 @@ public class TrafficMeter extends TrafficMeterAbstract {
         }
     }
 
-    Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            long td = SystemClock.elapsedRealtime() - mLastUpdateTime;
+    @Override
+    protected TrafficSnapshot onSample() {
+        long td = SystemClock.elapsedRealtime() - mLastUpdateTime;
+        String text = null;
+
+        mTrafficSampler.sample();
+        long currentRxBytes = mTrafficSampler.getTotalRxBytes();
+        long newBytes = currentRxBytes - mTotalRxBytes;
+
+        boolean disconnected = false;
+        if (canReadFromFile() && newBytes < 0) {
+            // It's impossible to get a speed under 0
+            currentRxBytes = 0;
+            newBytes = 0;
+            disconnected = true;
+        }
 
-            if (!mAttached) {
-                return;
-            }
+        if (mTrafficMeterHide && newBytes == 0) {
+            long trafficBurstBytes = (canReadFromFile() && disconnected) ?
+                    mTotalRxBytes - mTrafficBurstStartBytes : 
+                        currentRxBytes - mTrafficBurstStartBytes;
 
-            long currentRxBytes = getTotalRxTxBytes()[0];
-            long newBytes = currentRxBytes - mTotalRxBytes;
+            if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
+                text = formatTraffic(trafficBurstBytes, false);
 
-            boolean disconnected = false;
-            if (canReadFromFile() && newBytes < 0) {
-                // It's impossible to get a speed under 0
-                currentRxBytes = 0;
-                newBytes = 0;
-                disconnected = true;
+                if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
+                                + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
+                                / 1000 + "s");
+                mKeepOnUntil = SystemClock.elapsedRealtime() + mTrafficMeterSummaryTime;
+                mTrafficBurstStartTime = Long.MIN_VALUE;
+                mTrafficBurstStartBytes = currentRxBytes;
             }
-
-            if (mTrafficMeterHide && newBytes == 0) {
-                long trafficBurstBytes = (canReadFromFile() && disconnected) ?
-                        mTotalRxBytes - mTrafficBurstStartBytes : 
-                            currentRxBytes - mTrafficBurstStartBytes;
-
-                if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
-                    setText(formatTraffic(trafficBurstBytes, false));
-
-                    if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
-                                    + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
-                                    / 1000 + "s");
-                    mKeepOnUntil = SystemClock.elapsedRealtime() + mTrafficMeterSummaryTime;
-                    mTrafficBurstStartTime = Long.MIN_VALUE;
-                    mTrafficBurstStartBytes = currentRxBytes;
-                }
-            } else {
-                if (mTrafficMeterHide && mTrafficBurstStartTime == Long.MIN_VALUE) {
-                    mTrafficBurstStartTime = mLastUpdateTime;
-                    mTrafficBurstStartBytes = mTotalRxBytes;
-                }
-                if (td > 0) {
-                    setText(formatTraffic(newBytes * 1000 / td, true));
-                }
+        } else {
+            if (mTrafficMeterHide && mTrafficBurstStartTime == Long.MIN_VALUE) {
+                mTrafficBurstStartTime = mLastUpdateTime;
+                mTrafficBurstStartBytes = mTotalRxBytes;
             }
-
-            // Hide if there is no traffic
-            if (mTrafficMeterHide && newBytes == 0) {
-                if (getVisibility() != GONE
-                        && mKeepOnUntil < SystemClock.elapsedRealtime()) {
-                    setText("");
-                    setVisibility(View.GONE);
-                }
-            } else {
-                if (getVisibility() != VISIBLE) {
-                    setVisibility(View.VISIBLE);
-                }
+            if (td > 0) {
+                text = formatTraffic(mRxRate.update(newBytes, td), true);
             }
+        }
 
-            mTotalRxBytes = (canReadFromFile() && disconnected) ? 
-                    mTotalRxBytes : currentRxBytes;
-            mLastUpdateTime = SystemClock.elapsedRealtime();
-            getHandler().postDelayed(mRunnable, mInterval);
+        // Hide if there is no traffic
+        if (mTrafficMeterHide && newBytes == 0) {
+            if (mVisible && mKeepOnUntil < SystemClock.elapsedRealtime()) {
+                text = "";
+                mVisible = false;
+            }
+        } else {
+            mVisible = true;
         }
-    };
+
+        mTotalRxBytes = (canReadFromFile() && disconnected) ? 
+                mTotalRxBytes : currentRxBytes;
+        mLastUpdateTime = SystemClock.elapsedRealtime();
+        return new TrafficSnapshot(text, 0, mVisible);
+    }
 
     private void setInactivityMode(int mode) {
         switch (mode) {
@@ -19,11 +19,8 @@ package com.ceco.gm2.gravitybox;
 import com.ceco.gm2.gravitybox.managers.StatusBarIconManager;
 import com.ceco.gm2.gravitybox.managers.StatusBarIconManager.ColorInfo;
 import com.ceco.gm2.gravitybox.managers.StatusBarIconManager.IconManagerListener;
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -31,9 +28,12 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
@@ -55,7 +55,12 @@ public abstract class TrafficMeterAbstract extends TextView
 
     protected Context mGbContext;
     protected boolean mAttached;
-    protected int mInterval = 1000;
+    protected static final int INTERVAL_MIN = 500;
+    protected static final int INTERVAL_DEFAULT = 1000;
+    protected static final int INTERVAL_IDLE_MAX = 8000;
+    protected static final long BURST_RATE_THRESHOLD = 102400; // 100 KB/s
+
+    protected volatile int mInterval = INTERVAL_DEFAULT;
     protected int mPosition;
     protected int mSize;
     protected int mMargin;
@@ -66,7 +71,91 @@ public abstract class TrafficMeterAbstract extends TextView
     protected boolean mMobileDataConnected;
     protected boolean mShowOnlyForMobileData;
     protected boolean mIsTrackingProgress;
-    private Boolean mCanReadFromFile;
+    protected final TrafficSampler mTrafficSampler = new TrafficSampler();
+
+    // Sampling and formatting run on a shared background thread which exists only
+    // while at least one meter is attached. Results are published to the UI thread
+    // as immutable snapshots and applied only when something actually changed.
+    private static HandlerThread sSamplerThread;
+    private static int sSamplerUsers;
+
+    private Handler mSamplerHandler;
+    // snapshots are posted through main looper directly as View.post() called from sampler
+    // thread while detached would queue them to sampler thread's run queue and lose them
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mSampling;
+    private TrafficSnapshot mLastPublished;
+    private TrafficSnapshot mAppliedSnapshot;
+    private volatile TrafficSnapshot mPendingSnapshot;
+    private final AtomicBoolean mPublishScheduled = new AtomicBoolean(false);
+    private long mSchedulerSampleTime;
+    private long mSchedulerTotalBytes;
+
+    protected static final class TrafficSnapshot {
+        // null text keeps currently displayed text, textSizePx <= 0 keeps current size
+        final String text;
+        final int textSizePx;
+        final boolean visible;
+
+        public TrafficSnapshot(String text, int textSizePx, boolean visible) {
+            this.text = text;
+            this.textSizePx = textSizePx;
+            this.visible = visible;
+        }
+
+        boolean sameAs(TrafficSnapshot other) {
+            return (other != null &&
+                    (text == null || TextUtils.equals(text, other.text)) &&
+                    (textSizePx <= 0 || textSizePx == other.textSizePx) &&
+                    visible == other.visible);
+        }
+    }
+
+    // Exponentially weighted moving average of transfer rate taking variable sampling interval into account
+    protected static final class RateEstimator {
+        private static final double TAU_MS = 1500;
+        private double mRate;
+        private boolean mValid;
+
+        public void reset() {
+            mRate = 0;
+            mValid = false;
+        }
+
+        public long update(long bytes, long timeDeltaMs) {
+            if (timeDeltaMs <= 0) return (long) mRate;
+
+            final double rate = bytes * 1000d / timeDeltaMs;
+            if (mValid) {
+                mRate += (1 - Math.exp(-timeDeltaMs / TAU_MS)) * (rate - mRate);
+            } else {
+                mRate = rate;
+                mValid = true;
+            }
+            if (mRate < 1) {
+                mRate = 0;
+            }
+            return (long) mRate;
+        }
+    }
+
+    private static synchronized Looper acquireSamplerLooper() {
+        if (sSamplerThread == null) {
+            sSamplerThread = new HandlerThread(TAG + ".Sampler");
+            sSamplerThread.start();
+            if (DEBUG) log("sampler thread started");
+        }
+        sSamplerUsers++;
+        return sSamplerThread.getLooper();
+    }
+
+    private static synchronized void releaseSamplerLooper() {
+        if (--sSamplerUsers == 0 && sSamplerThread != null) {
+            sSamplerThread.quit();
+            sSamplerThread = null;
+            if (DEBUG) log("sampler thread stopped");
+        }
+    }
 
     protected static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -162,6 +251,7 @@ public abstract class TrafficMeterAbstract extends TextView
         if (!mAttached) {
             mAttached = true;
             if (DEBUG) log("attached to window");
+            mSamplerHandler = new Handler(acquireSamplerLooper());
             IntentFilter filter = new IntentFilter();
             filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
             getContext().registerReceiver(mIntentReceiver, filter, null, getHandler());
@@ -187,6 +277,16 @@ public abstract class TrafficMeterAbstract extends TextView
             }
 
             updateState();
+            // sampler might still be in the middle of onSample() so let sampler thread
+            // close it once it's done and release the looper afterwards
+            mSamplerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTrafficSampler.close();
+                    releaseSamplerLooper();
+                }
+            });
+            mSamplerHandler = null;
         }
     }
 
@@ -281,68 +381,124 @@ public abstract class TrafficMeterAbstract extends TextView
 
     protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
     protected abstract void onPreferenceChanged(Intent intent);
-    protected abstract void startTrafficUpdates();
-    protected abstract void stopTrafficUpdates();
+    // called on sampler thread
+    protected abstract void onStartSampling();
+    // called on sampler thread; returns snapshot to be rendered or null if there's nothing to update
+    protected abstract TrafficSnapshot onSample();
+
+    protected void startTrafficUpdates() {
+        if (mSamplerHandler == null) return;
+        mSampling = true;
+        mInterval = INTERVAL_DEFAULT;
+        mUiHandler.removeCallbacks(mApplySnapshotRunnable);
+        mPublishScheduled.set(false);
+        mSamplerHandler.removeCallbacks(mStartSamplingRunnable);
+        mSamplerHandler.removeCallbacks(mSampleRunnable);
+        mSamplerHandler.post(mStartSamplingRunnable);
+    }
 
-    protected boolean canReadFromFile() {
-        if (mCanReadFromFile == null) {
-            File f = new File("/proc/net/dev");
-            mCanReadFromFile = (f.exists() && f.canRead());
+    protected void stopTrafficUpdates() {
+        mSampling = false;
+        if (mSamplerHandler != null) {
+            mSamplerHandler.removeCallbacks(mStartSamplingRunnable);
+            mSamplerHandler.removeCallbacks(mSampleRunnable);
         }
-        return mCanReadFromFile;
+        mUiHandler.removeCallbacks(mApplySnapshotRunnable);
+        mPublishScheduled.set(false);
+        mPendingSnapshot = null;
+        mAppliedSnapshot = null;
     }
 
-    protected long[] getTotalRxTxBytes() {
-        return (canReadFromFile() ? getTotalRxTxBytesFromFile() :
-            getTotalRxTxBytesFromStats());
+    private final Runnable mStartSamplingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLastPublished = null;
+            onStartSampling();
+            mSchedulerSampleTime = mTrafficSampler.getSampleTime();
+            mSchedulerTotalBytes = mTrafficSampler.getTotalRxBytes() + mTrafficSampler.getTotalTxBytes();
+            mSampleRunnable.run();
+        }
+    };
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mSampling) return;
+
+            TrafficSnapshot snapshot = onSample();
+            if (snapshot != null && !snapshot.sameAs(mLastPublished)) {
+                mLastPublished = snapshot;
+                publishSnapshot(snapshot);
+            }
+            updateInterval();
+
+            final Handler h = mSamplerHandler;
+            if (mSampling && h != null) {
+                h.postDelayed(this, mInterval);
+            }
+        }
+    };
+
+    // Backs off exponentially while there's no traffic and speeds up during bursts
+    private void updateInterval() {
+        final long sampleTime = mTrafficSampler.getSampleTime();
+        if (sampleTime == mSchedulerSampleTime) return;
+
+        final long totalBytes = mTrafficSampler.getTotalRxBytes() + mTrafficSampler.getTotalTxBytes();
+        final long bytes = totalBytes - mSchedulerTotalBytes;
+        final long timeDelta = sampleTime - mSchedulerSampleTime;
+        mSchedulerSampleTime = sampleTime;
+        mSchedulerTotalBytes = totalBytes;
+
+        final int interval;
+        if (bytes == 0) {
+            interval = Math.max(INTERVAL_MIN, Math.min(mInterval * 2, getMaxIdleInterval()));
+        } else if (timeDelta > 0 && bytes * 1000 / timeDelta >= BURST_RATE_THRESHOLD) {
+            interval = INTERVAL_MIN;
+        } else {
+            interval = INTERVAL_DEFAULT;
+        }
+        if (DEBUG && interval != mInterval) log("sampling interval changed to " + interval + "ms");
+        mInterval = interval;
     }
 
-    private static boolean isCountedInterface(String iface) {
-        return (iface != null &&
-                !iface.equals("ifname") &&
-                !iface.equals("lo") &&
-                !iface.startsWith("tun"));
+    // Upper bound for sampling interval while idle; called on sampler thread
+    protected int getMaxIdleInterval() {
+        return INTERVAL_DEFAULT * 2;
     }
 
-    private static long tryParseLong(String obj) {
-        try {
-            return Long.parseLong(obj);
-        } catch (Exception e) {
-            return 0;
+    private void publishSnapshot(TrafficSnapshot snapshot) {
+        mPendingSnapshot = snapshot;
+        // coalesce publishes in case UI thread is lagging behind
+        if (mPublishScheduled.compareAndSet(false, true)) {
+            mUiHandler.post(mApplySnapshotRunnable);
         }
     }
 
-    private static long[] getTotalRxTxBytesFromFile() {
-        String line;
-        String[] segs;
-        BufferedReader in = null;
-        long[] bytes = new long[] { 0, 0 };
-        try {
-            FileReader fr = new FileReader("/proc/net/xt_qtaguid/iface_stat_fmt");
-            in = new BufferedReader(fr);
-            while ((line = in.readLine()) != null) {
-                segs = line.split(" ");
-                if (segs.length < 4)
-                    throw new UnsupportedOperationException("Unsupported length of net params");
-
-                if (isCountedInterface(segs[0])) {
-                    if (DEBUG) log("iface:"+segs[0]+"; RX="+segs[1]+"; TX="+segs[3]);
-                    bytes[0] += tryParseLong(segs[1]);
-                    bytes[1] += tryParseLong(segs[3]);
-                }
+    private final Runnable mApplySnapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPublishScheduled.set(false);
+            final TrafficSnapshot snapshot = mPendingSnapshot;
+            if (!mSampling || snapshot == null) return;
+
+            final TrafficSnapshot applied = mAppliedSnapshot;
+            if (snapshot.textSizePx > 0 &&
+                    (applied == null || applied.textSizePx != snapshot.textSizePx)) {
+                setTextSize(TypedValue.COMPLEX_UNIT_PX, (float) snapshot.textSizePx);
+            }
+            if (snapshot.text != null && (applied == null || !TextUtils.equals(getText(), snapshot.text))) {
+                setText(snapshot.text);
+            }
+            final int visibility = snapshot.visible ? View.VISIBLE : View.GONE;
+            if (getVisibility() != visibility) {
+                setVisibility(visibility);
             }
-        } catch (Throwable t) {
-            if (DEBUG) XposedBridge.log(t);
-            // fallback to TrafficStats
-            bytes = getTotalRxTxBytesFromStats();
-        } finally {
-            if (in != null) try { in.close(); } catch(IOException e) {};
+            mAppliedSnapshot = snapshot;
         }
-        return bytes;
-    }
+    };
 
-    private static long[] getTotalRxTxBytesFromStats() {
-        return new long[] { TrafficStats.getTotalRxBytes(),
-                TrafficStats.getTotalTxBytes() };
+    protected boolean canReadFromFile() {
+        return mTrafficSampler.isReadingFromFile();
     }
 }
@@ -32,11 +32,8 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Message;
 import android.os.SystemClock;
 import android.util.TypedValue;
-import android.view.View;
 import android.widget.LinearLayout;
 
 public class TrafficMeterOmni extends TrafficMeterAbstract {
@@ -59,121 +56,113 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     private enum Mode { IN, OUT, IN_OUT };
 
-    private long[] totalRxTxBytes = new long[] { 0, 0 };
+    private long totalRxBytes;
+    private long totalTxBytes;
     private long lastUpdateTime;
-    private int txtSizeSingle;
-    private int txtSizeMulti;
+    private volatile int txtSizeSingle;
+    private volatile int txtSizeMulti;
     private int KB = KILOBYTE;
     private int MB = KB * KB;
     private int GB = MB * KB;
-    private Mode mMode;
+    private volatile Mode mMode;
     private Integer mIconColor;
     private boolean mShowIcon;
-    private boolean mAutoHide;
-    private int mAutoHideThreshold;
-
-    private Handler mTrafficHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            long timeDelta = SystemClock.elapsedRealtime() - lastUpdateTime;
-
-            if (timeDelta < mInterval * .95) {
-                if (msg.what != 1) {
-                    // we just updated the view, nothing further to do
-                    return;
-                }
-                if (timeDelta < 1) {
-                    // Can't div by 0 so make sure the value displayed is minimal
-                    timeDelta = Long.MAX_VALUE;
-                }
+    private volatile boolean mAutoHide;
+    private volatile int mAutoHideThreshold;
+    private boolean mForceUpdate;
+    private final RateEstimator mRxRate = new RateEstimator();
+    private final RateEstimator mTxRate = new RateEstimator();
+    private final StringBuilder mOutput = new StringBuilder();
+
+    @Override
+    protected TrafficSnapshot onSample() {
+        long timeDelta = SystemClock.elapsedRealtime() - lastUpdateTime;
+        final boolean forceUpdate = mForceUpdate;
+        mForceUpdate = false;
+
+        boolean minimal = false;
+        if (timeDelta < mInterval * .95) {
+            if (!forceUpdate) {
+                // we just updated the view, nothing further to do
+                return null;
             }
-            lastUpdateTime = SystemClock.elapsedRealtime();
-
-            // Calculate the data rate from the change in total bytes and time
-            long[] newTotalRxTxBytes = getTotalRxTxBytes();
-            long rxData = newTotalRxTxBytes[0] - totalRxTxBytes[0];
-            long txData = newTotalRxTxBytes[1] - totalRxTxBytes[1];
-
-            if (shouldHide(rxData, txData, timeDelta)) {
-                setText("");
-                setVisibility(View.GONE);
-            } else {
-                // If bit/s convert from Bytes to bits
-                String symbol;
-                if (KB == KILOBYTE) {
-                    symbol = SYMBOLS.get("B/s");
-                } else {
-                    symbol = SYMBOLS.get("b/s");
-                    rxData = rxData * 8;
-                    txData = txData * 8;
-                }
-
-                // Get information for uplink ready so the line return can be added
-                String output = "";
-                if (mMode == Mode.OUT || mMode == Mode.IN_OUT) {
-                    output = formatOutput(timeDelta, txData, symbol);
-                }
-    
-                // Ensure text size is where it needs to be
-                int textSize;
-                if (mMode == Mode.IN_OUT) {
-                    output += "\n";
-                    textSize = txtSizeMulti;
-                } else {
-                    textSize = txtSizeSingle;
-                }
-    
-                // Add information for downlink if it's called for
-                if (mMode == Mode.IN || mMode == Mode.IN_OUT) {
-                    output += formatOutput(timeDelta, rxData, symbol);
-                }
-    
-                // Update view if there's anything new to show
-                if (!output.contentEquals(getText()) || msg.what == 1) {
-                    setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
-                    setText(output);
-                }
-                setVisibility(View.VISIBLE);
+            if (timeDelta < 1) {
+                // Can't div by 0 so make sure the value displayed is minimal
+                minimal = true;
             }
+        }
+        lastUpdateTime = SystemClock.elapsedRealtime();
 
-            // Post delayed message to refresh in ~1000ms
-            totalRxTxBytes[0] = newTotalRxTxBytes[0];
-            totalRxTxBytes[1] = newTotalRxTxBytes[1];
-            clearHandlerCallbacks();
-            mTrafficHandler.postDelayed(mRunnable, mInterval);
+        // Calculate the data rate from the change in total bytes and time
+        mTrafficSampler.sample();
+        final long newTotalRxBytes = mTrafficSampler.getTotalRxBytes();
+        final long newTotalTxBytes = mTrafficSampler.getTotalTxBytes();
+        long rxSpeed = minimal ? 0 : mRxRate.update(newTotalRxBytes - totalRxBytes, timeDelta);
+        long txSpeed = minimal ? 0 : mTxRate.update(newTotalTxBytes - totalTxBytes, timeDelta);
+        totalRxBytes = newTotalRxBytes;
+        totalTxBytes = newTotalTxBytes;
+
+        final Mode mode = mMode;
+        if (shouldHide(mode, rxSpeed, txSpeed)) {
+            return new TrafficSnapshot("", 0, false);
         }
 
-        private String formatOutput(long timeDelta, long data, String symbol) {
-            long speed = (long)(data / (timeDelta / 1000F));
-            if (speed < KB) {
-                return decimalFormat.format(speed) + symbol;
-            } else if (speed < MB) {
-                return decimalFormat.format(speed / (float)KB) + SYMBOLS.get("k") + symbol;
-            } else if (speed < GB) {
-                return decimalFormat.format(speed / (float)MB) + SYMBOLS.get("M") + symbol;
-            }
-            return decimalFormat.format(speed / (float)GB) + SYMBOLS.get("G") + symbol;
+        // If bit/s convert from Bytes to bits
+        String symbol;
+        if (KB == KILOBYTE) {
+            symbol = SYMBOLS.get("B/s");
+        } else {
+            symbol = SYMBOLS.get("b/s");
+            rxSpeed = rxSpeed * 8;
+            txSpeed = txSpeed * 8;
         }
 
-        private boolean shouldHide(long rxData, long txData, long timeDelta) {
-            long speedTxKB = (long)(txData / (timeDelta / 1000f)) / KILOBYTE;
-            long speedRxKB = (long)(rxData / (timeDelta / 1000f)) / KILOBYTE;
-            return mAutoHide &&
-                   (mMode == Mode.IN && speedRxKB <= mAutoHideThreshold ||
-                   mMode == Mode.OUT && speedTxKB <= mAutoHideThreshold ||
-                   mMode == Mode.IN_OUT && 
-                       speedRxKB <= mAutoHideThreshold && 
-                       speedTxKB <= mAutoHideThreshold);
-                    
+        // Get information for uplink ready so the line return can be added
+        mOutput.setLength(0);
+        if (mode == Mode.OUT || mode == Mode.IN_OUT) {
+            formatOutput(txSpeed, symbol);
         }
-    };
 
-    private Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            mTrafficHandler.sendEmptyMessage(0);
+        // Ensure text size is where it needs to be
+        int textSize;
+        if (mode == Mode.IN_OUT) {
+            mOutput.append('\n');
+            textSize = txtSizeMulti;
+        } else {
+            textSize = txtSizeSingle;
         }
-    };
+
+        // Add information for downlink if it's called for
+        if (mode == Mode.IN || mode == Mode.IN_OUT) {
+            formatOutput(rxSpeed, symbol);
+        }
+
+        return new TrafficSnapshot(mOutput.toString(), textSize, true);
+    }
+
+    private void formatOutput(long speed, String symbol) {
+        if (speed < KB) {
+            mOutput.append(decimalFormat.format(speed));
+        } else if (speed < MB) {
+            mOutput.append(decimalFormat.format(speed / (float)KB)).append(SYMBOLS.get("k"));
+        } else if (speed < GB) {
+            mOutput.append(decimalFormat.format(speed / (float)MB)).append(SYMBOLS.get("M"));
+        } else {
+            mOutput.append(decimalFormat.format(speed / (float)GB)).append(SYMBOLS.get("G"));
+        }
+        mOutput.append(symbol);
+    }
+
+    private boolean shouldHide(Mode mode, long rxSpeed, long txSpeed) {
+        long speedTxKB = txSpeed / KILOBYTE;
+        long speedRxKB = rxSpeed / KILOBYTE;
+        return mAutoHide &&
+               (mode == Mode.IN && speedRxKB <= mAutoHideThreshold ||
+               mode == Mode.OUT && speedTxKB <= mAutoHideThreshold ||
+               mode == Mode.IN_OUT && 
+                   speedRxKB <= mAutoHideThreshold && 
+                   speedTxKB <= mAutoHideThreshold);
+    }
 
     public TrafficMeterOmni(Context context) {
         super(context);
@@ -224,21 +213,25 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        totalRxTxBytes = getTotalRxTxBytes();
-        lastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficHandler.sendEmptyMessage(1);
+        super.startTrafficUpdates();
         updateTrafficDrawable();
     }
 
     @Override
-    protected void stopTrafficUpdates() {
-        clearHandlerCallbacks();
+    protected int getMaxIdleInterval() {
+        // view gets hidden while idle so there's no point in sampling often
+        return (mAutoHide ? INTERVAL_IDLE_MAX : super.getMaxIdleInterval());
     }
 
-    private void clearHandlerCallbacks() {
-        mTrafficHandler.removeCallbacks(mRunnable);
-        mTrafficHandler.removeMessages(0);
-        mTrafficHandler.removeMessages(1);
+    @Override
+    protected void onStartSampling() {
+        mTrafficSampler.sample();
+        totalRxBytes = mTrafficSampler.getTotalRxBytes();
+        totalTxBytes = mTrafficSampler.getTotalTxBytes();
+        lastUpdateTime = SystemClock.elapsedRealtime();
+        mForceUpdate = true;
+        mRxRate.reset();
+        mTxRate.reset();
     }
 
     private void updateTrafficDrawable() {
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.net.TrafficStats;
+import android.os.SystemClock;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Reads interface counters from /proc/net/xt_qtaguid/iface_stat_fmt keeping the file
+ * open and parsing it in place so that periodic sampling produces no garbage.
+ * Falls back to TrafficStats totals when the file is not available.
+ * Sampling and closing are synchronized; getters are meant to be called from the sampling thread.
+ */
+public class TrafficSampler {
+    private static final String TAG = "GB:TrafficSampler";
+    private static final boolean DEBUG = false;
+
+    private static final String STATS_FILE = "/proc/net/xt_qtaguid/iface_stat_fmt";
+    private static final int MAX_IFACES = 32;
+
+    public static final int IFACE_TYPE_OTHER = 0;
+    public static final int IFACE_TYPE_WIFI = 1;
+    public static final int IFACE_TYPE_MOBILE = 2;
+    public static final int IFACE_TYPE_VPN = 3;
+    public static final int IFACE_TYPE_COUNT = 4;
+
+    private static final String[] WIFI_PREFIXES = { "wlan", "eth" };
+    private static final String[] MOBILE_PREFIXES = { "rmnet", "ccmni", "pdp", "wwan", "rev_rmnet" };
+    private static final String[] VPN_PREFIXES = { "tun", "tap", "ppp" };
+
+    private RandomAccessFile mFile;
+    private boolean mFileAvailable;
+    private byte[] mBuffer = new byte[2048];
+
+    // per interface slots; allocated only when a new interface appears
+    private final byte[][] mIfaceNames = new byte[MAX_IFACES][];
+    private final int[] mIfaceTypes = new int[MAX_IFACES];
+    private final boolean[] mIfaceCounted = new boolean[MAX_IFACES];
+    private final long[] mIfaceRx = new long[MAX_IFACES];
+    private final long[] mIfaceTx = new long[MAX_IFACES];
+    private int mIfaceCount;
+
+    private final long[] mRxDelta = new long[IFACE_TYPE_COUNT];
+    private final long[] mTxDelta = new long[IFACE_TYPE_COUNT];
+    private long mTotalRx;
+    private long mTotalTx;
+    private boolean mHasPrevious;
+    private long mSampleTime;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public TrafficSampler() {
+        File f = new File(STATS_FILE);
+        mFileAvailable = f.exists() && f.canRead();
+    }
+
+    public boolean isReadingFromFile() {
+        return mFileAvailable;
+    }
+
+    /**
+     * Takes a new sample. Totals reflect counted interfaces (excluding loopback and tun),
+     * deltas are computed against the previous sample per interface type.
+     */
+    public synchronized void sample() {
+        mSampleTime = SystemClock.elapsedRealtime();
+        if (mFileAvailable) {
+            try {
+                sampleFromFile();
+                mHasPrevious = true;
+                return;
+            } catch (Throwable t) {
+                if (DEBUG) XposedBridge.log(t);
+                // fallback to TrafficStats
+                mFileAvailable = false;
+                close();
+            }
+        }
+        sampleFromStats();
+        mHasPrevious = true;
+    }
+
+    public long getTotalRxBytes() {
+        return mTotalRx;
+    }
+
+    public long getTotalTxBytes() {
+        return mTotalTx;
+    }
+
+    public long getSampleTime() {
+        return mSampleTime;
+    }
+
+    public long getRxDelta(int ifaceType) {
+        return mRxDelta[ifaceType];
+    }
+
+    public long getTxDelta(int ifaceType) {
+        return mTxDelta[ifaceType];
+    }
+
+    public synchronized void close() {
+        if (mFile != null) {
+            try { mFile.close(); } catch (IOException e) { }
+            mFile = null;
+        }
+    }
+
+    private void sampleFromStats() {
+        final long rx = TrafficStats.getTotalRxBytes();
+        final long tx = TrafficStats.getTotalTxBytes();
+        for (int i = 0; i < IFACE_TYPE_COUNT; i++) {
+            mRxDelta[i] = 0;
+            mTxDelta[i] = 0;
+        }
+        if (mHasPrevious) {
+            mRxDelta[IFACE_TYPE_OTHER] = Math.max(0, rx - mTotalRx);
+            mTxDelta[IFACE_TYPE_OTHER] = Math.max(0, tx - mTotalTx);
+        }
+        mTotalRx = rx;
+        mTotalTx = tx;
+    }
+
+    private void sampleFromFile() throws IOException {
+        if (mFile == null) {
+            mFile = new RandomAccessFile(STATS_FILE, "r");
+        }
+
+        int length = readFully();
+        for (int i = 0; i < IFACE_TYPE_COUNT; i++) {
+            mRxDelta[i] = 0;
+            mTxDelta[i] = 0;
+        }
+        long totalRx = 0;
+        long totalTx = 0;
+
+        int pos = 0;
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && mBuffer[lineEnd] != '\n') lineEnd++;
+
+            // ifname rx_bytes rx_packets tx_bytes tx_packets
+            int nameEnd = pos;
+            while (nameEnd < lineEnd && mBuffer[nameEnd] != ' ') nameEnd++;
+            if (nameEnd > pos) {
+                int fieldPos = nameEnd;
+                long rx = 0, tx = 0;
+                int field = 0;
+                boolean valid = true;
+                while (field < 3 && fieldPos < lineEnd) {
+                    fieldPos++; // skip separator
+                    long val = 0;
+                    boolean digits = false;
+                    while (fieldPos < lineEnd && mBuffer[fieldPos] != ' ') {
+                        final int c = mBuffer[fieldPos] - '0';
+                        if (c < 0 || c > 9) {
+                            valid = false;
+                        } else {
+                            val = val * 10 + c;
+                            digits = true;
+                        }
+                        fieldPos++;
+                    }
+                    valid &= digits;
+                    if (field == 0) rx = val;
+                    else if (field == 2) tx = val;
+                    field++;
+                }
+                if (field < 3) {
+                    throw new UnsupportedOperationException("Unsupported length of net params");
+                }
+                // header line has no numeric fields and is skipped here
+                if (valid) {
+                    final int slot = getIfaceSlot(pos, nameEnd - pos);
+                    if (slot >= 0) {
+                        updateSlot(slot, rx, tx);
+                        if (mIfaceCounted[slot]) {
+                            totalRx += rx;
+                            totalTx += tx;
+                        }
+                    }
+                }
+            }
+            pos = lineEnd + 1;
+        }
+
+        mTotalRx = totalRx;
+        mTotalTx = totalTx;
+    }
+
+    private int readFully() throws IOException {
+        mFile.seek(0);
+        int length = 0;
+        while (true) {
+            if (length == mBuffer.length) {
+                byte[] newBuffer = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, 0, newBuffer, 0, length);
+                mBuffer = newBuffer;
+            }
+            int read = mFile.read(mBuffer, length, mBuffer.length - length);
+            if (read <= 0) break;
+            length += read;
+        }
+        return length;
+    }
+
+    private void updateSlot(int slot, long rx, long tx) {
+        if (mIfaceTypes[slot] < 0) return;
+
+        if (mHasPrevious) {
+            // counters restart from zero when an interface goes away and comes back
+            final long rxDelta = rx >= mIfaceRx[slot] ? rx - mIfaceRx[slot] : rx;
+            final long txDelta = tx >= mIfaceTx[slot] ? tx - mIfaceTx[slot] : tx;
+            mRxDelta[mIfaceTypes[slot]] += rxDelta;
+            mTxDelta[mIfaceTypes[slot]] += txDelta;
+        }
+        mIfaceRx[slot] = rx;
+        mIfaceTx[slot] = tx;
+    }
+
+    private int getIfaceSlot(int offset, int length) {
+        for (int i = 0; i < mIfaceCount; i++) {
+            final byte[] name = mIfaceNames[i];
+            if (name.length != length) continue;
+            int j = 0;
+            while (j < length && name[j] == mBuffer[offset + j]) j++;
+            if (j == length) return i;
+        }
+
+        if (mIfaceCount == MAX_IFACES) {
+            if (DEBUG) log("Too many interfaces; ignoring new one");
+            return -1;
+        }
+
+        final String name = new String(mBuffer, offset, length);
+        final int slot = mIfaceCount++;
+        mIfaceNames[slot] = new byte[length];
+        System.arraycopy(mBuffer, offset, mIfaceNames[slot], 0, length);
+        // loopback keeps its slot so it is not looked up again but is never accounted
+        mIfaceTypes[slot] = name.equals("lo") ? -1 : getIfaceType(name);
+        mIfaceCounted[slot] = !name.equals("lo") && !name.startsWith("tun");
+        if (DEBUG) log("New interface: " + name + "; type=" + mIfaceTypes[slot]);
+        return slot;
+    }
+
+    private static int getIfaceType(String name) {
+        if (startsWithAny(name, WIFI_PREFIXES)) return IFACE_TYPE_WIFI;
+        if (startsWithAny(name, MOBILE_PREFIXES)) return IFACE_TYPE_MOBILE;
+        if (startsWithAny(name, VPN_PREFIXES)) return IFACE_TYPE_VPN;
+        return IFACE_TYPE_OTHER;
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+}
@@ -19,107 +19,211 @@ package com.ceco.gm2.gravitybox;
 
 import android.text.SpannableString;
 import android.text.Spanned;
-import android.text.TextUtils;
 
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.text.Normalizer;
-import java.util.regex.Pattern;
 
 /**
  * Attempts to substitute characters that cannot be encoded in the limited
  * GSM 03.38 character set. In many cases this will prevent sending a message
  * containing characters that would switch the message from 7-bit GSM
  * encoding (160 char limit) to 16-bit Unicode encoding (70 char limit).
+ *
+ * Replacements are looked up in a per-character table which is built page by page
+ * (256 chars) on first use and shared by all filter instances.
  */
 public class UnicodeFilter {
-    private CharsetEncoder gsm =
-            Charset.forName("gsm-03.38-2000").newEncoder();
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_COUNT = 0x10000 >> PAGE_SHIFT;
+
+    // Combining Diacritical Marks block
+    private static final char COMBINING_MARKS_FIRST = '\u0300';
+    private static final char COMBINING_MARKS_LAST = '\u036f';
+
+    // Special case characters that don't get stripped by NFKD normalization
+    private static final String SPECIAL_CHARS =
+            "ŒœŁłĐđΑΒΕΖΗΙΚΜΝΟΡΤΥΧαβγδεζηθικλμνξοπρστυφχψως";
+    private static final String[] SPECIAL_REPLACEMENTS = {
+        "OE", "oe", "L", "l", "DJ", "dj", "A", "B", "E", "Z", "H", "I", "K", "M", "N", "O",
+        "P", "T", "Y", "X", "A", "B", "Γ", "Δ", "E", "Z", "H", "Θ", "I", "K", "Λ", "M", "N",
+        "Ξ", "O", "Π", "P", "Σ", "T", "Y", "Φ", "X", "Ψ", "Ω", "Σ"
+    };
+
+    // [mode][page][char]; null entry means the char is kept as is
+    private static final String[][][] sPages = new String[2][PAGE_COUNT][];
+    private static CharsetEncoder sGsmEncoder;
+
+    private final int mMode;
+
+    // state of incremental filtering of the last source
+    private CharSequence mLastSource;
+    private StringBuilder mLastOutput;
+    private int[] mOutOffsets;
+    // which source chars have been replaced and how many of them
+    private boolean[] mReplaced;
+    private int mReplacedCount;
 
-    private Pattern diacritics =
-            Pattern.compile("\\p{InCombiningDiacriticalMarks}");
+    public UnicodeFilter(boolean stripNonDecodableOnly) {
+        mMode = stripNonDecodableOnly ? 1 : 0;
+    }
 
-    private boolean mStripNonDecodableOnly;
+    private static synchronized String[] getPage(int mode, int page) {
+        String[] table = sPages[mode][page];
+        if (table == null) {
+            if (mode == 1 && sGsmEncoder == null) {
+                sGsmEncoder = Charset.forName("gsm-03.38-2000").newEncoder();
+            }
+            table = new String[PAGE_SIZE];
+            final int base = page << PAGE_SHIFT;
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                final char c = (char) (base + i);
+                if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) continue;
+                if (mode == 1 && sGsmEncoder.canEncode(c)) continue;
+                String s = getReplacement(c);
+                if (s.length() != 1 || s.charAt(0) != c) {
+                    table[i] = s;
+                }
+            }
+            sPages[mode][page] = table;
+        }
+        return table;
+    }
 
-    public UnicodeFilter(boolean stripNonDecodableOnly) {
-        mStripNonDecodableOnly = stripNonDecodableOnly;
+    private static String getReplacement(char c) {
+        // Normalize the character into Unicode NFKD form and strip out diacritic mark characters
+        String s = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            final char nc = s.charAt(i);
+            if (nc >= COMBINING_MARKS_FIRST && nc <= COMBINING_MARKS_LAST) {
+                continue;
+            }
+            final int special = SPECIAL_CHARS.indexOf(nc);
+            if (special >= 0) {
+                sb.append(SPECIAL_REPLACEMENTS[special]);
+            } else {
+                sb.append(nc);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Filters chars of source in range [start, end) appending result to output.
+     * Fills offsets and replaced flags (if not null) of each source char starting at pos.
+     * @return number of chars that have been replaced
+     */
+    private int filterRange(CharSequence source, int start, int end,
+            StringBuilder output, int[] offsets, boolean[] replaced, int pos) {
+        int replacedCount = 0;
+        String[] page = null;
+        int pageIdx = -1;
+        for (int i = start; i < end; i++, pos++) {
+            if (offsets != null) {
+                offsets[pos] = output.length();
+            }
+            final char c = source.charAt(i);
+            final int idx = c >> PAGE_SHIFT;
+            if (idx != pageIdx) {
+                page = getPage(mMode, idx);
+                pageIdx = idx;
+            }
+            final String s = page[c & (PAGE_SIZE - 1)];
+            if (s == null) {
+                output.append(c);
+            } else {
+                output.append(s);
+                replacedCount++;
+            }
+            if (replaced != null) {
+                replaced[pos] = (s != null);
+            }
+        }
+        return replacedCount;
     }
 
     public CharSequence filter(CharSequence source) {
-        StringBuilder output = new StringBuilder(source);
         final int sourceLength = source.length();
+        StringBuilder output = new StringBuilder(sourceLength);
+        int[] offsets = source instanceof Spanned ? new int[sourceLength + 1] : null;
+        if (filterRange(source, 0, sourceLength, output, offsets, null, 0) == 0) {
+            return source;
+        }
+        if (offsets != null) {
+            offsets[sourceLength] = output.length();
+        }
+        return createOutput(source, output, offsets);
+    }
 
-        for (int i = 0; i < sourceLength; i++) {
-            char c = source.charAt(i);
-
-            // Character requires Unicode, try to replace it
-            if (!mStripNonDecodableOnly || !gsm.canEncode(c)) {
-                String s = String.valueOf(c);
-
-                // Try normalizing the character into Unicode NFKD form and
-                // stripping out diacritic mark characters.
-                s = Normalizer.normalize(s, Normalizer.Form.NFKD);
-                s = diacritics.matcher(s).replaceAll("");
-
-                // Special case characters that don't get stripped by the
-                // above technique.
-                s = s.replace("Œ", "OE");
-                s = s.replace("œ", "oe");
-                s = s.replace("Ł", "L");
-                s = s.replace("ł", "l");
-                s = s.replace("Đ", "DJ");
-                s = s.replace("đ", "dj");
-                s = s.replace("Α", "A");
-                s = s.replace("Β", "B");
-                s = s.replace("Ε", "E");
-                s = s.replace("Ζ", "Z");
-                s = s.replace("Η", "H");
-                s = s.replace("Ι", "I");
-                s = s.replace("Κ", "K");
-                s = s.replace("Μ", "M");
-                s = s.replace("Ν", "N");
-                s = s.replace("Ο", "O");
-                s = s.replace("Ρ", "P");
-                s = s.replace("Τ", "T");
-                s = s.replace("Υ", "Y");
-                s = s.replace("Χ", "X");
-                s = s.replace("α", "A");
-                s = s.replace("β", "B");
-                s = s.replace("γ", "Γ");
-                s = s.replace("δ", "Δ");
-                s = s.replace("ε", "E");
-                s = s.replace("ζ", "Z");
-                s = s.replace("η", "H");
-                s = s.replace("θ", "Θ");
-                s = s.replace("ι", "I");
-                s = s.replace("κ", "K");
-                s = s.replace("λ", "Λ");
-                s = s.replace("μ", "M");
-                s = s.replace("ν", "N");
-                s = s.replace("ξ", "Ξ");
-                s = s.replace("ο", "O");
-                s = s.replace("π", "Π");
-                s = s.replace("ρ", "P");
-                s = s.replace("σ", "Σ");
-                s = s.replace("τ", "T");
-                s = s.replace("υ", "Y");
-                s = s.replace("φ", "Φ");
-                s = s.replace("χ", "X");
-                s = s.replace("ψ", "Ψ");
-                s = s.replace("ω", "Ω");
-                s = s.replace("ς", "Σ");
-
-                output.replace(i, i + 1, s);
+    /**
+     * Incremental variant of {@link #filter(CharSequence)} to be called from onTextChanged.
+     * When source is the same text object as the one passed in previous call, only the count chars
+     * beginning at start which have just replaced before chars are filtered; rest of output is reused.
+     * Source is returned as is without comparing or copying it when none of its chars needs replacing.
+     */
+    public CharSequence filter(CharSequence source, int start, int before, int count) {
+        final int sourceLength = source.length();
+        if (source != mLastSource || mOutOffsets == null ||
+                mOutOffsets.length - 1 - before + count != sourceLength ||
+                start < 0 || start + before > mOutOffsets.length - 1) {
+            StringBuilder output = new StringBuilder(sourceLength);
+            int[] offsets = new int[sourceLength + 1];
+            boolean[] replaced = new boolean[sourceLength];
+            mReplacedCount = filterRange(source, 0, sourceLength, output, offsets, replaced, 0);
+            offsets[sourceLength] = output.length();
+            mLastSource = source;
+            mLastOutput = output;
+            mOutOffsets = offsets;
+            mReplaced = replaced;
+        } else {
+            final int[] oldOffsets = mOutOffsets;
+            final int outStart = oldOffsets[start];
+            final int outEnd = oldOffsets[start + before];
+            StringBuilder edited = new StringBuilder(count);
+            int[] offsets = new int[sourceLength + 1];
+            System.arraycopy(oldOffsets, 0, offsets, 0, start);
+            final boolean[] oldReplaced = mReplaced;
+            boolean[] replaced = new boolean[sourceLength];
+            System.arraycopy(oldReplaced, 0, replaced, 0, start);
+            System.arraycopy(oldReplaced, start + before, replaced, start + count,
+                    sourceLength - start - count);
+            for (int i = start; i < start + before; i++) {
+                if (oldReplaced[i]) mReplacedCount--;
             }
+            mReplacedCount += filterRange(source, start, start + count, edited, offsets, replaced, start);
+            for (int i = start; i < start + count; i++) {
+                offsets[i] += outStart;
+            }
+            final int delta = outStart + edited.length() - outEnd;
+            for (int i = start + count; i <= sourceLength; i++) {
+                offsets[i] = oldOffsets[i - count + before] + delta;
+            }
+            mLastOutput.replace(outStart, outEnd, edited.toString());
+            mOutOffsets = offsets;
+            mReplaced = replaced;
         }
 
+        if (mReplacedCount == 0) {
+            return source;
+        }
+        return createOutput(source, mLastOutput, mOutOffsets);
+    }
+
+    private static CharSequence createOutput(CharSequence source, CharSequence output, int[] offsets) {
         // Source is a spanned string, so copy the spans from it
+        // mapping their boundaries to positions in the output
         if (source instanceof Spanned) {
-            SpannableString spannedoutput = new SpannableString(output);
-            TextUtils.copySpansFrom(
-                    (Spanned) source, 0, sourceLength, null, spannedoutput, 0);
-
-            return spannedoutput;
+            final Spanned spanned = (Spanned) source;
+            SpannableString spannedOutput = new SpannableString(output);
+            Object[] spans = spanned.getSpans(0, source.length(), Object.class);
+            for (Object span : spans) {
+                final int st = offsets[spanned.getSpanStart(span)];
+                final int en = offsets[spanned.getSpanEnd(span)];
+                spannedOutput.setSpan(span, st, en, spanned.getSpanFlags(span));
+            }
+            return spannedOutput;
         }
 
         // Source is a vanilla charsequence, so return output as-is
@@ -78,12 +78,24 @@ public class WifiManagerWrapper {
         registerApStateChangeReceiver();
     }
 
+    public void removeWifiApStateChangeListener() {
+        mApStateChangeListener = null;
+        if (mApStateChangeReceiver != null) {
+            mContext.unregisterReceiver(mApStateChangeReceiver);
+            mApStateChangeReceiver = null;
+        }
+    }
+
     public void setWifiStateChangeListener(WifiStateChangeListener listener) {
         if (listener != null) {
             mWifiStateChangeListener = listener;
         }
     }
 
+    public void removeWifiStateChangeListener() {
+        mWifiStateChangeListener = null;
+    }
+
     private void registerApStateChangeReceiver() {
         if (mContext == null || mApStateChangeReceiver != null)
             return;
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox.ledcontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.ceco.gm2.gravitybox.ModLedControl;
+
+/**
+ * Case insensitive matcher of comma separated keyword list.
+ * Plain keywords match anywhere in the text. With extended syntax keywords enclosed
+ * in double quotes match whole words only and keywords prefixed with "re:" are regular
+ * expressions. Plain and whole word keywords are compiled to Aho-Corasick automaton so that
+ * text is scanned in a single pass with characters case folded on the fly.
+ */
+public class KeywordMatcher {
+    // keyword lists stored before extended syntax existed keep plain substring semantics
+    public static final int SYNTAX_PLAIN = 1;
+    public static final int SYNTAX_EXTENDED = 2;
+
+    private static final String REGEX_PREFIX = "re:";
+
+    // automaton nodes; transitions of each node are sorted by character
+    private char[][] mChars;
+    private int[][] mNext;
+    private int[] mFail;
+    // keywords ending in node including those reachable through failure links
+    private int[][] mOutputs;
+    private int[] mKeywordLengths;
+    private boolean[] mWholeWord;
+    private Pattern[] mPatterns;
+    // empty plain keyword is contained in any text
+    private boolean mMatchesEmpty;
+
+    private static final class Node {
+        final List<Character> chars = new ArrayList<Character>();
+        final List<Node> next = new ArrayList<Node>();
+        final List<Integer> outputs = new ArrayList<Integer>();
+        int index;
+        Node fail;
+
+        Node get(char c) {
+            int i = chars.indexOf(c);
+            return (i < 0 ? null : next.get(i));
+        }
+    }
+
+    /**
+     * Compiles keyword list.
+     * @param syntax SYNTAX_PLAIN or SYNTAX_EXTENDED
+     * @return matcher or null if list contains no keywords
+     */
+    public static KeywordMatcher compile(String keywordList, int syntax) {
+        if (keywordList == null) return null;
+        if (syntax < SYNTAX_EXTENDED) {
+            return compilePlain(keywordList);
+        }
+
+        List<String> keywords = new ArrayList<String>();
+        List<Boolean> wholeWord = new ArrayList<Boolean>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String kw : keywordList.split(",")) {
+            kw = kw.trim();
+            if (kw.startsWith(REGEX_PREFIX) && kw.length() > REGEX_PREFIX.length()) {
+                try {
+                    patterns.add(Pattern.compile(kw.substring(REGEX_PREFIX.length()),
+                            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+                    continue;
+                } catch (PatternSyntaxException e) {
+                    if (ModLedControl.DEBUG) ModLedControl.log("Invalid keyword pattern: " + kw);
+                }
+            }
+            boolean quoted = kw.length() > 2 && kw.startsWith("\"") && kw.endsWith("\"");
+            if (quoted) {
+                kw = kw.substring(1, kw.length() - 1);
+            }
+            if (kw.isEmpty()) continue;
+            keywords.add(kw);
+            wholeWord.add(quoted);
+        }
+        if (keywords.isEmpty() && patterns.isEmpty()) return null;
+
+        KeywordMatcher matcher = new KeywordMatcher();
+        matcher.mPatterns = patterns.toArray(new Pattern[patterns.size()]);
+        matcher.build(keywords, wholeWord);
+        return matcher;
+    }
+
+    /**
+     * Keywords are used as they are without trimming, quotes or patterns.
+     */
+    private static KeywordMatcher compilePlain(String keywordList) {
+        keywordList = keywordList.trim();
+        if (keywordList.isEmpty()) return null;
+
+        List<String> keywords = new ArrayList<String>();
+        List<Boolean> wholeWord = new ArrayList<Boolean>();
+        KeywordMatcher matcher = new KeywordMatcher();
+        for (String kw : keywordList.split(",")) {
+            if (kw.isEmpty()) {
+                matcher.mMatchesEmpty = true;
+            } else {
+                keywords.add(kw);
+                wholeWord.add(false);
+            }
+        }
+        matcher.mPatterns = new Pattern[0];
+        matcher.build(keywords, wholeWord);
+        return matcher;
+    }
+
+    private KeywordMatcher() { }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private void build(List<String> keywords, List<Boolean> wholeWord) {
+        mKeywordLengths = new int[keywords.size()];
+        mWholeWord = new boolean[keywords.size()];
+
+        Node root = new Node();
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        for (int k = 0; k < keywords.size(); k++) {
+            String kw = keywords.get(k);
+            mKeywordLengths[k] = kw.length();
+            mWholeWord[k] = wholeWord.get(k);
+            Node node = root;
+            for (int i = 0; i < kw.length(); i++) {
+                char c = fold(kw.charAt(i));
+                Node next = node.get(c);
+                if (next == null) {
+                    next = new Node();
+                    next.index = nodes.size();
+                    nodes.add(next);
+                    node.chars.add(c);
+                    node.next.add(next);
+                }
+                node = next;
+            }
+            node.outputs.add(k);
+        }
+
+        // breadth first traversal guarantees failure node of each node is complete
+        // before the node itself so its outputs can be merged
+        Queue<Node> queue = new LinkedList<Node>();
+        root.fail = root;
+        for (Node child : root.next) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (int i = 0; i < node.chars.size(); i++) {
+                char c = node.chars.get(i);
+                Node child = node.next.get(i);
+                Node f = node.fail;
+                while (f != root && f.get(c) == null) {
+                    f = f.fail;
+                }
+                Node target = f.get(c);
+                child.fail = (target == null ? root : target);
+                child.outputs.addAll(child.fail.outputs);
+                queue.add(child);
+            }
+        }
+
+        final int count = nodes.size();
+        mChars = new char[count][];
+        mNext = new int[count][];
+        mFail = new int[count];
+        mOutputs = new int[count][];
+        for (Node node : nodes) {
+            final int n = node.chars.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            final Node sorted = node;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return sorted.chars.get(lhs) - sorted.chars.get(rhs);
+                }
+            });
+            mChars[node.index] = new char[n];
+            mNext[node.index] = new int[n];
+            for (int i = 0; i < n; i++) {
+                mChars[node.index][i] = node.chars.get(order[i]);
+                mNext[node.index][i] = node.next.get(order[i]).index;
+            }
+            mFail[node.index] = node.fail.index;
+            mOutputs[node.index] = new int[node.outputs.size()];
+            for (int i = 0; i < node.outputs.size(); i++) {
+                mOutputs[node.index][i] = node.outputs.get(i);
+            }
+        }
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(mChars[state], c);
+            if (i >= 0) return mNext[state][i];
+            if (state == 0) return 0;
+            state = mFail[state];
+        }
+    }
+
+    private static boolean isWordChar(CharSequence text, int index) {
+        return (index >= 0 && index < text.length() &&
+                Character.isLetterOrDigit(text.charAt(index)));
+    }
+
+    public boolean matches(CharSequence text) {
+        if (text == null) return false;
+        if (mMatchesEmpty) return true;
+
+        if (mChars.length > 1) {
+            int state = 0;
+            final int length = text.length();
+            for (int pos = 0; pos < length; pos++) {
+                state = step(state, fold(text.charAt(pos)));
+                for (int k : mOutputs[state]) {
+                    if (!mWholeWord[k] || (!isWordChar(text, pos - mKeywordLengths[k]) &&
+                            !isWordChar(text, pos + 1))) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        for (Pattern p : mPatterns) {
+            if (p.matcher(text).find()) return true;
+        }
+
+        return false;
+    }
+
+    public boolean matchesAny(CharSequence text, List<String> texts) {
+        if (matches(text)) return true;
+        for (int i = 0; i < texts.size(); i++) {
+            if (matches(texts.get(i))) return true;
+        }
+        return false;
+    }
+}
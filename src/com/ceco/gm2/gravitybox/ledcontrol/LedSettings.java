@@ -60,6 +60,9 @@ public class LedSettings {
     private LedMode mLedMode;
     private boolean mQhIgnore;
     private String mQhIgnoreList;
+    private int mQhIgnoreListSyntax;
+    private KeywordMatcher mQhIgnoreMatcher;
+    private boolean mQhIgnoreMatcherCompiled;
     private boolean mProgressTracking;
     private boolean mSoundToVibrateDisabled;
 
@@ -128,6 +131,8 @@ public class LedSettings {
                 ls.setQhIgnore(Boolean.valueOf(data[1]));
             } else if (data[0].equals("qhIgnoreList")) {
                 ls.setQhIgnoreList(data[1]);
+            } else if (data[0].equals("qhIgnoreListSyntax")) {
+                ls.setQhIgnoreListSyntax(Integer.valueOf(data[1]));
             } else if (data[0].equals("progressTracking")) {
                 ls.setProgressTracking(Boolean.valueOf(data[1]));
             } else if (data[0].equals("soundToVibrateDisabled")) {
@@ -163,6 +168,7 @@ public class LedSettings {
         mLedMode = LedMode.OVERRIDE;
         mQhIgnore = false;
         mQhIgnoreList = null;
+        mQhIgnoreListSyntax = KeywordMatcher.SYNTAX_PLAIN;
         mProgressTracking = false;
         mSoundToVibrateDisabled = false;
     }
@@ -322,8 +328,16 @@ public class LedSettings {
         mQhIgnore = ignore;
     }
 
-    protected void setQhIgnoreList(String ignoreList) {
+    protected synchronized void setQhIgnoreList(String ignoreList) {
         mQhIgnoreList = ignoreList;
+        mQhIgnoreMatcher = null;
+        mQhIgnoreMatcherCompiled = false;
+    }
+
+    protected synchronized void setQhIgnoreListSyntax(int syntax) {
+        mQhIgnoreListSyntax = syntax;
+        mQhIgnoreMatcher = null;
+        mQhIgnoreMatcherCompiled = false;
     }
 
     protected void setProgressTracking(boolean tracking) {
@@ -416,6 +430,18 @@ public class LedSettings {
         return mQhIgnoreList;
     }
 
+    /**
+     * Returns matcher compiled from QH ignore list on first use
+     * or null if ignore list contains no keywords.
+     */
+    public synchronized KeywordMatcher getQhIgnoreMatcher() {
+        if (!mQhIgnoreMatcherCompiled) {
+            mQhIgnoreMatcher = KeywordMatcher.compile(mQhIgnoreList, mQhIgnoreListSyntax);
+            mQhIgnoreMatcherCompiled = true;
+        }
+        return mQhIgnoreMatcher;
+    }
+
     public boolean getProgressTracking() {
         return mProgressTracking;
     }
@@ -448,6 +474,7 @@ public class LedSettings {
             dataSet.add("qhIgnore:" + mQhIgnore);
             if (mQhIgnoreList != null) {
                 dataSet.add("qhIgnoreList:" + mQhIgnoreList);
+                dataSet.add("qhIgnoreListSyntax:" + mQhIgnoreListSyntax);
             }
             dataSet.add("progressTracking:" + mProgressTracking);
             dataSet.add("soundToVibrateDisabled:" + mSoundToVibrateDisabled);
@@ -31,6 +31,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -195,7 +196,12 @@ public class LedSettingsActivity extends Activity implements OnClickListener {
         mLedSettings.setActiveScreenMode(mPrefsFragment.getActiveScreenMode());
         mLedSettings.setLedMode(mPrefsFragment.getLedMode());
         mLedSettings.setQhIgnore(mPrefsFragment.getQhIgnore());
-        mLedSettings.setQhIgnoreList(mPrefsFragment.getQhIgnoreList());
+        final String qhIgnoreList = mPrefsFragment.getQhIgnoreList();
+        if (!TextUtils.equals(qhIgnoreList, mLedSettings.getQhIgnoreList())) {
+            // list edited by user follows syntax described by preference summary
+            mLedSettings.setQhIgnoreList(qhIgnoreList);
+            mLedSettings.setQhIgnoreListSyntax(KeywordMatcher.SYNTAX_EXTENDED);
+        }
         mLedSettings.setProgressTracking(mPrefsFragment.getProgressTracking());
         mLedSettings.setSoundToVibrateDisabled(mPrefsFragment.getSoundToVibrateDisabled());
         mLedSettings.setVibrateReplace(mPrefsFragment.getVibrateReplace());
@@ -14,26 +14,17 @@
  */
 package com.ceco.gm2.gravitybox.ledcontrol;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
 
 import android.app.Notification;
 import android.content.SharedPreferences;
-import android.os.Parcel;
-import android.os.Parcelable;
-import android.text.TextUtils;
-import android.widget.RemoteViews;
 
 import com.ceco.gm2.gravitybox.ModLedControl;
-import com.ceco.gm2.gravitybox.Utils;
-
-import de.robv.android.xposed.XposedBridge;
-import de.robv.android.xposed.XposedHelpers;
+import com.ceco.gm2.gravitybox.RemoteViewsDecoder;
 
 public class QuietHours {
     public enum Mode { ON, OFF, AUTO };
@@ -62,6 +53,19 @@ public class QuietHours {
     Set<String> weekDays;
     public boolean muteSystemVibe;
 
+    private QuietHoursSchedule mSchedule;
+    private volatile MinuteOfWeek mCurrentMinute;
+
+    private static final class MinuteOfWeek {
+        final long startMs;
+        final int index;
+
+        MinuteOfWeek(long startMs, int index) {
+            this.startMs = startMs;
+            this.index = index;
+        }
+    }
+
     public QuietHours(SharedPreferences prefs) {
         uncLocked = prefs.getBoolean(QuietHoursActivity.PREF_KEY_QH_LOCKED, false);
         enabled = prefs.getBoolean(QuietHoursActivity.PREF_KEY_QH_ENABLED, false);
@@ -79,26 +83,22 @@ public class QuietHours {
         weekDays = prefs.getStringSet(QuietHoursActivity.PREF_KEY_QH_WEEKDAYS,
                 new HashSet<String>(Arrays.asList("2","3","4","5","6")));
         muteSystemVibe = prefs.getBoolean(QuietHoursActivity.PREF_KEY_MUTE_SYSTEM_VIBE, false);
+
+        if (!uncLocked && enabled && mode == Mode.AUTO) {
+            mSchedule = new QuietHoursSchedule(start, end, startAlt, endAlt, weekDays);
+        }
     }
 
     public boolean quietHoursActive(LedSettings ls, Notification n, boolean userPresent) {
         if (uncLocked || !enabled) return false;
 
         if (ls.getEnabled() && ls.getQhIgnore()) {
-            if (ls.getQhIgnoreList() == null || ls.getQhIgnoreList().trim().isEmpty()) {
+            final KeywordMatcher matcher = ls.getQhIgnoreMatcher();
+            if (matcher == null) {
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignored for all notifications");
                 return false;
             } else {
-                List<String> notifTexts = getNotificationTexts(n);
-                String[] keywords = ls.getQhIgnoreList().trim().split(",");
-                boolean ignore = false;
-                for (String kw : keywords) {
-                    kw = kw.toLowerCase();
-                    ignore |= n.tickerText != null && n.tickerText.toString().toLowerCase().contains(kw);
-                    for (String notifText : notifTexts) {
-                        ignore |= notifText.toLowerCase().contains(kw);
-                    }
-                }
+                boolean ignore = matcher.matchesAny(n.tickerText, getNotificationTexts(n));
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignore list contains keyword?: " + ignore);
                 return (ignore ? false : (quietHoursActive() || (interactive && userPresent)));
             }
@@ -114,119 +114,37 @@ public class QuietHours {
             return (mode == Mode.ON ? true : false);
         }
 
-        Calendar c = new GregorianCalendar();
-        c.setTimeInMillis(System.currentTimeMillis());
-        int curMin = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
-        int dayOfWeek = c.get(Calendar.DAY_OF_WEEK);
-        int s = start; 
-        int e = end;
-        if (!weekDays.contains(String.valueOf(dayOfWeek))) {
-            s = startAlt;
-            e = endAlt;
-        }
-
-        // special logic for transition from week day to weekend and vice versa
-        // we assume people stay up longer before weekend  
-        if (isTransitionToWeekend(dayOfWeek)) {
-            if (curMin > end) {
-                // we are after previous QH
-                if (startAlt > endAlt) {
-                    // weekend range spans midnight
-                    // let's apply weekend start time instead
-                    s = startAlt;
-                    if (ModLedControl.DEBUG) ModLedControl.log("Applying weekend start time for day before weekend");
-                } else {
-                    // weekend range happens on the next day
-                    if (ModLedControl.DEBUG) ModLedControl.log("Ignoring quiet hours for day before weekend");
-                    return false;
-                }
-            }
+        final long now = System.currentTimeMillis();
+        MinuteOfWeek m = mCurrentMinute;
+        if (m == null || now < m.startMs || now >= m.startMs + 60000) {
+            // time zone might have changed since the last time
+            m = new MinuteOfWeek(now - now % 60000,
+                    QuietHoursSchedule.getMinuteOfWeek(now, TimeZone.getDefault()));
+            mCurrentMinute = m;
         }
-        // we assume people go to sleep earlier before week day
-        if (isTransitionToWeekDay(dayOfWeek)) {
-            if (curMin > endAlt) {
-                // we are after previous QH
-                if (start > end) {
-                    // weekday range spans midnight
-                    // let's apply weekday start time instead
-                    s = start;
-                    if (ModLedControl.DEBUG) ModLedControl.log("Applying weekday start time for day before weekday");
-                } else {
-                    // weekday range happens on the next day
-                    if (ModLedControl.DEBUG) ModLedControl.log("Ignoring quiet hours for day before weekday");
-                    return false;
-                }
-            }
-        }
-
-        return (Utils.isTimeOfDayInRange(System.currentTimeMillis(), s, e));
+        return mSchedule.isActive(m.index);
     }
 
-    public boolean isSystemSoundMuted(String systemSound) {
-        return (muteSystemSounds.contains(systemSound) && quietHoursActive());
+    /**
+     * Returns the time in milliseconds at which result of quietHoursActive() changes next
+     * or Long.MAX_VALUE if it doesn't change with time.
+     */
+    public long getNextTransitionTime() {
+        return getNextTransitionTime(System.currentTimeMillis());
     }
 
-    private boolean isTransitionToWeekend(int day) {
-        int nextDay = (day==7 ? 1 : day+1);
-        return (weekDays.contains(String.valueOf(day)) &&
-                    !weekDays.contains(String.valueOf(nextDay)));
+    public long getNextTransitionTime(long now) {
+        if (uncLocked || !enabled || mode != Mode.AUTO) return Long.MAX_VALUE;
+
+        return mSchedule.getNextTransitionTime(now, TimeZone.getDefault());
     }
 
-    private boolean isTransitionToWeekDay(int day) {
-        int nextDay = (day==7 ? 1 : day+1);
-        return (!weekDays.contains(String.valueOf(day)) &&
-                    weekDays.contains(String.valueOf(nextDay)));
+    public boolean isSystemSoundMuted(String systemSound) {
+        return (muteSystemSounds.contains(systemSound) && quietHoursActive());
     }
 
     private List<String> getNotificationTexts(Notification notification) {
-        List<String> texts = new ArrayList<String>();
-
-        // We have to extract the information from the content view
-        RemoteViews views = notification.bigContentView;
-        if (views == null) views = notification.contentView;
-        if (views == null) return texts;
-
-        try {
-            // Get the mActions member of the given RemoteViews object.
-            @SuppressWarnings("unchecked")
-            List<Parcelable> actions = (List<Parcelable>) 
-                XposedHelpers.getObjectField(views, "mActions");
-            if (actions == null) return texts;
-
-            // Find the setText() actions
-            for (Parcelable p : actions) {
-                Parcel parcel = Parcel.obtain();
-                p.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
-
-                // The tag tells which type of action it is (2 is ReflectionAction)
-                int tag = parcel.readInt();
-                if (tag != 2)  {
-                    parcel.recycle();
-                    continue;
-                }
-
-                // Skip View ID
-                parcel.readInt();
-
-                // Get method name
-                String methodName = parcel.readString();
-                if ("setText".equals(methodName)) {
-                    // Skip Parameter type (10 = Character Sequence)
-                    parcel.readInt();
-
-                    // Store the actual string
-                    String t = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(parcel).toString().trim();
-                    if (t != null) {
-                        texts.add(t);
-                    }
-                }
-
-                parcel.recycle();
-            }
-        } catch (Throwable  t) {
-            XposedBridge.log(t);
-        }
+        List<String> texts = RemoteViewsDecoder.decode(notification).texts;
 
         if (ModLedControl.DEBUG) {
             for (String text : texts) {
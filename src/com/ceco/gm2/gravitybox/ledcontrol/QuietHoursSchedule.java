@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox.ledcontrol;
+
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Quiet hours AUTO mode schedule compiled to bitmap of minutes of week.
+ * Schedule is evaluated against local wall clock time of the supplied time zone.
+ */
+public class QuietHoursSchedule {
+    static final int MINUTES_PER_DAY = 1440;
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final long MINUTE_MS = 60000;
+    // 1 Jan 1970 was Thursday
+    private static final int EPOCH_DAY_OF_WEEK = 4;
+
+    private final int mStart;
+    private final int mEnd;
+    private final int mStartAlt;
+    private final int mEndAlt;
+    private final boolean[] mIsWeekDay = new boolean[8];
+    // Sunday 00:00 being bit 0
+    private final long[] mSchedule = new long[(MINUTES_PER_WEEK + 63) / 64];
+    private final boolean mEmpty;
+    private final boolean mFull;
+
+    /**
+     * @param weekDays days of week considered week days as Calendar.DAY_OF_WEEK strings
+     */
+    public QuietHoursSchedule(int start, int end, int startAlt, int endAlt, Set<String> weekDays) {
+        mStart = start;
+        mEnd = end;
+        mStartAlt = startAlt;
+        mEndAlt = endAlt;
+        for (int day = 1; day <= 7; day++) {
+            mIsWeekDay[day] = weekDays.contains(String.valueOf(day));
+        }
+
+        int count = 0;
+        for (int day = 1; day <= 7; day++) {
+            for (int curMin = 0; curMin < MINUTES_PER_DAY; curMin++) {
+                if (isScheduled(day, curMin)) {
+                    int i = (day - 1) * MINUTES_PER_DAY + curMin;
+                    mSchedule[i >> 6] |= 1L << i;
+                    count++;
+                }
+            }
+        }
+        mEmpty = (count == 0);
+        mFull = (count == MINUTES_PER_WEEK);
+    }
+
+    /**
+     * Returns minute of week of local wall clock time, Sunday 00:00 being 0.
+     */
+    public static int getMinuteOfWeek(long timeMs, TimeZone tz) {
+        final long localMin = floorDiv(timeMs + tz.getOffset(timeMs), MINUTE_MS);
+        final long day = floorDiv(localMin, MINUTES_PER_DAY);
+        final int dayOfWeek = (int) ((day + EPOCH_DAY_OF_WEEK) % 7 + 7) % 7;
+        return dayOfWeek * MINUTES_PER_DAY + (int) (localMin - day * MINUTES_PER_DAY);
+    }
+
+    public boolean isActive(long timeMs, TimeZone tz) {
+        return isActive(getMinuteOfWeek(timeMs, tz));
+    }
+
+    public boolean isActive(int minuteOfWeek) {
+        return (mSchedule[minuteOfWeek >> 6] & (1L << minuteOfWeek)) != 0;
+    }
+
+    /**
+     * Returns the time in milliseconds at which result of isActive() changes next
+     * or Long.MAX_VALUE if it doesn't change with time.
+     */
+    public long getNextTransitionTime(long now, TimeZone tz) {
+        if (mEmpty || mFull) return Long.MAX_VALUE;
+
+        // step in real time rather than wall clock time so that minutes skipped
+        // or repeated by DST changes are accounted for
+        final long minuteStart = floorDiv(now, MINUTE_MS) * MINUTE_MS;
+        final boolean active = isActive(minuteStart, tz);
+        // transition is at most a week away plus an hour possibly repeated by DST change
+        final int maxSteps = MINUTES_PER_WEEK + 2 * 60;
+        for (int k = 1; k <= maxSteps; k++) {
+            final long t = minuteStart + k * MINUTE_MS;
+            if (isActive(t, tz) != active) {
+                return t;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    private boolean isScheduled(int dayOfWeek, int curMin) {
+        int s = mStart;
+        int e = mEnd;
+        if (!mIsWeekDay[dayOfWeek]) {
+            s = mStartAlt;
+            e = mEndAlt;
+        }
+
+        // special logic for transition from week day to weekend and vice versa
+        // we assume people stay up longer before weekend
+        if (isTransitionToWeekend(dayOfWeek)) {
+            if (curMin > mEnd) {
+                // we are after previous QH
+                if (mStartAlt > mEndAlt) {
+                    // weekend range spans midnight
+                    // let's apply weekend start time instead
+                    s = mStartAlt;
+                } else {
+                    // weekend range happens on the next day
+                    return false;
+                }
+            }
+        }
+        // we assume people go to sleep earlier before week day
+        if (isTransitionToWeekDay(dayOfWeek)) {
+            if (curMin > mEndAlt) {
+                // we are after previous QH
+                if (mStart > mEnd) {
+                    // weekday range spans midnight
+                    // let's apply weekday start time instead
+                    s = mStart;
+                } else {
+                    // weekday range happens on the next day
+                    return false;
+                }
+            }
+        }
+
+        return isMinuteOfDayInRange(curMin, s, e);
+    }
+
+    private boolean isTransitionToWeekend(int day) {
+        int nextDay = (day==7 ? 1 : day+1);
+        return (mIsWeekDay[day] && !mIsWeekDay[nextDay]);
+    }
+
+    private boolean isTransitionToWeekDay(int day) {
+        int nextDay = (day==7 ? 1 : day+1);
+        return (!mIsWeekDay[day] && mIsWeekDay[nextDay]);
+    }
+
+    private static boolean isMinuteOfDayInRange(int timeMin, int startMin, int endMin) {
+        if (startMin == endMin) {
+            return false;
+        } else if (startMin > endMin) {
+            return (timeMin >= startMin || timeMin < endMin);
+        } else {
+            return (timeMin >= startMin && timeMin < endMin);
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) r--;
+        return r;
+    }
+}
@@ -37,6 +37,7 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
     private Context mContext;
     private XSharedPreferences mPrefs;
     private QuietHours mQuietHours;
+    private boolean mQuietHoursActive;
     private List<QuietHoursListener> mListeners;
 
     public interface QuietHoursListener {
@@ -63,9 +64,14 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         final String action = intent.getAction();
-        if (action.equals(Intent.ACTION_TIME_TICK) ||
-                action.equals(Intent.ACTION_TIME_CHANGED) ||
+        if (action.equals(Intent.ACTION_TIME_TICK)) {
+            // notify only when quiet hours state actually changed
+            if (updateQuietHoursActive()) {
+                notifyTimeTick();
+            }
+        } else if (action.equals(Intent.ACTION_TIME_CHANGED) ||
                 action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+            updateQuietHoursActive();
             notifyTimeTick();
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
             refreshState();
@@ -97,11 +103,19 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
                 mPrefs.reload();
             }
             mQuietHours = new QuietHours(mPrefs);
+            updateQuietHoursActive();
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
     }
 
+    private boolean updateQuietHoursActive() {
+        final boolean active = mQuietHours != null && mQuietHours.quietHoursActive();
+        final boolean changed = active != mQuietHoursActive;
+        mQuietHoursActive = active;
+        return changed;
+    }
+
     private void notifyTimeTick() {
         for (QuietHoursListener l : mListeners) {
             l.onTimeTick();
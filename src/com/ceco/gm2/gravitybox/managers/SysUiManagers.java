@@ -1,14 +1,13 @@
 package com.ceco.gm2.gravitybox.managers;
 
+import com.ceco.gm2.gravitybox.BroadcastEventBus;
 import com.ceco.gm2.gravitybox.GravityBoxSettings;
 import com.ceco.gm2.gravitybox.ledcontrol.QuietHoursActivity;
 
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 
 public class SysUiManagers {
     private static final String TAG = "GB:SysUiManagers";
@@ -17,6 +16,8 @@ public class SysUiManagers {
     public static StatusBarIconManager IconManager;
     public static StatusbarQuietHoursManager QuietHoursManager;
 
+    private static BroadcastEventBus sEventBus;
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
@@ -48,35 +49,23 @@ public class SysUiManagers {
             XposedBridge.log(t);
         }
 
-        IntentFilter intentFilter = new IntentFilter();
-        // battery info manager
-        intentFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
-        intentFilter.addAction(GravityBoxSettings.ACTION_PREF_BATTERY_SOUND_CHANGED);
-
-        // icon manager
-        intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_COLOR_CHANGED);
-
-        // quiet hours manager
-        intentFilter.addAction(Intent.ACTION_TIME_TICK);
-        intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
-        intentFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
-        intentFilter.addAction(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED);
-
-        context.registerReceiver(sBroadcastReceiver, intentFilter);
-    }
-
-    private static BroadcastReceiver sBroadcastReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (BatteryInfoManager != null) {
-                BatteryInfoManager.onBroadcastReceived(context, intent);
-            }
-            if (IconManager != null) {
-                IconManager.onBroadcastReceived(context, intent);
-            }
-            if (QuietHoursManager != null) {
-                QuietHoursManager.onBroadcastReceived(context, intent);
-            }
+        sEventBus = new BroadcastEventBus(TAG);
+        if (BatteryInfoManager != null) {
+            sEventBus.subscribe(BatteryInfoManager, BroadcastEventBus.DELIVERY_MAIN,
+                    Intent.ACTION_BATTERY_CHANGED,
+                    GravityBoxSettings.ACTION_PREF_BATTERY_SOUND_CHANGED);
+        }
+        if (IconManager != null) {
+            sEventBus.subscribe(IconManager, BroadcastEventBus.DELIVERY_MAIN,
+                    GravityBoxSettings.ACTION_PREF_STATUSBAR_COLOR_CHANGED);
         }
-    };
+        if (QuietHoursManager != null) {
+            sEventBus.subscribe(QuietHoursManager, BroadcastEventBus.DELIVERY_MAIN,
+                    Intent.ACTION_TIME_TICK,
+                    Intent.ACTION_TIME_CHANGED,
+                    Intent.ACTION_TIMEZONE_CHANGED,
+                    QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED);
+        }
+        sEventBus.register(context);
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.gm2.gravitybox.preference;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Process-wide index of launchable and shortcut-provider activities shared by all
+ * AppPickerPreference instances. Filled by a single bulk query per mode and kept
+ * up to date incrementally from package broadcasts processed one at a time in background.
+ * Builds and updates run on executor of the index so they neither wait for nor delay
+ * unrelated AsyncTasks of the process.
+ * Dropped on locale change so that labels and their sort order get rebuilt.
+ */
+public class AppPickerIndex {
+    private static final String TAG = "GB:AppPickerIndex";
+    private static final long EXECUTOR_KEEP_ALIVE = 30;
+
+    private static AppPickerIndex sInstance;
+
+    public static final class Entry {
+        public final ResolveInfo resolveInfo;
+        public final String label;
+        private final CollationKey mSortKey;
+
+        private Entry(ResolveInfo ri, String label, Collator collator) {
+            resolveInfo = ri;
+            this.label = label;
+            mSortKey = collator.getCollationKey(label);
+        }
+    }
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.mSortKey.compareTo(rhs.mSortKey);
+        }
+    };
+
+    private final PackageManager mPackageManager;
+    private final ThreadPoolExecutor mExecutor;
+    // guarded by mEntries
+    private Collator mCollator = Collator.getInstance();
+    // indexed by AppPickerPreference mode; null until first requested
+    private final List<List<Entry>> mEntries = new ArrayList<List<Entry>>(
+            Collections.<List<Entry>>nCopies(2, null));
+
+    public static synchronized AppPickerIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppPickerIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppPickerIndex(Context context) {
+        mPackageManager = context.getPackageManager();
+        mExecutor = new ThreadPoolExecutor(1, 1, EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, intentFilter);
+        context.registerReceiver(mPackageReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    private BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // ResolveInfo queries are IPC and the index might be locked by bulk query
+            // so don't touch it on the main thread;
+            // updates are serialized so that they are applied in order of broadcasts
+            if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        invalidate();
+                    }
+                });
+                return;
+            }
+
+            final Uri data = intent.getData();
+            final String pkgName = (data == null ? null : data.getSchemeSpecificPart());
+            if (pkgName == null) return;
+
+            final boolean removed = Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction()) &&
+                    !intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    updatePackage(pkgName, removed);
+                }
+            });
+        }
+    };
+
+    private static Intent createQueryIntent(int mode) {
+        Intent intent = new Intent();
+        if (mode == AppPickerPreference.MODE_SHORTCUT) {
+            intent.setAction(Intent.ACTION_CREATE_SHORTCUT);
+        } else {
+            intent.setAction(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        }
+        return intent;
+    }
+
+    private List<Entry> createEntries(List<ResolveInfo> riList) {
+        List<Entry> entries = new ArrayList<Entry>(riList.size());
+        for (ResolveInfo ri : riList) {
+            entries.add(new Entry(ri, ri.loadLabel(mPackageManager).toString(), mCollator));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns single thread executor the index is built and updated on.
+     * Tasks calling getEntries() should run on it to keep them in order with package updates.
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Returns immutable list of entries for given mode sorted by label.
+     * Might perform bulk package manager query so it should not be called from the main thread.
+     */
+    public List<Entry> getEntries(int mode) {
+        synchronized (mEntries) {
+            List<Entry> entries = mEntries.get(mode);
+            if (entries == null) {
+                List<Entry> list = createEntries(
+                        mPackageManager.queryIntentActivities(createQueryIntent(mode), 0));
+                Collections.sort(list, ENTRY_COMPARATOR);
+                entries = Collections.unmodifiableList(list);
+                mEntries.set(mode, entries);
+            }
+            return entries;
+        }
+    }
+
+    // labels and their collation keys depend on locale so entries are rebuilt on next request
+    private void invalidate() {
+        synchronized (mEntries) {
+            mCollator = Collator.getInstance();
+            for (int mode = 0; mode < mEntries.size(); mode++) {
+                mEntries.set(mode, null);
+            }
+        }
+    }
+
+    private void updatePackage(String pkgName, boolean removed) {
+        try {
+            synchronized (mEntries) {
+                for (int mode = 0; mode < mEntries.size(); mode++) {
+                    List<Entry> oldEntries = mEntries.get(mode);
+                    if (oldEntries == null) continue;
+
+                    List<Entry> list = new ArrayList<Entry>(oldEntries.size());
+                    for (Entry e : oldEntries) {
+                        if (!pkgName.equals(e.resolveInfo.activityInfo.packageName)) {
+                            list.add(e);
+                        }
+                    }
+                    if (!removed) {
+                        Intent intent = createQueryIntent(mode);
+                        intent.setPackage(pkgName);
+                        list.addAll(createEntries(mPackageManager.queryIntentActivities(intent, 0)));
+                    }
+                    Collections.sort(list, ENTRY_COMPARATOR);
+                    mEntries.set(mode, Collections.unmodifiableList(list));
+                }
+            }
+        } catch (Throwable t) {
+            Log.e(TAG, "Error updating index for package " + pkgName + ": " + t.getMessage());
+        }
+    }
+}
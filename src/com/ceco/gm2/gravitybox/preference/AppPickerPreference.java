@@ -23,16 +23,15 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import com.ceco.gm2.gravitybox.AppIconCache;
 import com.ceco.gm2.gravitybox.GravityBoxSettings.PrefsFragment;
 import com.ceco.gm2.gravitybox.GravityBoxSettings.PrefsFragment.IconPickHandler;
 import com.ceco.gm2.gravitybox.GravityBoxSettings.PrefsFragment.ShortcutHandler;
 import com.ceco.gm2.gravitybox.R;
-import com.ceco.gm2.gravitybox.Utils;
 import com.ceco.gm2.gravitybox.adapters.BasicIconListItem;
 import com.ceco.gm2.gravitybox.adapters.IIconListAdapterItem;
 import com.ceco.gm2.gravitybox.adapters.IconListAdapter;
@@ -46,7 +45,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
@@ -62,7 +60,6 @@ import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
@@ -114,17 +111,6 @@ public class AppPickerPreference extends DialogPreference
     private String mValue;
     private boolean mAllowUnlockAction;
 
-    private static LruCache<String, BitmapDrawable> sAppIconCache;
-    static {
-        final int cacheSize = Math.min((int)Runtime.getRuntime().maxMemory() / 6, 4194304);
-        sAppIconCache = new LruCache<String, BitmapDrawable>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, BitmapDrawable d) {
-                return d.getBitmap().getByteCount();
-            }
-        };
-    }
-
     public static void cleanupAsync(final Context context) {
         new AsyncTask<Void,Void,Void>() {
             @Override
@@ -451,37 +437,19 @@ public class AppPickerPreference extends DialogPreference
 
             @Override
             protected ArrayList<IIconListAdapterItem> doInBackground(Void... arg0) {
-                ArrayList<IIconListAdapterItem> itemList = new ArrayList<IIconListAdapterItem>();
-                List<ResolveInfo> appList = new ArrayList<ResolveInfo>();
-
-                List<PackageInfo> packages = mPackageManager.getInstalledPackages(0);
-                Intent mainIntent = new Intent();
-                if (mMode == MODE_APP) {
-                    mainIntent.setAction(Intent.ACTION_MAIN);
-                    mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-                } else if (mMode == MODE_SHORTCUT) {
-                    mainIntent.setAction(Intent.ACTION_CREATE_SHORTCUT);
-                }
-                for(PackageInfo pi : packages) {
-                    if (this.isCancelled()) break;
-                    mainIntent.setPackage(pi.packageName);
-                    List<ResolveInfo> activityList = mPackageManager.queryIntentActivities(mainIntent, 0);
-                    for(ResolveInfo ri : activityList) {
-                        appList.add(ri);
-                    }
-                }
-
-                Collections.sort(appList, new ResolveInfo.DisplayNameComparator(mPackageManager));
+                List<AppPickerIndex.Entry> entries = AppPickerIndex.getInstance(mContext).getEntries(mMode);
+                ArrayList<IIconListAdapterItem> itemList =
+                        new ArrayList<IIconListAdapterItem>(entries.size() + 1);
                 if (mNullItemEnabled) {
                     itemList.add(mMode == MODE_SHORTCUT ? 
                         new ShortcutItem(mContext.getString(R.string.app_picker_none), null) :
                         new AppItem(mContext.getString(R.string.app_picker_none), null));
                 }
-                for (ResolveInfo ri : appList) {
+                for (AppPickerIndex.Entry entry : entries) {
                     if (this.isCancelled()) break;
-                    String appName = ri.loadLabel(mPackageManager).toString();
                     IIconListAdapterItem ai = mMode == MODE_SHORTCUT ?
-                            new ShortcutItem(appName, ri) : new AppItem(appName, ri);
+                            new ShortcutItem(entry.label, entry.resolveInfo) :
+                            new AppItem(entry.label, entry.resolveInfo);
                     itemList.add(ai);
                 }
 
@@ -497,7 +465,7 @@ public class AppPickerPreference extends DialogPreference
                 ((IconListAdapter)mListView.getAdapter()).notifyDataSetChanged();
                 mListView.setVisibility(View.VISIBLE);
             }
-        }.execute();
+        }.executeOnExecutor(AppPickerIndex.getInstance(mContext).getExecutor());
     }
 
     public void setValue(String value){
@@ -569,7 +537,7 @@ public class AppPickerPreference extends DialogPreference
             if (mode == MODE_APP) {
                 ComponentName cn = intent.getComponent();
                 ActivityInfo ai = mPackageManager.getActivityInfo(cn, 0);
-                appInfo.name = (ai.loadLabel(mPackageManager).toString());
+                appInfo.name = AppIconCache.getInstance(mContext).getLabel(ai);
                 if (appInfo.icon == null) {
                     appInfo.icon = ai.loadIcon(mPackageManager);
                 }
@@ -635,23 +603,13 @@ public class AppPickerPreference extends DialogPreference
             return null;
         }
 
-        protected String getKey() {
-            return getValue();
-        }
-
         @Override
         public Drawable getIconLeft() {
             if (mResolveInfo == null) return null;
 
             if (mAppIcon == null) {
-                final String key = getKey();
-                mAppIcon = sAppIconCache.get(key);
-                if (mAppIcon == null) {
-                    Bitmap bitmap = Utils.drawableToBitmap(mResolveInfo.loadIcon(mPackageManager));
-                    bitmap = Bitmap.createScaledBitmap(bitmap, mAppIconSizePx, mAppIconSizePx, false);
-                    mAppIcon = new BitmapDrawable(mResources, bitmap);
-                    sAppIconCache.put(key, mAppIcon);
-                }
+                mAppIcon = new BitmapDrawable(mResources, AppIconCache.getInstance(mContext)
+                        .getIcon(mResolveInfo.activityInfo, mAppIconSizePx));
             }
             return mAppIcon;
         }
@@ -690,11 +648,6 @@ public class AppPickerPreference extends DialogPreference
             mShortcutCreatedListener = listener;
         }
 
-        @Override
-        protected String getKey() {
-            return mCreateShortcutIntent.toUri(0);
-        }
-
         @Override
         public Intent getCreateShortcutIntent() {
             return mCreateShortcutIntent;
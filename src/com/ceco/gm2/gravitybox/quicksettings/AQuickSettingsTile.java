@@ -15,6 +15,9 @@
 
 package com.ceco.gm2.gravitybox.quicksettings;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.ceco.gm2.gravitybox.BroadcastSubReceiver;
 import com.ceco.gm2.gravitybox.GravityBoxSettings;
 
@@ -112,6 +115,26 @@ public abstract class AQuickSettingsTile implements OnClickListener, BroadcastSu
         }
     }
 
+    /**
+     * Returns actions of broadcasts this tile handles in {@link #onBroadcastReceived}.
+     * Subclasses handling additional broadcasts extend the list returned by super.
+     */
+    public List<String> getBroadcastActions() {
+        List<String> actions = new ArrayList<String>();
+        actions.add(GravityBoxSettings.ACTION_PREF_QUICKSETTINGS_CHANGED);
+        return actions;
+    }
+
+    /**
+     * Called when tile is being removed from quick settings because user disabled it.
+     * Subclasses must release receivers, observers and listeners registered by them.
+     */
+    public void onDestroy() {
+        if (mContainer != null && mTile != null) {
+            mContainer.removeView(mTile);
+        }
+    }
+
     public void updateResources() {
         if (mTile != null) {
             updateTile();
@@ -525,4 +525,11 @@ public class CameraTile extends BasicTile {
             return generateDirectory().toLowerCase().hashCode();
         }
     }
+
+    @Override
+    public void onDestroy() {
+        mHandler.removeCallbacks(mReleaseCameraRunnable);
+        mReleaseCameraRunnable.run();
+        super.onDestroy();
+    }
 }
\ No newline at end of file
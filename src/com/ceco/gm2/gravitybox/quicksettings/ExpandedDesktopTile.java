@@ -15,6 +15,8 @@
 
 package com.ceco.gm2.gravitybox.quicksettings;
 
+import java.util.List;
+
 import com.ceco.gm2.gravitybox.GravityBoxSettings;
 import com.ceco.gm2.gravitybox.ModExpandedDesktop;
 import com.ceco.gm2.gravitybox.R;
@@ -126,6 +128,13 @@ public class ExpandedDesktopTile extends BasicTile {
         }
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(GravityBoxSettings.ACTION_PREF_EXPANDED_DESKTOP_MODE_CHANGED);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
@@ -136,4 +145,10 @@ public class ExpandedDesktopTile extends BasicTile {
             updateResources();
         }
     }
+
+    @Override
+    public void onDestroy() {
+        mContext.getContentResolver().unregisterContentObserver(mSettingsObserver);
+        super.onDestroy();
+    }
 }
\ No newline at end of file
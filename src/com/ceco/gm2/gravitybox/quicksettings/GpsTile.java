@@ -121,4 +121,10 @@ public class GpsTile extends BasicTile {
 
         super.updateTile();
     }
+
+    @Override
+    public void onDestroy() {
+        mContext.unregisterReceiver(mLocationManagerReceiver);
+        super.onDestroy();
+    }
 }
@@ -75,6 +75,7 @@ public class NetworkModeTile extends BasicTile {
     private boolean mIsMsim;
     private int mSimSlot;
     private TextView mSimSlotTextView;
+    private SettingsObserver mSettingsObserver;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -171,8 +172,8 @@ public class NetworkModeTile extends BasicTile {
 
     @Override
     protected void onTilePostCreate() {
-        SettingsObserver observer = new SettingsObserver(new Handler());
-        observer.observe();
+        mSettingsObserver = new SettingsObserver(new Handler());
+        mSettingsObserver.observe();
 
         super.onTilePostCreate();
     }
@@ -203,6 +204,13 @@ public class NetworkModeTile extends BasicTile {
         }
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(GravityBoxSettings.ACTION_PREF_QS_NETWORK_MODE_SIM_SLOT_CHANGED);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
@@ -280,4 +288,10 @@ public class NetworkModeTile extends BasicTile {
         int index = label.lastIndexOf("(");
         return index > 0 ? label.substring(0, index-1) : label;
     }
+
+    @Override
+    public void onDestroy() {
+        mContext.getContentResolver().unregisterContentObserver(mSettingsObserver);
+        super.onDestroy();
+    }
 }
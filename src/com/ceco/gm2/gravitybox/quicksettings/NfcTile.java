@@ -164,4 +164,10 @@ public class NfcTile extends BasicTile {
         }
         if (DEBUG) log("getNfcState: mNfcState = " + mNfcState);
     }
+
+    @Override
+    public void onDestroy() {
+        mContext.unregisterReceiver(mStateChangeReceiver);
+        super.onDestroy();
+    }
 }
@@ -19,7 +19,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.List;
-
+
+import com.ceco.gm2.gravitybox.AppIconCache;
 import com.ceco.gm2.gravitybox.GravityBoxSettings;
 import com.ceco.gm2.gravitybox.R;
 import com.ceco.gm2.gravitybox.Utils;
@@ -32,8 +33,6 @@ import de.robv.android.xposed.XposedHelpers;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
-import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -66,7 +65,6 @@ public class QuickAppTile extends BasicTile {
 
     private AppInfo mMainApp;
     private List<AppInfo> mAppSlots;
-    private PackageManager mPm;
     private Dialog mDialog;
     private Handler mHandler;
     private int mId = 1;
@@ -153,20 +151,23 @@ public class QuickAppTile extends BasicTile {
                     }
                 }
 
+                int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 40, 
+                        mResources.getDisplayMetrics());
+                int sizePxSmall = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 35, 
+                        mResources.getDisplayMetrics());
                 if (mode == AppPickerPreference.MODE_APP) {
-                    ActivityInfo ai = mPm.getActivityInfo(mIntent.getComponent(), 0);
-                    mAppName = ai.loadLabel(mPm).toString();
+                    AppIconCache iconCache = AppIconCache.getInstance(mContext);
+                    mAppName = iconCache.getLabel(mIntent.getComponent());
                     if (appIcon == null) {
-                        appIcon = Utils.drawableToBitmap(ai.loadIcon(mPm));
+                        mAppIcon = new BitmapDrawable(mResources,
+                                iconCache.getIcon(mIntent.getComponent(), sizePx));
+                        mAppIconSmall = new BitmapDrawable(mResources,
+                                iconCache.getIcon(mIntent.getComponent(), sizePxSmall));
                     }
                 } else if (mode == AppPickerPreference.MODE_SHORTCUT) {
                     mAppName = mIntent.getStringExtra("label");
                 }
                 if (appIcon != null) {
-                    int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 40, 
-                            mResources.getDisplayMetrics());
-                    int sizePxSmall = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 35, 
-                            mResources.getDisplayMetrics());
                     Bitmap scaledIcon;
                     scaledIcon = Bitmap.createScaledBitmap(appIcon, sizePx, sizePx, true);
                     mAppIcon = new BitmapDrawable(mResources, scaledIcon);
@@ -214,7 +215,6 @@ public class QuickAppTile extends BasicTile {
             ACTION_PREF_QUICKAPP_CHANGED += "_" + mId;
         }
 
-        mPm = context.getPackageManager();
         mMainApp = new AppInfo(TILEVIEW_ID[mId-1]);
         mAppSlots = new ArrayList<AppInfo>();
         mAppSlots.add(new AppInfo(R.id.quickapp1));
@@ -340,6 +340,13 @@ public class QuickAppTile extends BasicTile {
         updateSubApp(3, prefs.getString(KEY_QUICKAPP_SLOT4, null));
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(ACTION_PREF_QUICKAPP_CHANGED);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
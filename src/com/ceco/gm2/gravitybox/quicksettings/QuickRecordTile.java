@@ -17,6 +17,7 @@ package com.ceco.gm2.gravitybox.quicksettings;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import com.ceco.gm2.gravitybox.GravityBoxSettings;
 import com.ceco.gm2.gravitybox.R;
@@ -115,6 +116,13 @@ public class QuickRecordTile extends BasicTile {
         mAutoStopDelay = prefs.getInt(GravityBoxSettings.PREF_KEY_QUICKRECORD_AUTOSTOP, 1) * 3600000;
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(RecordingService.ACTION_RECORDING_STATUS_CHANGED);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
@@ -130,4 +130,10 @@ public class QuietHoursTile extends BasicTile implements QuietHoursListener {
                 break;
         }
     }
+
+    @Override
+    public void onDestroy() {
+        SysUiManagers.QuietHoursManager.unregisterListener(this);
+        super.onDestroy();
+    }
 }
@@ -136,6 +136,13 @@ public class RingerModeTile extends BasicTile {
         super.onPreferenceInitialize(prefs);
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(AudioManager.RINGER_MODE_CHANGED_ACTION);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         if (DEBUG) log("Received broadcast: " + intent.toString());
@@ -256,4 +263,12 @@ public class RingerModeTile extends BasicTile {
             mEnabled = false;
         }
     }
+
+    @Override
+    public void onDestroy() {
+        if (mSettingsObserver != null) {
+            mContext.getContentResolver().unregisterContentObserver(mSettingsObserver);
+        }
+        super.onDestroy();
+    }
 }
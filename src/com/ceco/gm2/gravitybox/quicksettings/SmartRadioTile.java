@@ -97,4 +97,10 @@ public class SmartRadioTile extends BasicTile {
             updateResources();
         }
     } 
+
+    @Override
+    public void onDestroy() {
+        mContext.getContentResolver().unregisterContentObserver(mSettingsObserver);
+        super.onDestroy();
+    }
 }
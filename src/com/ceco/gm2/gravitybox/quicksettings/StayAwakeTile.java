@@ -266,4 +266,10 @@ public class StayAwakeTile extends BasicTile {
             updateResources();
         }
     }
+
+    @Override
+    public void onDestroy() {
+        mContext.getContentResolver().unregisterContentObserver(mSettingsObserver);
+        super.onDestroy();
+    }
 }
@@ -129,4 +129,13 @@ public class SyncTile extends BasicTile {
             });
         }
     };
+
+    @Override
+    public void onDestroy() {
+        if (mSyncObserverHandle != null) {
+            ContentResolver.removeStatusChangeListener(mSyncObserverHandle);
+            mSyncObserverHandle = null;
+        }
+        super.onDestroy();
+    }
 }
@@ -52,6 +52,14 @@ public class TorchTile extends BasicTile {
                 toggleState();
             }
         };
+
+        mOnLongClick = new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                toggleStrobe();
+                return true;
+            }
+        };
     }
 
     @Override
@@ -87,4 +95,16 @@ public class TorchTile extends BasicTile {
         si.setAction(TorchService.ACTION_TOGGLE_TORCH);
         mGbContext.startService(si);
     }
+
+    private void toggleStrobe() {
+        Intent si = new Intent(mGbContext, TorchService.class);
+        si.setAction(TorchService.ACTION_TOGGLE_STROBE);
+        mGbContext.startService(si);
+    }
+
+    @Override
+    public void onDestroy() {
+        mContext.unregisterReceiver(mBroadcastReceiver);
+        super.onDestroy();
+    }
 }
\ No newline at end of file
@@ -16,6 +16,8 @@
 
 package com.ceco.gm2.gravitybox.quicksettings;
 
+import java.util.List;
+
 import com.ceco.gm2.gravitybox.R;
 
 import de.robv.android.xposed.XposedBridge;
@@ -65,6 +67,16 @@ public class UsbTetherTile extends BasicTile {
         return R.layout.quick_settings_tile_usb_tether;
     }
 
+    @Override
+    public List<String> getBroadcastActions() {
+        List<String> actions = super.getBroadcastActions();
+        actions.add(ACTION_TETHER_STATE_CHANGED);
+        actions.add(ACTION_USB_STATE);
+        actions.add(Intent.ACTION_MEDIA_SHARED);
+        actions.add(ACTION_MEDIA_UNSHARED);
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
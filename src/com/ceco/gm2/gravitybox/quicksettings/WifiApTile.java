@@ -95,4 +95,10 @@ public class WifiApTile extends BasicTile implements WifiApStateChangeListener {
         mWifiApState = wifiApState;
         updateResources();
     }
+
+    @Override
+    public void onDestroy() {
+        mWifiManager.removeWifiApStateChangeListener();
+        super.onDestroy();
+    }
 }
\ No newline at end of file
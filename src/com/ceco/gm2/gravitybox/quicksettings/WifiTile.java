@@ -201,4 +201,10 @@ public class WifiTile extends BasicTile implements WifiStateChangeListener {
             updateResources();
         }
     }
+
+    @Override
+    public void onDestroy() {
+        mWifiManager.removeWifiStateChangeListener();
+        super.onDestroy();
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Replays mobile traffic traces through the SmartRadio screen off delay
+ * the same way NetworkModeChanger drives it with alarms.
+ */
+public class LinkActivityMonitorTest extends TestCase {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final int KB = 1024;
+
+    /**
+     * Cumulative mobile byte counters built from segments of constant throughput.
+     */
+    private static class Trace {
+        private final List<long[]> mSegments = new ArrayList<long[]>();
+        private boolean mUnsupported;
+
+        // rates in bytes per second
+        Trace transfer(long start, long end, long rxRate, long txRate) {
+            mSegments.add(new long[] { start, end, rxRate, txRate });
+            return this;
+        }
+
+        Trace unsupported() {
+            mUnsupported = true;
+            return this;
+        }
+
+        long bytes(long time, int rateIdx) {
+            if (mUnsupported) return -1;
+            long bytes = 0;
+            for (long[] s : mSegments) {
+                final long end = Math.min(time, s[1]);
+                if (end > s[0]) {
+                    bytes += (end - s[0]) * s[rateIdx] / SECOND;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Result of replaying a trace: time of the mode switch and times of all alarms.
+     */
+    private static class Replay {
+        long switchTime;
+        final List<Long> alarms = new ArrayList<Long>();
+    }
+
+    private static Replay replay(Trace trace, long screenOffTime, long screenOffDelay, int thresholdKBs) {
+        LinkActivityMonitor monitor = new LinkActivityMonitor();
+        Replay r = new Replay();
+        monitor.start(screenOffTime, trace.bytes(screenOffTime, 2), trace.bytes(screenOffTime, 3));
+        long alarm = screenOffTime + screenOffDelay;
+        while (true) {
+            r.alarms.add(alarm);
+            final long delay = monitor.getPostponeDelay(alarm,
+                    trace.bytes(alarm, 2), trace.bytes(alarm, 3), thresholdKBs);
+            if (delay == 0) {
+                r.switchTime = alarm;
+                return r;
+            }
+            assertTrue(delay >= LinkActivityMonitor.INTERVAL_MIN);
+            assertTrue(delay <= LinkActivityMonitor.INTERVAL_MAX);
+            alarm += delay;
+            assertTrue("no switch within a day", alarm < screenOffTime + 24 * 60 * MINUTE);
+        }
+    }
+
+    public void testIdleLinkSwitchesAfterScreenOffDelay() {
+        Replay r = replay(new Trace(), 0, 5 * MINUTE, 10);
+        assertEquals(5 * MINUTE, r.switchTime);
+        assertEquals(1, r.alarms.size());
+    }
+
+    public void testAdaptiveDelayDisabled() {
+        Trace t = new Trace().transfer(0, 60 * MINUTE, 500 * KB, 50 * KB);
+        assertEquals(5 * MINUTE, replay(t, 0, 5 * MINUTE, 0).switchTime);
+    }
+
+    public void testDownloadPostponesUntilLinkIsIdle() {
+        // download keeps running 90 s after the screen off delay elapsed
+        Trace t = new Trace().transfer(0, 6 * MINUTE + 30 * SECOND, 200 * KB, 5 * KB);
+        Replay r = replay(t, 0, 5 * MINUTE, 10);
+
+        // samples at 5:00, 5:15, 5:45, 6:45 find the link busy, 8:45 idle
+        assertEquals(5, r.alarms.size());
+        assertEquals(5 * MINUTE + 15 * SECOND, (long) r.alarms.get(1));
+        assertEquals(5 * MINUTE + 45 * SECOND, (long) r.alarms.get(2));
+        assertEquals(6 * MINUTE + 45 * SECOND, (long) r.alarms.get(3));
+        assertEquals(8 * MINUTE + 45 * SECOND, r.switchTime);
+    }
+
+    public void testUploadAlsoPostpones() {
+        Trace t = new Trace().transfer(0, 6 * MINUTE, 1 * KB, 100 * KB);
+        Replay r = replay(t, 0, 5 * MINUTE, 10);
+        assertTrue(r.switchTime > 6 * MINUTE);
+    }
+
+    public void testBurstIsAveragedOverSamplingWindow() {
+        // 30 s burst at 100 KB/s averages to 10 KB/s over 5 min which is still at threshold
+        Trace t = new Trace().transfer(0, 30 * SECOND, 100 * KB, 0);
+        assertEquals(5 * MINUTE + 15 * SECOND, replay(t, 0, 5 * MINUTE, 10).switchTime);
+        // shorter burst averages below threshold
+        t = new Trace().transfer(0, 20 * SECOND, 100 * KB, 0);
+        assertEquals(5 * MINUTE, replay(t, 0, 5 * MINUTE, 10).switchTime);
+    }
+
+    public void testLongTransferBacksOffToMaxInterval() {
+        Trace t = new Trace().transfer(0, 60 * MINUTE, 100 * KB, 10 * KB);
+        Replay r = replay(t, 0, 1 * MINUTE, 10);
+
+        long prev = r.alarms.get(0);
+        long expected = LinkActivityMonitor.INTERVAL_MIN;
+        for (int i = 1; i < r.alarms.size(); i++) {
+            final long alarm = r.alarms.get(i);
+            assertEquals(expected, alarm - prev);
+            expected = Math.min(expected * 2, LinkActivityMonitor.INTERVAL_MAX);
+            prev = alarm;
+        }
+        // sample window still covering the end of transfer may postpone once more
+        assertTrue(r.switchTime >= 60 * MINUTE);
+        assertTrue(r.switchTime <= 60 * MINUTE + 2 * LinkActivityMonitor.INTERVAL_MAX);
+        // wake ups stay bounded for the hour long transfer
+        assertTrue(r.alarms.size() < 20);
+    }
+
+    public void testIntervalRestartsWithNewScreenOff() {
+        Trace t = new Trace().transfer(0, 30 * MINUTE, 100 * KB, 0)
+                .transfer(60 * MINUTE, 61 * MINUTE, 100 * KB, 0);
+        LinkActivityMonitor monitor = new LinkActivityMonitor();
+        monitor.start(0, t.bytes(0, 2), t.bytes(0, 3));
+        long time = MINUTE;
+        long delay;
+        while ((delay = monitor.getPostponeDelay(time, t.bytes(time, 2), t.bytes(time, 3), 10)) > 0) {
+            time += delay;
+        }
+
+        final long screenOff = 60 * MINUTE;
+        monitor.start(screenOff, t.bytes(screenOff, 2), t.bytes(screenOff, 3));
+        time = screenOff + 30 * SECOND;
+        assertEquals(LinkActivityMonitor.INTERVAL_MIN,
+                monitor.getPostponeDelay(time, t.bytes(time, 2), t.bytes(time, 3), 10));
+    }
+
+    public void testThresholdBoundary() {
+        Trace t = new Trace().transfer(0, 60 * MINUTE, 10 * KB, 0);
+        assertTrue(replay(t, 0, MINUTE, 10).alarms.size() > 1);
+        t = new Trace().transfer(0, 60 * MINUTE, 10 * KB - 1, 0);
+        assertEquals(MINUTE, replay(t, 0, MINUTE, 10).switchTime);
+    }
+
+    public void testUnsupportedTrafficStatsNeverPostpones() {
+        Trace t = new Trace().transfer(0, 60 * MINUTE, 500 * KB, 0).unsupported();
+        assertEquals(5 * MINUTE, replay(t, 0, 5 * MINUTE, 10).switchTime);
+    }
+
+    public void testZeroSamplingWindowDoesNotPostpone() {
+        LinkActivityMonitor monitor = new LinkActivityMonitor();
+        monitor.start(1000, 0, 0);
+        assertEquals(0, monitor.getPostponeDelay(1000, 10 * 1024 * 1024, 0, 10));
+        assertEquals(0, monitor.getPostponeDelay(500, 10 * 1024 * 1024, 0, 10));
+    }
+}
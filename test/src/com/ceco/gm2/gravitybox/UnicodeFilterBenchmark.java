@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures per-keystroke cost of filtering a message being typed into the MMS editor
+ * with full filter(source) compared to incremental filter(source, start, before, count).
+ * Results are logged with tag GB:UnicodeFilterBenchmark.
+ */
+public class UnicodeFilterBenchmark extends TestCase {
+    private static final String TAG = "GB:UnicodeFilterBenchmark";
+    private static final String SENTENCE = "Příliš žluťoučký kůň úpěl ďábelské ódy. ";
+    // long enough to span several SMS parts
+    private static final int MESSAGE_LENGTH = 640;
+    private static final int ROUNDS = 5;
+
+    private static String buildMessage(String sentence) {
+        StringBuilder sb = new StringBuilder(MESSAGE_LENGTH);
+        while (sb.length() < MESSAGE_LENGTH) {
+            sb.append(sentence);
+        }
+        sb.setLength(MESSAGE_LENGTH);
+        return sb.toString();
+    }
+
+    private static long typeFull(UnicodeFilter filter, String message) {
+        StringBuilder text = new StringBuilder(message.length());
+        long sink = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < message.length(); i++) {
+            text.append(message.charAt(i));
+            sink += filter.filter(text).length();
+        }
+        final long time = System.nanoTime() - start;
+        assertTrue(sink > 0);
+        return time;
+    }
+
+    private static long typeIncremental(UnicodeFilter filter, String message) {
+        StringBuilder text = new StringBuilder(message.length());
+        long sink = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < message.length(); i++) {
+            text.append(message.charAt(i));
+            sink += filter.filter(text, i, 0, 1).length();
+        }
+        final long time = System.nanoTime() - start;
+        assertTrue(sink > 0);
+        return time;
+    }
+
+    private static void run(String name, boolean stripNonDecodableOnly, String message) {
+        UnicodeFilter filter = new UnicodeFilter(stripNonDecodableOnly);
+        // warm up replacement tables and JIT
+        typeFull(filter, message);
+        typeIncremental(filter, message);
+
+        long full = Long.MAX_VALUE;
+        long incremental = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            full = Math.min(full, typeFull(filter, message));
+            incremental = Math.min(incremental, typeIncremental(new UnicodeFilter(stripNonDecodableOnly), message));
+        }
+
+        Log.i(TAG, String.format("%s, stripNonDecodableOnly=%b: full %.2f us/key, incremental %.2f us/key",
+                name, stripNonDecodableOnly,
+                full / 1000f / message.length(), incremental / 1000f / message.length()));
+    }
+
+    public void testTypingMessage() {
+        final String accented = buildMessage(SENTENCE);
+        final String ascii = buildMessage("The quick brown fox jumps over the lazy dog. ");
+        for (boolean mode : new boolean[] { false, true }) {
+            run("accented", mode, accented);
+            run("ascii", mode, ascii);
+        }
+    }
+}
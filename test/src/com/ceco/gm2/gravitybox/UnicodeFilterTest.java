@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that incremental filter(source, start, before, count) always produces
+ * the same result as full filter(source) of the edited text.
+ */
+public class UnicodeFilterTest extends TestCase {
+    private static final boolean[] MODES = { false, true };
+    // U+1F600 as surrogate pair
+    private static final String EMOJI = "😀";
+
+    private boolean mStripNonDecodableOnly;
+    private UnicodeFilter mFilter;
+    private StringBuilder mText;
+
+    private void reset(boolean stripNonDecodableOnly, String text) {
+        mStripNonDecodableOnly = stripNonDecodableOnly;
+        mFilter = new UnicodeFilter(stripNonDecodableOnly);
+        mText = new StringBuilder();
+        edit(0, 0, text);
+    }
+
+    private void edit(int start, int before, String text) {
+        mText.replace(start, start + before, text);
+        final CharSequence result = mFilter.filter(mText, start, before, text.length());
+
+        final String source = mText.toString();
+        final CharSequence expected = new UnicodeFilter(mStripNonDecodableOnly).filter(source);
+        final String msg = "mode=" + mStripNonDecodableOnly + " text='" + source + "'";
+        assertEquals(msg, expected.toString(), result.toString());
+        if (expected == source) {
+            assertSame(msg, mText, result);
+        }
+    }
+
+    private void insert(int start, String text) {
+        edit(start, 0, text);
+    }
+
+    private void delete(int start, int count) {
+        edit(start, count, "");
+    }
+
+    public void testInsert() {
+        for (boolean mode : MODES) {
+            reset(mode, "");
+            final String typed = "Příliš žluťoučký kůň úpěl ďábelské ódy Œuvre Łódź";
+            for (int i = 0; i < typed.length(); i++) {
+                insert(i, typed.substring(i, i + 1));
+            }
+            insert(7, "ΑΒΓ");
+            insert(3, "plain");
+            insert(10, "ščř");
+        }
+    }
+
+    public void testDelete() {
+        for (boolean mode : MODES) {
+            reset(mode, "abc šžř def Œ ghi");
+            delete(12, 1);
+            delete(5, 1);
+            delete(0, 3);
+            // drop all remaining replaced chars so that source is returned as is
+            delete(1, 2);
+            assertSame(mText, mFilter.filter(mText, 0, 0, 0));
+            while (mText.length() > 0) {
+                delete(mText.length() / 2, 1);
+            }
+        }
+    }
+
+    public void testReplace() {
+        for (boolean mode : MODES) {
+            reset(mode, "Hello world, how are you?");
+            // expanding and shrinking replacements, replaced chars in and out
+            edit(6, 5, "světe Œœ");
+            edit(0, 5, "Ahoj");
+            edit(4, 10, "");
+            edit(2, 3, "ΨΨΨ plain");
+            edit(0, mText.length(), "all new ďábel");
+            edit(0, mText.length(), "ascii only");
+        }
+    }
+
+    public void testSurrogatePairSplitAcrossEdit() {
+        for (boolean mode : MODES) {
+            reset(mode, "aé");
+            // pair typed as two separate edits
+            insert(1, EMOJI.substring(0, 1));
+            insert(2, EMOJI.substring(1));
+            // edits starting and ending in the middle of the pair
+            insert(2, "ž");
+            delete(2, 1);
+            edit(2, 2, "xô");
+            edit(0, 2, "\uD83D");
+            delete(0, 1);
+            insert(mText.length(), EMOJI + "č" + EMOJI);
+            delete(mText.length() - 1, 1);
+            edit(mText.length() - 1, 1, "\uDE00ý");
+        }
+    }
+
+    public void testBufferBoundaries() {
+        for (boolean mode : MODES) {
+            reset(mode, "middle");
+            insert(0, "č");
+            insert(mText.length(), "ř");
+            delete(0, 1);
+            delete(mText.length() - 1, 1);
+            edit(0, 1, "Ő");
+            edit(mText.length() - 1, 1, "Ű");
+            edit(0, 0, "");
+            edit(mText.length(), 0, "");
+            delete(0, mText.length());
+            insert(0, "é");
+        }
+    }
+
+    public void testStaleEditRangeFallsBackToFullFilter() {
+        for (boolean mode : MODES) {
+            reset(mode, "čau");
+            // range inconsistent with previous call, e.g. edits missed by the caller
+            mText.append("ě ok");
+            final CharSequence result = mFilter.filter(mText, 0, 0, 0);
+            assertEquals(new UnicodeFilter(mode).filter(mText.toString()).toString(),
+                    result.toString());
+        }
+    }
+
+    public void testRandomEdits() {
+        final String alphabet = "abc xyz.éžŒłΣ" + EMOJI;
+        final Random r = new Random(4);
+        for (boolean mode : MODES) {
+            reset(mode, "");
+            for (int i = 0; i < 2000; i++) {
+                final int start = r.nextInt(mText.length() + 1);
+                final int before = r.nextInt(Math.min(4, mText.length() - start) + 1);
+                final StringBuilder text = new StringBuilder();
+                for (int n = r.nextInt(4); n > 0; n--) {
+                    text.append(alphabet.charAt(r.nextInt(alphabet.length())));
+                }
+                edit(start, before, text.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox.ledcontrol;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class KeywordMatcherTest extends TestCase {
+
+    private static KeywordMatcher plain(String list) {
+        return KeywordMatcher.compile(list, KeywordMatcher.SYNTAX_PLAIN);
+    }
+
+    private static KeywordMatcher extended(String list) {
+        return KeywordMatcher.compile(list, KeywordMatcher.SYNTAX_EXTENDED);
+    }
+
+    public void testPlainSyntaxKeepsSubstringSemantics() {
+        KeywordMatcher m = plain("Alarm, urgent,\"cat\",re:a.c");
+        assertTrue(m.matches("ALARM clock"));
+        assertTrue(m.matches("fire alarms"));
+        // keywords are not trimmed
+        assertTrue(m.matches("very urgent"));
+        assertFalse(m.matches("urgent"));
+        // no whole word keywords or patterns
+        assertFalse(m.matches("cat"));
+        assertTrue(m.matches("say \"cat\""));
+        assertFalse(m.matches("abc"));
+        assertTrue(m.matches("re:a.c"));
+    }
+
+    public void testPlainSyntaxListEdgeCases() {
+        assertNull(plain(null));
+        assertNull(plain("  "));
+        // empty keyword is contained in any text
+        KeywordMatcher m = plain("foo,,bar");
+        assertTrue(m.matches(""));
+        assertFalse(m.matchesAny(null, Collections.<String>emptyList()));
+        // only separators: nothing matches but quiet hours are not ignored for all
+        m = plain(" , ");
+        assertNotNull(m);
+        assertFalse(m.matchesAny("anything", Arrays.asList("at", "all")));
+    }
+
+    public void testExtendedSyntax() {
+        KeywordMatcher m = extended(" alarm , \"cat\", re:^\\d+ new$");
+        assertTrue(m.matches("Alarms"));
+        assertTrue(m.matches("the cat sat"));
+        assertTrue(m.matches("CAT"));
+        assertFalse(m.matches("concatenate"));
+        assertTrue(m.matches("12 NEW"));
+        assertFalse(m.matches("12 new messages"));
+        assertTrue(m.matchesAny(null, Arrays.asList("nothing", "Cat!")));
+        assertNull(extended(" , "));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.gm2.gravitybox.ledcontrol;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class QuietHoursScheduleTest extends TestCase {
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final Set<String> WEEK_DAYS = new HashSet<String>(
+            Arrays.asList("2", "3", "4", "5", "6"));
+
+    private static long time(TimeZone tz, int year, int month, int day, int hour, int minute) {
+        Calendar c = new GregorianCalendar(tz);
+        c.clear();
+        c.set(year, month - 1, day, hour, minute);
+        return c.getTimeInMillis();
+    }
+
+    private static long ny(int year, int month, int day, int hour, int minute) {
+        return time(NEW_YORK, year, month, day, hour, minute);
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        return time(UTC, year, month, day, hour, minute);
+    }
+
+    public void testMinuteOfWeekMatchesCalendar() {
+        for (String id : new String[] { "America/New_York", "Asia/Kathmandu", "Australia/Lord_Howe" }) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            Calendar c = new GregorianCalendar(tz);
+            for (long t = utc(2013, 12, 25, 0, 0); t < utc(2015, 1, 5, 0, 0); t += 37 * 60000 + 1234) {
+                c.setTimeInMillis(t);
+                int expected = (c.get(Calendar.DAY_OF_WEEK) - 1) * QuietHoursSchedule.MINUTES_PER_DAY +
+                        c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+                assertEquals(id + " @ " + t, expected, QuietHoursSchedule.getMinuteOfWeek(t, tz));
+            }
+        }
+    }
+
+    public void testRangeWrapsAroundMidnight() {
+        QuietHoursSchedule s = new QuietHoursSchedule(1380, 360, 1380, 360, WEEK_DAYS);
+
+        // Tuesday 11 March 2014
+        assertFalse(s.isActive(ny(2014, 3, 11, 22, 59), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 11, 23, 0), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 11, 23, 59), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 12, 0, 0), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 12, 5, 59), NEW_YORK));
+        assertFalse(s.isActive(ny(2014, 3, 12, 6, 0), NEW_YORK));
+
+        assertEquals(ny(2014, 3, 11, 23, 0),
+                s.getNextTransitionTime(ny(2014, 3, 11, 22, 0) + 30000, NEW_YORK));
+        assertEquals(ny(2014, 3, 12, 6, 0),
+                s.getNextTransitionTime(ny(2014, 3, 11, 23, 30), NEW_YORK));
+        assertEquals(ny(2014, 3, 12, 6, 0),
+                s.getNextTransitionTime(ny(2014, 3, 12, 5, 59) + 59999, NEW_YORK));
+    }
+
+    public void testWeekendTransitions() {
+        // week days 23:00 - 06:00, weekend 01:00 - 10:00
+        QuietHoursSchedule s = new QuietHoursSchedule(1380, 360, 60, 600, WEEK_DAYS);
+
+        // Friday 14 March 2014: people stay up longer before weekend
+        assertTrue(s.isActive(ny(2014, 3, 14, 5, 59), NEW_YORK));
+        assertFalse(s.isActive(ny(2014, 3, 14, 23, 30), NEW_YORK));
+        assertFalse(s.isActive(ny(2014, 3, 15, 0, 30), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 15, 1, 0), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 15, 9, 59), NEW_YORK));
+        assertFalse(s.isActive(ny(2014, 3, 15, 10, 0), NEW_YORK));
+        // Sunday: people go to sleep earlier before week day
+        assertFalse(s.isActive(ny(2014, 3, 16, 22, 59), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 16, 23, 0), NEW_YORK));
+        assertTrue(s.isActive(ny(2014, 3, 17, 5, 59), NEW_YORK));
+        assertFalse(s.isActive(ny(2014, 3, 17, 6, 0), NEW_YORK));
+
+        assertEquals(ny(2014, 3, 15, 1, 0),
+                s.getNextTransitionTime(ny(2014, 3, 14, 22, 0), NEW_YORK));
+        assertEquals(ny(2014, 3, 16, 23, 0),
+                s.getNextTransitionTime(ny(2014, 3, 16, 12, 0), NEW_YORK));
+        assertEquals(ny(2014, 3, 17, 6, 0),
+                s.getNextTransitionTime(ny(2014, 3, 16, 23, 0), NEW_YORK));
+    }
+
+    public void testSpringForwardTransition() {
+        // 9 March 2014 02:00 EST clocks jump to 03:00 EDT so 02:30 never happens
+        QuietHoursSchedule s = new QuietHoursSchedule(1380, 150, 1380, 150, WEEK_DAYS);
+
+        assertTrue(s.isActive(utc(2014, 3, 9, 6, 59), NEW_YORK));
+        assertFalse(s.isActive(utc(2014, 3, 9, 7, 0), NEW_YORK));
+        assertEquals(utc(2014, 3, 9, 7, 0),
+                s.getNextTransitionTime(utc(2014, 3, 9, 5, 30), NEW_YORK));
+    }
+
+    public void testFallBackTransition() {
+        // 2 November 2014 02:00 EDT clocks go back to 01:00 EST so 01:00 - 01:59 happens twice
+        QuietHoursSchedule s = new QuietHoursSchedule(1380, 105, 1380, 105, WEEK_DAYS);
+
+        // 01:45 EDT
+        assertEquals(utc(2014, 11, 2, 5, 45),
+                s.getNextTransitionTime(utc(2014, 11, 2, 4, 30), NEW_YORK));
+        // schedule follows wall clock so repeated 01:00 - 01:45 EST is quiet again
+        assertEquals(utc(2014, 11, 2, 6, 0),
+                s.getNextTransitionTime(utc(2014, 11, 2, 5, 45), NEW_YORK));
+        assertEquals(utc(2014, 11, 2, 6, 45),
+                s.getNextTransitionTime(utc(2014, 11, 2, 6, 0), NEW_YORK));
+    }
+
+    public void testNextTransitionAgreesWithIsActive() {
+        QuietHoursSchedule s = new QuietHoursSchedule(1380, 150, 60, 600, WEEK_DAYS);
+
+        long t = utc(2014, 3, 1, 0, 0);
+        while (t < utc(2014, 11, 30, 0, 0)) {
+            final boolean active = s.isActive(t, NEW_YORK);
+            final long next = s.getNextTransitionTime(t, NEW_YORK);
+            assertTrue(next > t);
+            assertTrue(s.isActive(next, NEW_YORK) != active);
+            assertEquals(active, s.isActive(next - 1, NEW_YORK));
+            t = next;
+        }
+    }
+
+    public void testConstantScheduleHasNoTransition() {
+        QuietHoursSchedule s = new QuietHoursSchedule(600, 600, 600, 600, WEEK_DAYS);
+
+        assertFalse(s.isActive(ny(2014, 3, 12, 10, 0), NEW_YORK));
+        assertEquals(Long.MAX_VALUE, s.getNextTransitionTime(ny(2014, 3, 12, 10, 0), NEW_YORK));
+    }
+}